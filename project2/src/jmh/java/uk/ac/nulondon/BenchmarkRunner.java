@@ -0,0 +1,54 @@
+package uk.ac.nulondon;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with allocation profiling and JSON results.
+ *
+ * It accepts the usual JMH command-line options. Unless they say otherwise, the GC profiler is
+ * enabled, so every result also reports the bytes allocated per operation, and the results are
+ * written as JSON to jmh-result.json so that runs can be compared over time.
+ */
+public final class BenchmarkRunner {
+    /**
+     * The file the results are written to unless another one is given.
+     */
+    private static final String DEFAULT_RESULT = "jmh-result.json";
+
+    /**
+     * Prevents the runner from being instantiated.
+     */
+    private BenchmarkRunner() {
+    }
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @param args The JMH command-line options, for example {@code ImageBenchmark -p image=1024x1024}.
+     * @throws CommandLineOptionException If the options cannot be parsed.
+     * @throws RunnerException If a benchmark fails.
+     */
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        // Profile the allocations unless other profilers were asked for
+        if (commandLine.getProfilers().isEmpty()) {
+            options.addProfiler(GCProfiler.class);
+        }
+        // Write the results as JSON unless another format or file was asked for
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLine.getResult().hasValue()) {
+            options.result(DEFAULT_RESULT);
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,207 @@
+package uk.ac.nulondon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the hot paths of an editing session: loading, updating the energy, finding seams,
+ * removing and inserting seams, and writing the result.
+ *
+ * Each benchmark runs on a synthetic image of a given size ("256x256" up to "7680x4320", 8K UHD)
+ * or on one of the bundled sample images ("sample:beach"). Large sizes need a large heap, so every
+ * fork gets 8 GB; pick fewer sizes with {@code -p image=...} on smaller machines.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class ImageBenchmark {
+    /**
+     * The prefix of an image parameter that names a bundled sample image.
+     */
+    private static final String SAMPLE_PREFIX = "sample:";
+
+    /**
+     * The image to benchmark: a size such as "1024x1024", or a sample image such as "sample:beach".
+     */
+    @Param({"256x256", "1024x1024", "1920x1080", "3840x2160", "7680x4320",
+            "sample:beach", "sample:duck", "sample:home", "sample:snowman"})
+    private String image;
+
+    /**
+     * The PNG file the image is loaded from.
+     */
+    private File input;
+
+    /**
+     * The PNG file the image is written to.
+     */
+    private File output;
+
+    /**
+     * The loaded image that the benchmarks work on.
+     */
+    private Image loaded;
+
+    /**
+     * The lowest energy seam of the loaded image.
+     */
+    private ArrayList<Pixel> seam;
+
+    /**
+     * Writes the image to a temporary PNG file and loads it.
+     *
+     * @throws IOException If the image cannot be written or read.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        input = File.createTempFile("benchmark-input", ".png");
+        output = File.createTempFile("benchmark-output", ".png");
+        if (image.startsWith(SAMPLE_PREFIX)) {
+            copySample(image.substring(SAMPLE_PREFIX.length()), input);
+        } else {
+            String[] size = image.split("x");
+            writeSynthetic(Integer.parseInt(size[0]), Integer.parseInt(size[1]), input);
+        }
+        loaded = new Image(input.getPath());
+        seam = loaded.findLowestEnergySeam();
+    }
+
+    /**
+     * Deletes the temporary files.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        input.delete();
+        output.delete();
+    }
+
+    /**
+     * Loads the image from its PNG file, including the first energy calculation.
+     *
+     * @return The loaded image.
+     * @throws IOException If the image cannot be read.
+     */
+    @Benchmark
+    public Image load() throws IOException {
+        return new Image(input.getPath());
+    }
+
+    /**
+     * Recalculates the brightness and energy of every pixel.
+     *
+     * @return The image, so that the work is not optimized away.
+     */
+    @Benchmark
+    public Image updateAllValues() {
+        loaded.updateAllValues();
+        return loaded;
+    }
+
+    /**
+     * Finds the lowest energy seam.
+     *
+     * @return The seam.
+     */
+    @Benchmark
+    public ArrayList<Pixel> findLowestEnergySeam() {
+        return loaded.findLowestEnergySeam();
+    }
+
+    /**
+     * Finds the bluest seam.
+     *
+     * @return The seam.
+     */
+    @Benchmark
+    public ArrayList<Pixel> findBluestSeam() {
+        return loaded.findBluestSeam();
+    }
+
+    /**
+     * Removes a seam, updates the energy, inserts the seam back and updates the energy again,
+     * as the editor does for a deletion followed by an undo.
+     *
+     * @return The image, so that the work is not optimized away.
+     */
+    @Benchmark
+    public Image removeInsertRoundTrip() {
+        loaded.removeSeam(seam);
+        loaded.updateValues();
+        loaded.insertSeam(loaded.getLastRemovedSeam());
+        loaded.updateValues();
+        return loaded;
+    }
+
+    /**
+     * Writes the image to a PNG file, as exportImage does.
+     *
+     * @throws IOException If the image cannot be written.
+     */
+    @Benchmark
+    public void export() throws IOException {
+        loaded.writeImage(output);
+    }
+
+    /**
+     * Writes a noisy image with smooth gradients to a PNG file.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param file The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    private static void writeSynthetic(int width, int height, File file) throws IOException {
+        Random random = new Random(1);
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = (x + random.nextInt(32)) & 0xFF;
+                int green = (y + random.nextInt(32)) & 0xFF;
+                int blue = (x + y) & 0xFF;
+                img.setRGB(x, y, red << 16 | green << 8 | blue);
+            }
+        }
+        ImageIO.write(img, "png", file);
+    }
+
+    /**
+     * Copies a bundled sample image to a file.
+     *
+     * @param name The name of the sample image, without the extension.
+     * @param file The file to write.
+     * @throws IOException If the sample image does not exist or the file cannot be written.
+     */
+    private static void copySample(String name, File file) throws IOException {
+        try (InputStream sample = ImageBenchmark.class.getResourceAsStream("/SampleImages/" + name + ".png")) {
+            if (sample == null) {
+                throw new IOException("No sample image named " + name);
+            }
+            Files.copy(sample, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
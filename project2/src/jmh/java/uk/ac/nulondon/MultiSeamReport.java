@@ -0,0 +1,125 @@
+package uk.ac.nulondon;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Compares carving with several seams per seam search against carving one seam at a time.
+ *
+ * Each bundled sample image is scaled up (to 1920x1080 by default) and carved to three quarters of its
+ * width, once with one seam per search and once for each number of seams per pass. The report prints the
+ * carving time, the speed-up, and the total energy left in the carved image, also relative to one seam
+ * at a time. Carving tries to remove as little energy as it can, so the more energy is kept, the better.
+ * Run with {@code java -cp target/benchmarks.jar uk.ac.nulondon.MultiSeamReport [WIDTHxHEIGHT] [k...]}.
+ */
+public final class MultiSeamReport {
+    /**
+     * The size the sample images are scaled up to unless another one is given.
+     */
+    private static final String DEFAULT_SIZE = "1920x1080";
+
+    /**
+     * The numbers of seams per pass compared unless others are given.
+     */
+    private static final int[] DEFAULT_SEAMS_PER_PASS = {2, 4, 8, 16, 32, 64};
+
+    /**
+     * The fraction of the width that is kept.
+     */
+    private static final double KEPT_WIDTH = 0.75;
+
+    /**
+     * Prevents the report from being instantiated.
+     */
+    private MultiSeamReport() {
+    }
+
+    /**
+     * Prints the report.
+     *
+     * @param args The size to scale the samples to, such as 1920x1080, followed by the numbers of seams per pass.
+     * @throws IOException If a sample image cannot be read or written.
+     */
+    public static void main(String[] args) throws IOException {
+        String[] size = (args.length > 0 ? args[0] : DEFAULT_SIZE).split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+        int[] counts = DEFAULT_SEAMS_PER_PASS;
+        if (args.length > 1) {
+            counts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                counts[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        int targetWidth = (int) (width * KEPT_WIDTH);
+        System.out.printf("%-8s %5s %10s %8s %14s %8s%n", "image", "k", "carve ms", "speed-up", "energy kept",
+                "vs k=1");
+        File file = File.createTempFile("multi-seam", ".png");
+        try {
+            for (String sample : ReportSamples.SAMPLES) {
+                ImageIO.write(ReportSamples.scale(ReportSamples.readSample(sample), width, height), "png", file);
+                long[] single = carve(file, targetWidth, 1);
+                print(sample, 1, single, single);
+                for (int count : counts) {
+                    print(sample, count, carve(file, targetWidth, count), single);
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Prints a line of the report.
+     *
+     * @param sample The name of the sample image.
+     * @param count The number of seams per pass.
+     * @param result The time and the energy kept with that number of seams per pass.
+     * @param single The time and the energy kept with one seam at a time.
+     */
+    private static void print(String sample, int count, long[] result, long[] single) {
+        System.out.printf("%-8s %5d %10.1f %7.1fx %14d %7.2f%%%n", sample, count,
+                result[0] / ReportSamples.NANOS_PER_MILLI, (double) single[0] / result[0], result[1],
+                ReportSamples.PERCENT * result[1] / Math.max(single[1], 1));
+    }
+
+    /**
+     * Carves an image with the given number of seams per pass, once to warm up and once more to time it.
+     *
+     * @param file The image file.
+     * @param targetWidth The width to carve to.
+     * @param count The number of seams per pass.
+     * @return The carving time in nanoseconds, and the total energy of the carved image.
+     * @throws IOException If the image cannot be read.
+     */
+    private static long[] carve(File file, int targetWidth, int count) throws IOException {
+        carveOnce(file, targetWidth, count);
+        return carveOnce(file, targetWidth, count);
+    }
+
+    /**
+     * Carves an image with the given number of seams per pass.
+     *
+     * @param file The image file.
+     * @param targetWidth The width to carve to.
+     * @param count The number of seams per pass.
+     * @return The carving time in nanoseconds, and the total energy of the carved image.
+     * @throws IOException If the image cannot be read.
+     */
+    private static long[] carveOnce(File file, int targetWidth, int count) throws IOException {
+        try (Image image = new Image(file.getPath())) {
+            image.setSeamsPerPass(count);
+            long start = System.nanoTime();
+            image.carveToWidth(targetWidth, SeamCriterion.LOWEST_ENERGY);
+            long elapsed = System.nanoTime() - start;
+            long energy = 0;
+            for (Pixel pixel : image.toPixelGraph()) {
+                for (; pixel != null; pixel = pixel.getRight()) {
+                    energy += pixel.getEnergy();
+                }
+            }
+            return new long[] {elapsed, energy};
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package uk.ac.nulondon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares converting between decoded images and packed colors pixel by pixel, as the Image
+ * constructor and exportImage used to, with converting them in bulk through RasterIO.
+ *
+ * The PNG codec itself is left out: each image is decoded once during setup, exactly as ImageIO
+ * decodes it when an Image is loaded, so only the conversion is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RasterIOBenchmark {
+    /**
+     * The prefix of an image parameter that names a bundled sample image.
+     */
+    private static final String SAMPLE_PREFIX = "sample:";
+
+    /**
+     * The image to convert: a size such as "1920x1080", or a sample image such as "sample:beach".
+     */
+    @Param({"sample:beach", "sample:duck", "sample:home", "sample:snowman", "1920x1080", "3840x2160"})
+    private String image;
+
+    /**
+     * The decoded image.
+     */
+    private BufferedImage decoded;
+
+    /**
+     * The packed colors of the decoded image.
+     */
+    private int[] argb;
+
+    /**
+     * Decodes the image and reads its packed colors.
+     *
+     * @throws IOException If the image cannot be decoded.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        byte[] png;
+        if (image.startsWith(SAMPLE_PREFIX)) {
+            String name = "/SampleImages/" + image.substring(SAMPLE_PREFIX.length()) + ".png";
+            try (InputStream sample = RasterIOBenchmark.class.getResourceAsStream(name)) {
+                png = sample.readAllBytes();
+            }
+        } else {
+            String[] size = image.split("x");
+            png = syntheticPng(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+        }
+        decoded = ImageIO.read(new ByteArrayInputStream(png));
+        argb = RasterIO.readArgb(decoded);
+    }
+
+    /**
+     * Reads the colors with one getRGB call per pixel.
+     *
+     * @return The packed colors.
+     */
+    @Benchmark
+    public int[] loadPerPixel() {
+        int width = decoded.getWidth();
+        int[] colors = new int[width * decoded.getHeight()];
+        for (int y = 0; y < decoded.getHeight(); y++) {
+            for (int x = 0; x < width; x++) {
+                colors[y * width + x] = decoded.getRGB(x, y);
+            }
+        }
+        return colors;
+    }
+
+    /**
+     * Reads the colors in bulk from the data buffer.
+     *
+     * @return The packed colors.
+     */
+    @Benchmark
+    public int[] loadBulk() {
+        return RasterIO.readArgb(decoded);
+    }
+
+    /**
+     * Builds an image to export with one setRGB call per pixel.
+     *
+     * @return The image.
+     */
+    @Benchmark
+    public BufferedImage exportPerPixel() {
+        int width = decoded.getWidth();
+        BufferedImage img = new BufferedImage(width, decoded.getHeight(), BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < decoded.getHeight(); y++) {
+            for (int x = 0; x < width; x++) {
+                img.setRGB(x, y, argb[y * width + x]);
+            }
+        }
+        return img;
+    }
+
+    /**
+     * Builds an image to export by wrapping the packed colors.
+     *
+     * @return The image.
+     */
+    @Benchmark
+    public BufferedImage exportBulk() {
+        return RasterIO.wrapRgb(decoded.getWidth(), decoded.getHeight(), argb);
+    }
+
+    /**
+     * Encodes a noisy image as a PNG.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @return The PNG file contents.
+     * @throws IOException If the image cannot be encoded.
+     */
+    private static byte[] syntheticPng(int width, int height) throws IOException {
+        Random random = new Random(1);
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                img.setRGB(x, y, random.nextInt());
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,68 @@
+package uk.ac.nulondon;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Holds what the reports that compare carving strategies on the bundled sample images share:
+ * the names of the samples, reading and scaling them, and the units the reports print in.
+ */
+public final class ReportSamples {
+    /**
+     * The bundled sample images.
+     */
+    public static final String[] SAMPLES = {"beach", "duck", "home", "snowman"};
+
+    /**
+     * The number of nanoseconds in a millisecond.
+     */
+    public static final double NANOS_PER_MILLI = 1e6;
+
+    /**
+     * The number of percent in a whole.
+     */
+    public static final double PERCENT = 100;
+
+    /**
+     * Prevents the helper from being instantiated.
+     */
+    private ReportSamples() {
+    }
+
+    /**
+     * Reads a bundled sample image.
+     *
+     * @param name The name of the sample image, without the extension.
+     * @return The image.
+     * @throws IOException If the sample image does not exist or cannot be read.
+     */
+    public static BufferedImage readSample(String name) throws IOException {
+        try (InputStream sample = ReportSamples.class.getResourceAsStream("/SampleImages/" + name + ".png")) {
+            if (sample == null) {
+                throw new IOException("No sample image named " + name);
+            }
+            return ImageIO.read(sample);
+        }
+    }
+
+    /**
+     * Scales an image to the given size with bicubic interpolation.
+     *
+     * @param img The image to scale.
+     * @param width The width to scale to.
+     * @param height The height to scale to.
+     * @return The scaled image.
+     */
+    public static BufferedImage scale(BufferedImage img, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        graphics.drawImage(img, 0, 0, width, height, null);
+        graphics.dispose();
+        return scaled;
+    }
+}
@@ -0,0 +1,99 @@
+package uk.ac.nulondon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the seam search scales with the number of threads.
+ *
+ * The costs are random energies held in a plain array, so only the dynamic programming is measured.
+ * Run with, for example, {@code java -jar target/benchmarks.jar SeamFinderBenchmark -p threads=1,2,4,8,16,32}
+ * to see the scaling on a given machine.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SeamFinderBenchmark {
+    /**
+     * The width of the image.
+     */
+    @Param({"1024", "8192", "16384"})
+    private int width;
+
+    /**
+     * The height of the image.
+     */
+    @Param({"1024"})
+    private int height;
+
+    /**
+     * The number of threads each row is split across.
+     */
+    @Param({"1", "2", "4", "8"})
+    private int threads;
+
+    /**
+     * The cost of each pixel, row by row.
+     */
+    private int[] costs;
+
+    /**
+     * The seam finder under test.
+     */
+    private SeamFinder seamFinder;
+
+    /**
+     * The threads the seam finder splits its rows across.
+     */
+    private Parallelism parallelism;
+
+    /**
+     * Fills the image with random energies and sets up the seam finder.
+     */
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        costs = new int[width * height];
+        for (int i = 0; i < costs.length; i++) {
+            costs[i] = random.nextInt(1444);
+        }
+        seamFinder = new SeamFinder();
+        parallelism = new Parallelism(threads, SeamFinder.DEFAULT_ROW_THRESHOLD);
+        seamFinder.setParallelism(parallelism);
+    }
+
+    /**
+     * Shuts down the pool of the seam finder, if it has one of its own.
+     */
+    @TearDown
+    public void tearDown() {
+        parallelism.close();
+    }
+
+    /**
+     * Finds the lowest cost seam.
+     *
+     * @return The seam, so that the search is not optimized away.
+     */
+    @Benchmark
+    public int[] findMinSeam() {
+        return seamFinder.findMinSeam(width, height, (y, from, to, row) ->
+                System.arraycopy(costs, y * width + from, row, from, to - from));
+    }
+}
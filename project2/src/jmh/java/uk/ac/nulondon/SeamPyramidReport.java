@@ -0,0 +1,108 @@
+package uk.ac.nulondon;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Compares the coarse-to-fine seam search of SeamPyramid with the exact search of SeamFinder.
+ *
+ * Each bundled sample image is scaled up to a large size (8K UHD by default), and for each band width
+ * the report prints the time of both searches, the speed-up, and how much more the pyramid seam costs
+ * than the exact seam, in total and per row. Only the searches are timed: the energy is computed once, beforehand.
+ * Run with {@code java -cp target/benchmarks.jar uk.ac.nulondon.SeamPyramidReport [WIDTHxHEIGHT] [bands...]}.
+ */
+public final class SeamPyramidReport {
+    /**
+     * The size the sample images are scaled up to unless another one is given.
+     */
+    private static final String DEFAULT_SIZE = "7680x4320";
+
+    /**
+     * The band widths compared unless others are given.
+     */
+    private static final int[] DEFAULT_BANDS = {1, 2, 4, 8, 16, 32};
+
+    /**
+     * The number of untimed searches run before the timed ones, so that the code is compiled.
+     */
+    private static final int WARMUP_RUNS = 5;
+
+    /**
+     * The number of timed searches; the fastest one is reported.
+     */
+    private static final int TIMED_RUNS = 7;
+
+    /**
+     * Prevents the report from being instantiated.
+     */
+    private SeamPyramidReport() {
+    }
+
+    /**
+     * Prints the report.
+     *
+     * @param args The size to scale the samples to, such as 7680x4320, followed by the band widths to compare.
+     * @throws IOException If a sample image cannot be read.
+     */
+    public static void main(String[] args) throws IOException {
+        String[] size = (args.length > 0 ? args[0] : DEFAULT_SIZE).split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+        int[] bands = DEFAULT_BANDS;
+        if (args.length > 1) {
+            bands = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                bands[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.printf("%-8s %5s %10s %10s %8s %12s %12s %8s %8s%n", "image", "band", "exact ms", "pyramid ms",
+                "speed-up", "exact cost", "pyramid cost", "excess", "per row");
+        for (String sample : ReportSamples.SAMPLES) {
+            // Compute the energy of the scaled up sample once
+            PixelStore store = new HeapPixelStore(width, height);
+            BufferedImage scaled = ReportSamples.scale(ReportSamples.readSample(sample), width, height);
+            store.setColors(RasterIO.readArgb(scaled));
+            store.calculateValues(Parallelism.common());
+            SeamFinder.CostRows source = store::fillEnergyRow;
+
+            // Split the rows of both searches across threads, as an Image does
+            SeamFinder exactFinder = new SeamFinder();
+            exactFinder.setParallelism(Parallelism.common(SeamFinder.DEFAULT_ROW_THRESHOLD));
+            double exactMillis = time(() -> exactFinder.findMinSeam(width, height, source));
+            long exactCost = exactFinder.getLastSeamCost();
+            for (int band : bands) {
+                SeamFinder bandFinder = new SeamFinder();
+                bandFinder.setParallelism(Parallelism.common(SeamFinder.DEFAULT_ROW_THRESHOLD));
+                SeamPyramid pyramid = new SeamPyramid(bandFinder);
+                pyramid.setParallelism(Parallelism.common());
+                pyramid.setBand(band);
+                double pyramidMillis = time(() -> pyramid.findMinSeam(width, height, source));
+                long pyramidCost = pyramid.getLastSeamCost();
+                // The excess is also given per row, since the seams of smooth images cost next to nothing
+                System.out.printf("%-8s %5d %10.1f %10.1f %7.1fx %12d %12d %7.1f%% %8.3f%n", sample, band,
+                        exactMillis, pyramidMillis, exactMillis / pyramidMillis, exactCost, pyramidCost,
+                        ReportSamples.PERCENT * (pyramidCost - exactCost) / Math.max(exactCost, 1),
+                        (double) (pyramidCost - exactCost) / height);
+            }
+        }
+    }
+
+    /**
+     * Times a search, after warming it up.
+     *
+     * @param search The search to time.
+     * @return The time of the fastest run, in milliseconds.
+     */
+    private static double time(Runnable search) {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            search.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < TIMED_RUNS; i++) {
+            long start = System.nanoTime();
+            search.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / ReportSamples.NANOS_PER_MILLI;
+    }
+}
@@ -0,0 +1,217 @@
+package uk.ac.nulondon;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The AsyncImageWriter class writes snapshots of an image to PNG files on a background thread,
+ * so that the thread editing the image never waits for PNG compression.
+ *
+ * Previews are coalesced: only the latest preview matters, so a preview that is replaced by a newer
+ * one before the writer gets to it is skipped. Durable writes are never skipped; they are written
+ * to a temporary file, synced to disk and then moved over the target, so the target is never left
+ * half written. Files are written in the order they were handed over.
+ */
+public class AsyncImageWriter implements AutoCloseable {
+    /**
+     * The number of nanoseconds in a millisecond.
+     */
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /**
+     * The single background thread that writes the files, in the order they were handed over.
+     */
+    private final ExecutorService executor =
+            Executors.newSingleThreadExecutor(task -> new Thread(task, "image-writer"));
+
+    /**
+     * The latest preview that has not been written yet, or null if there is none.
+     */
+    private final AtomicReference<PendingWrite> latestPreview = new AtomicReference<>();
+
+    /**
+     * The number of files written.
+     */
+    private final AtomicInteger written = new AtomicInteger();
+
+    /**
+     * The number of previews skipped because a newer one replaced them.
+     */
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    /**
+     * The number of files that could not be written.
+     */
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**
+     * The total time from handing over a file to having it written, over all written files.
+     */
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+
+    /**
+     * The longest time from handing over a file to having it written.
+     */
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    /**
+     * Hands over a preview to be written in the background.
+     * If the previous preview has not been written yet, it is skipped in favor of this one.
+     *
+     * @param output The file to write.
+     * @param snapshot The snapshot of the image to write.
+     */
+    public void writePreview(File output, ImageSnapshot snapshot) {
+        PendingWrite previous = latestPreview.getAndSet(new PendingWrite(output, snapshot, System.nanoTime()));
+        if (previous != null) {
+            skipped.incrementAndGet();
+        }
+        executor.execute(this::writeLatestPreview);
+    }
+
+    /**
+     * Hands over an image to be written durably in the background.
+     * It is written after every file handed over before it.
+     *
+     * @param output The file to write.
+     * @param snapshot The snapshot of the image to write.
+     * @return A future that completes with whether the file was written.
+     */
+    public Future<Boolean> writeDurably(File output, ImageSnapshot snapshot) {
+        PendingWrite write = new PendingWrite(output, snapshot, System.nanoTime());
+        return executor.submit(() -> write(write, true));
+    }
+
+    /**
+     * Waits for every file handed over so far to be written, then stops the background thread.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns a summary of the files written so far and how long they took.
+     *
+     * @return The summary.
+     */
+    public String getSummary() {
+        int count = written.get();
+        double average = count == 0 ? 0 : totalLatencyNanos.get() / NANOS_PER_MILLI / count;
+        return String.format("%d images written (%d previews skipped, %d failed), latency average %.1f ms, max %.1f ms",
+                count, skipped.get(), failed.get(), average, maxLatencyNanos.get() / NANOS_PER_MILLI);
+    }
+
+    /**
+     * Writes the latest preview, if it has not been written by an earlier call already.
+     */
+    private void writeLatestPreview() {
+        PendingWrite preview = latestPreview.getAndSet(null);
+        if (preview != null) {
+            write(preview, false);
+        }
+    }
+
+    /**
+     * Writes a file and records how long it took from being handed over.
+     * If the file cannot be written, the stack trace is printed.
+     *
+     * @param write The file to write.
+     * @param durable Whether to sync the file to disk and replace the target atomically.
+     * @return Whether the file was written.
+     */
+    private boolean write(PendingWrite write, boolean durable) {
+        try {
+            BufferedImage img = write.snapshot.toBufferedImage();
+            if (durable) {
+                writeDurably(img, write.output.toPath());
+            } else {
+                ImageIO.write(img, "png", write.output);
+            }
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            e.printStackTrace();
+            return false;
+        }
+        long latency = System.nanoTime() - write.handedOverNanos;
+        written.incrementAndGet();
+        totalLatencyNanos.addAndGet(latency);
+        maxLatencyNanos.accumulateAndGet(latency, Math::max);
+        return true;
+    }
+
+    /**
+     * Writes an image to a temporary file next to the target, syncs it to disk and moves it over the target.
+     *
+     * @param img The image to write.
+     * @param target The file to write.
+     * @throws IOException If the image cannot be written.
+     */
+    private static void writeDurably(BufferedImage img, Path target) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             BufferedOutputStream out = new BufferedOutputStream(file)) {
+            ImageIO.write(img, "png", out);
+            out.flush();
+            file.getFD().sync();
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * A file waiting to be written.
+     */
+    private static final class PendingWrite {
+        /**
+         * The file to write.
+         */
+        private final File output;
+
+        /**
+         * The snapshot of the image to write.
+         */
+        private final ImageSnapshot snapshot;
+
+        /**
+         * The time the file was handed over, from System.nanoTime.
+         */
+        private final long handedOverNanos;
+
+        /**
+         * Constructs a new PendingWrite.
+         *
+         * @param output The file to write.
+         * @param snapshot The snapshot of the image to write.
+         * @param handedOverNanos The time the file was handed over, from System.nanoTime.
+         */
+        private PendingWrite(File output, ImageSnapshot snapshot, long handedOverNanos) {
+            this.output = output;
+            this.snapshot = snapshot;
+            this.handedOverNanos = handedOverNanos;
+        }
+    }
+}
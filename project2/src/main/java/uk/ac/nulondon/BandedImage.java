@@ -0,0 +1,365 @@
+package uk.ac.nulondon;
+
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Vector;
+
+/**
+ * The BandedImage class presents the pixels of a PixelStore as a RenderedImage made of horizontal
+ * bands of rows, without copying the whole image.
+ *
+ * Image writers ask a RenderedImage for its pixels one tile or one row at a time, so writing a
+ * BandedImage only ever holds a band of packed colors in memory next to the store itself.
+ * The colors are read from the store when they are asked for, so the store must not change
+ * while the image is being written.
+ *
+ * Like any RenderedImage, a BandedImage returns copies of its pixels from getData. Image writes itself
+ * through the one made by forWriter instead, whose getData returns rows of a band loaded into the
+ * EXPORT_BAND buffer of a ScratchArena, so writing allocates nothing per row. That is only safe for a
+ * PNG writer, which copies the samples out of each row before it asks for the next, so such an image
+ * is never handed out.
+ */
+public class BandedImage implements RenderedImage {
+    /**
+     * The store holding the pixels of the image.
+     */
+    private final PixelStore store;
+
+    /**
+     * The number of rows in each band (tile) of the image.
+     */
+    private final int bandRows;
+
+    /**
+     * Whether getData returns rows of the loaded band rather than copies, for an image writer only.
+     */
+    private final boolean shareBands;
+
+    /**
+     * The arena whose EXPORT_BAND buffer shared bands are loaded into, or null for that of the current thread.
+     */
+    private final ScratchArena arena;
+
+    /**
+     * The band of rows loaded for getData, a view of the EXPORT_BAND buffer of bandArena,
+     * or null if none is loaded yet.
+     */
+    private WritableRaster band;
+
+    /**
+     * The arena whose buffer holds the loaded band.
+     */
+    private ScratchArena bandArena;
+
+    /**
+     * Constructs a new BandedImage.
+     *
+     * @param store The store holding the pixels of the image.
+     * @param bandRows The number of rows in each band of the image.
+     */
+    public BandedImage(PixelStore store, int bandRows) {
+        this(store, bandRows, false, null);
+    }
+
+    /**
+     * Constructs a new BandedImage.
+     *
+     * @param store The store holding the pixels of the image.
+     * @param bandRows The number of rows in each band of the image.
+     * @param shareBands Whether getData returns rows of the loaded band rather than copies.
+     * @param arena The arena to load shared bands into, or null for that of the current thread.
+     */
+    private BandedImage(PixelStore store, int bandRows, boolean shareBands, ScratchArena arena) {
+        this.store = store;
+        this.bandRows = Math.max(1, Math.min(bandRows, store.getHeight()));
+        this.shareBands = shareBands;
+        this.arena = arena;
+    }
+
+    /**
+     * Returns a BandedImage for a PNG writer, whose getData returns a view of a scratch band for a rectangle
+     * of up to a band of rows. The view is only valid until the next call, which is how a PNG writer uses
+     * it, so the image must not be handed to anything else.
+     *
+     * @param store The store holding the pixels of the image.
+     * @param bandRows The number of rows in each band of the image.
+     * @param arena The arena to load the bands into, or null for that of the current thread.
+     * @return The image.
+     */
+    static BandedImage forWriter(PixelStore store, int bandRows, ScratchArena arena) {
+        return new BandedImage(store, bandRows, true, arena);
+    }
+
+    /**
+     * Returns the packed colors of a rectangle of the image as a new raster.
+     * Only the rows of the rectangle are copied out of the store. For an image made by forWriter,
+     * a rectangle of up to a band of rows is a view of a scratch band instead.
+     *
+     * @param rect The rectangle to copy.
+     * @return The raster, with the same bounds as the rectangle.
+     */
+    @Override
+    public Raster getData(Rectangle rect) {
+        Rectangle bounds = rect.intersection(new Rectangle(0, 0, getWidth(), getHeight()));
+        // Rectangles of up to a band, such as the single rows a PNG writer asks for, share the loaded band
+        WritableRaster rows = shareBands && bounds.height <= bandRows ? loadedBand(bounds.y, bounds.height)
+                : copyRows(bounds.y, bounds.height);
+        return rows.createChild(bounds.x, bounds.y, bounds.width, bounds.height, bounds.x, bounds.y, null);
+    }
+
+    /**
+     * Returns the packed colors of the whole image as a raster.
+     * This copies the whole image, so image writers should not need it.
+     *
+     * @return The raster.
+     */
+    @Override
+    public Raster getData() {
+        return copyRows(0, getHeight());
+    }
+
+    /**
+     * Returns a band of the image.
+     *
+     * @param tileX The column of the tile, always 0.
+     * @param tileY The index of the band.
+     * @return The raster of the band.
+     */
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        int fromRow = tileY * bandRows;
+        return copyRows(fromRow, Math.min(bandRows, getHeight() - fromRow));
+    }
+
+    /**
+     * Copies a rectangle of the image into a raster, band by band.
+     *
+     * @param raster The raster to fill, or null to copy the whole image into a new raster.
+     * @return The filled raster.
+     */
+    @Override
+    public WritableRaster copyData(WritableRaster raster) {
+        if (raster == null) {
+            return copyRows(0, getHeight());
+        }
+        Rectangle bounds = raster.getBounds().intersection(new Rectangle(0, 0, getWidth(), getHeight()));
+        for (int y = bounds.y; y < bounds.y + bounds.height; y += bandRows) {
+            int rows = Math.min(bandRows, bounds.y + bounds.height - y);
+            raster.setRect(copyRows(y, rows).createChild(bounds.x, y, bounds.width, rows, bounds.x, y, null));
+        }
+        return raster;
+    }
+
+    /**
+     * Copies a band of rows out of the store into a new raster.
+     *
+     * @param fromRow The first row of the band.
+     * @param rows The number of rows in the band.
+     * @return The raster, starting at the first row of the band.
+     */
+    private WritableRaster copyRows(int fromRow, int rows) {
+        int[] argb = new int[getWidth() * rows];
+        store.copyRows(fromRow, rows, argb);
+        return RasterIO.createRgbRaster(getWidth(), rows, fromRow, argb);
+    }
+
+    /**
+     * Returns a raster of the band holding the given rows, read into the EXPORT_BAND buffer of the arena,
+     * or of the arena of the current thread. The band stays loaded until rows outside of it are asked for,
+     * so an image writer asking for one row at a time only reads the store once per band, and the buffer
+     * is reused for every band of every image written through the arena.
+     *
+     * @param fromRow The first row asked for.
+     * @param rows The number of rows asked for, at most bandRows.
+     * @return The raster of the loaded band, which covers the rows asked for.
+     */
+    private WritableRaster loadedBand(int fromRow, int rows) {
+        ScratchArena scratch = arena != null ? arena : ScratchArena.forCurrentThread();
+        // The band is only still loaded if no other image used the buffer since
+        if (band == null || bandArena != scratch || !scratch.holds(ScratchArena.Buffer.EXPORT_BAND, this)
+                || fromRow < band.getMinY() || fromRow + rows > band.getMinY() + band.getHeight()) {
+            // Load the band starting at the first row asked for, so the rows that follow are in it too
+            int count = Math.min(bandRows, getHeight() - fromRow);
+            int[] argb = scratch.ints(ScratchArena.Buffer.EXPORT_BAND, getWidth() * bandRows, this);
+            store.copyRows(fromRow, count, argb);
+            band = RasterIO.createRgbRaster(getWidth(), count, fromRow, argb);
+            bandArena = scratch;
+        }
+        return band;
+    }
+
+    /**
+     * Returns the images this image is computed from, which are none.
+     *
+     * @return Null, since the image has no sources.
+     */
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    /**
+     * Returns a property of the image, which has none.
+     *
+     * @param name The name of the property.
+     * @return java.awt.Image.UndefinedProperty, since the image has no properties.
+     */
+    @Override
+    public Object getProperty(String name) {
+        return java.awt.Image.UndefinedProperty;
+    }
+
+    /**
+     * Returns the names of the properties of the image, which has none.
+     *
+     * @return Null, since the image has no properties.
+     */
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    /**
+     * Returns the color model of the image: 24-bit packed RGB.
+     *
+     * @return The color model.
+     */
+    @Override
+    public ColorModel getColorModel() {
+        return RasterIO.rgbColorModel();
+    }
+
+    /**
+     * Returns the sample model of a band of the image.
+     *
+     * @return The sample model.
+     */
+    @Override
+    public SampleModel getSampleModel() {
+        return RasterIO.rgbSampleModel(getWidth(), bandRows);
+    }
+
+    /**
+     * Returns the width of the image.
+     *
+     * @return The width of the image.
+     */
+    @Override
+    public int getWidth() {
+        return store.getWidth();
+    }
+
+    /**
+     * Returns the height of the image.
+     *
+     * @return The height of the image.
+     */
+    @Override
+    public int getHeight() {
+        return store.getHeight();
+    }
+
+    /**
+     * Returns the first column of the image.
+     *
+     * @return 0.
+     */
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    /**
+     * Returns the first row of the image.
+     *
+     * @return 0.
+     */
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    /**
+     * Returns the number of tiles across the image; each band spans the whole width.
+     *
+     * @return 1.
+     */
+    @Override
+    public int getNumXTiles() {
+        return 1;
+    }
+
+    /**
+     * Returns the number of bands in the image.
+     *
+     * @return The number of bands.
+     */
+    @Override
+    public int getNumYTiles() {
+        return (getHeight() + bandRows - 1) / bandRows;
+    }
+
+    /**
+     * Returns the column of the first tile.
+     *
+     * @return 0.
+     */
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    /**
+     * Returns the index of the first band.
+     *
+     * @return 0.
+     */
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    /**
+     * Returns the width of a band, which is the width of the image.
+     *
+     * @return The width of a band.
+     */
+    @Override
+    public int getTileWidth() {
+        return getWidth();
+    }
+
+    /**
+     * Returns the number of rows in a band.
+     *
+     * @return The height of a band.
+     */
+    @Override
+    public int getTileHeight() {
+        return bandRows;
+    }
+
+    /**
+     * Returns the column where the grid of tiles starts.
+     *
+     * @return 0.
+     */
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    /**
+     * Returns the row where the grid of bands starts.
+     *
+     * @return 0.
+     */
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+}
@@ -0,0 +1,897 @@
+package uk.ac.nulondon;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * The BatchCarver class carves every image of a directory to a target size, without any interaction.
+ *
+ * The images go through a pipeline of three stages: decode, carve and encode. Each stage has its own
+ * threads and a bounded queue of images waiting for it, so one image can be read from disk while another
+ * is carved and a third is written, and the time spent in the codecs overlaps with the carving. Carving
+ * is bounded by the number of workers, and each image is carved on one thread so the workers do not
+ * compete for the cores. When a stage falls behind, its queue fills up and the stages before it wait,
+ * and the metrics of each stage show which one that was.
+ *
+ * Decoded images waiting in the queues still take up memory, so an image only starts decoding once its
+ * estimated size fits within a memory budget, and gives its share back once it has been written.
+ *
+ * Each image is written as a PNG named after its input file. Inputs that only differ by their extension,
+ * such as a.jpg and a.png, keep their extension in the name, as a.jpg.png and a.png.png, so that none of
+ * them overwrites another.
+ */
+public class BatchCarver {
+    /**
+     * The estimated number of bytes an image takes up per pixel while it is processed: its store, the
+     * decoded band of rows, and the tables of the seam search.
+     */
+    public static final int BYTES_PER_IMAGE_PIXEL = 24;
+
+    /**
+     * The default number of threads decoding images, and of threads writing them.
+     */
+    public static final int DEFAULT_CODEC_THREADS = 2;
+
+    /**
+     * The file name extensions of the images picked up from a directory.
+     */
+    private static final List<String> IMAGE_EXTENSIONS = List.of(".png", ".jpg", ".jpeg", ".bmp", ".gif");
+
+    /**
+     * The number of bytes the memory budget counts in a permit, so that large budgets fit in an int.
+     */
+    private static final int BYTES_PER_PERMIT = 1024;
+
+    /**
+     * The number of percent in a whole.
+     */
+    private static final double PERCENT = 100;
+
+    /**
+     * The directory the carved images are written to.
+     */
+    private final Path outputDirectory;
+
+    /**
+     * The target size, such as "800" (a width), "800x600" (a width and a height) or "75%" (of the width).
+     */
+    private final String target;
+
+    /**
+     * The criterion used to choose the seams.
+     */
+    private final SeamCostFunction criterion;
+
+    /**
+     * The number of images carved at the same time.
+     */
+    private final int workers;
+
+    /**
+     * The memory budget of the images being processed, in permits of BYTES_PER_PERMIT bytes.
+     */
+    private final int budgetPermits;
+
+    /**
+     * The number of threads decoding images.
+     */
+    private int decoders = DEFAULT_CODEC_THREADS;
+
+    /**
+     * The number of threads writing carved images.
+     */
+    private int encoders = DEFAULT_CODEC_THREADS;
+
+    /**
+     * The number of images that may wait in front of each stage.
+     */
+    private int queueCapacity;
+
+    /**
+     * Constructs a new BatchCarver.
+     *
+     * @param outputDirectory The directory the carved images are written to.
+     * @param target The target size, such as "800" (a width), "800x600" (a width and a height) or "75%" (of the
+     *               width).
+     * @param criterion The criterion used to choose the seams.
+     * @param workers The number of images carved at the same time, at least 1, which is also the default
+     *                number of images that may wait in front of each stage.
+     * @param memoryBudget The number of bytes the images being processed may take up. An image larger than
+     *                     the whole budget is still processed, but on its own.
+     */
+    public BatchCarver(Path outputDirectory, String target, SeamCostFunction criterion, int workers,
+                       long memoryBudget) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("At least one worker is needed, not " + workers);
+        }
+        // Check the target size once, rather than failing on every image
+        targetSize(target, 1, 1);
+        this.outputDirectory = outputDirectory;
+        this.target = target;
+        this.criterion = criterion;
+        this.workers = workers;
+        this.budgetPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / BYTES_PER_PERMIT));
+        // Enough waiting images to give every worker its next one as soon as it is free
+        this.queueCapacity = workers;
+    }
+
+    /**
+     * Lists the images to carve: every image file of a directory, or the files matching a glob pattern
+     * on their name, such as "photos/*.jpg".
+     *
+     * @param input A directory, or a glob pattern for the file names in a directory.
+     * @return The image files, sorted by path.
+     * @throws IOException If the directory cannot be listed.
+     */
+    public static List<Path> listInputs(String input) throws IOException {
+        Path directory = Path.of(input);
+        PathMatcher matcher;
+        if (Files.isDirectory(directory)) {
+            matcher = file -> IMAGE_EXTENSIONS.stream()
+                    .anyMatch(file.getFileName().toString().toLowerCase(Locale.ROOT)::endsWith);
+        } else {
+            // The last part of the path is a pattern for the names of the files in its parent directory
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + directory.getFileName());
+            directory = directory.getParent() != null ? directory.getParent() : Path.of(".");
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(Files::isRegularFile).filter(file -> matcher.matches(file.getFileName()))
+                    .sorted().toList();
+        }
+    }
+
+    /**
+     * Works out the size to carve an image to.
+     *
+     * @param target The target size, such as "800", "800x600" or "75%".
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @return The target width and height.
+     * @throws IllegalArgumentException If the target size cannot be parsed.
+     */
+    public static int[] targetSize(String target, int width, int height) {
+        try {
+            if (target.endsWith("%")) {
+                double percent = Double.parseDouble(target.substring(0, target.length() - 1));
+                return new int[] {(int) Math.round(width * percent / PERCENT), height};
+            }
+            String[] parts = target.split("x");
+            if (parts.length == 1) {
+                return new int[] {Integer.parseInt(parts[0]), height};
+            }
+            if (parts.length == 2) {
+                return new int[] {Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a target size: " + target, e);
+        }
+        throw new IllegalArgumentException("Not a target size: " + target);
+    }
+
+    /**
+     * Sets the number of threads decoding images. Decoding mostly waits for the disk and the codec, so a
+     * couple of threads are usually enough to keep the carving workers fed.
+     *
+     * @param decoders The number of threads, at least 1.
+     */
+    public void setDecoders(int decoders) {
+        if (decoders < 1) {
+            throw new IllegalArgumentException("At least one decoder is needed, not " + decoders);
+        }
+        this.decoders = decoders;
+    }
+
+    /**
+     * Sets the number of threads writing carved images.
+     *
+     * @param encoders The number of threads, at least 1.
+     */
+    public void setEncoders(int encoders) {
+        if (encoders < 1) {
+            throw new IllegalArgumentException("At least one encoder is needed, not " + encoders);
+        }
+        this.encoders = encoders;
+    }
+
+    /**
+     * Sets the number of images that may wait in front of each stage. A deeper queue smooths out images
+     * of different sizes, at the cost of more decoded images held in memory.
+     *
+     * @param queueCapacity The number of images, at least 1.
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("A capacity of at least one image is needed, not " + queueCapacity);
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Carves the given images, and waits until all of them have been written or have failed.
+     * A failed image does not stop the others.
+     *
+     * @param inputs The image files to carve.
+     * @param listener The listener told about each image once it is done, from the thread that wrote it,
+     *                 or null for none.
+     * @return The summary of the batch.
+     * @throws IOException If the output directory cannot be created, or the thread is interrupted, which
+     *                     stops the stages.
+     * @throws RuntimeException If the listener, or a stage, throws; this stops the other stages and is
+     *                          rethrown once they have stopped. An Error is rethrown as it is.
+     */
+    public Summary run(List<Path> inputs, Consumer<Result> listener) throws IOException {
+        Files.createDirectories(outputDirectory);
+        // Hand out the budget in order, so a large image is not overtaken by smaller ones forever
+        Semaphore memory = new Semaphore(budgetPermits, true);
+        List<Result> results = Collections.synchronizedList(new ArrayList<>());
+        // Count the images holding a share of the budget, to report how many were in memory at once
+        AtomicInteger inMemory = new AtomicInteger();
+        AtomicInteger maxInMemory = new AtomicInteger();
+        // Build the stages from the last one back, since each one hands its images on to the next
+        PipelineStage<Job> encode = new PipelineStage<>("encode", encoders, queueCapacity, job -> {
+            encode(job, memory, inMemory);
+            results.add(job.result);
+            if (listener != null) {
+                listener.accept(job.result);
+            }
+        }, null);
+        PipelineStage<Job> carve = new PipelineStage<>("carve", workers, queueCapacity, this::carve, encode);
+        PipelineStage<Job> decode = new PipelineStage<>("decode", decoders, queueCapacity,
+                job -> decode(job, memory, inMemory, maxInMemory), carve);
+        List<PipelineStage<Job>> stages = List.of(decode, carve, encode);
+        // An abort drops the images in the stages, whose stores may be files that have to be deleted
+        stages.forEach(stage -> stage.setDropHandler(BatchCarver::discard));
+        long start = System.nanoTime();
+        stages.forEach(PipelineStage::start);
+        try {
+            try {
+                // Feed the images in, waiting whenever the decoders fall behind
+                List<String> outputNames = outputNames(inputs);
+                for (int i = 0; i < inputs.size(); i++) {
+                    decode.put(new Job(inputs.get(i), outputNames.get(i)));
+                }
+                decode.finish();
+            } catch (CancellationException e) {
+                // A stage failed and aborted the pipeline; its failure is rethrown once the stages stop
+            }
+            for (PipelineStage<Job> stage : stages) {
+                stage.join();
+            }
+        } catch (InterruptedException e) {
+            // Stop the stages rather than leave their threads carving a batch nobody waits for
+            decode.abort();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while carving the batch", e);
+        }
+        for (PipelineStage<Job> stage : stages) {
+            Throwable failure = stage.getFailure();
+            if (failure instanceof Error error) {
+                throw error;
+            } else if (failure != null) {
+                throw (RuntimeException) failure;
+            }
+        }
+        return new Summary(new ArrayList<>(results), new ArrayList<>(stages), System.nanoTime() - start,
+                maxInMemory.get());
+    }
+
+    /**
+     * Closes the image of a job dropped by an aborted pipeline, deleting the files of its store if it has any.
+     *
+     * @param job The job.
+     */
+    private static void discard(Job job) {
+        try (Image image = job.image) {
+            job.image = null;
+        } catch (IOException e) {
+            // The batch is failing already, so the image is given up on
+            job.result.error = e;
+        }
+    }
+
+    /**
+     * Decodes an image once it fits within the memory budget. This is the work of the decode stage.
+     *
+     * @param job The image.
+     * @param memory The memory budget.
+     * @param inMemory The number of images holding a share of the budget.
+     * @param maxInMemory The largest number of images that held a share of the budget at once.
+     */
+    private void decode(Job job, Semaphore memory, AtomicInteger inMemory, AtomicInteger maxInMemory) {
+        Result result = job.result;
+        try {
+            // Wait for the image to fit within the memory budget
+            long[] size = readSize(result.input);
+            long bytes = size[0] * size[1] * BYTES_PER_IMAGE_PIXEL;
+            int permits = (int) Math.min(budgetPermits, Math.max(1, bytes / BYTES_PER_PERMIT));
+            long waitStart = System.nanoTime();
+            memory.acquire(permits);
+            job.permits = permits;
+            maxInMemory.accumulateAndGet(inMemory.incrementAndGet(), Math::max);
+            result.memoryWaitNanos = System.nanoTime() - waitStart;
+            long decodeStart = System.nanoTime();
+            job.image = new Image(result.input.toString());
+            result.width = job.image.getWidth();
+            result.height = job.image.getHeight();
+            job.queued = System.nanoTime();
+            result.decodeNanos = job.queued - decodeStart;
+        } catch (IOException | RuntimeException e) {
+            // The image still goes through the other stages, which skip it, so the encode stage reports it
+            result.error = e;
+        } catch (InterruptedException e) {
+            // Only an abort interrupts a decoder, and the stage stops as soon as it sees the flag
+            result.error = e;
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Carves a decoded image to the target size. This is the work of the carve stage.
+     *
+     * @param job The image.
+     */
+    private void carve(Job job) {
+        Result result = job.result;
+        if (result.error != null) {
+            return;
+        }
+        long carveStart = System.nanoTime();
+        result.workerWaitNanos = carveStart - job.queued;
+        long allocatedBefore = ScratchArena.threadAllocatedBytes();
+        try {
+            int[] targetSize = targetSize(target, result.width, result.height);
+            // The workers already keep the cores busy, so each image is carved on one thread, with the
+            // tables of the seam search this worker kept from its last image, and without an undo history
+            job.image.setParallelism(Parallelism.SEQUENTIAL);
+            job.image.setSeamFinder(ScratchArena.forCurrentThread().getSeamFinder());
+            job.image.setSeamParallelism(Parallelism.SEQUENTIAL);
+            job.image.setKeepHistory(false);
+            job.image.carveTo(targetSize[0], targetSize[1], criterion);
+            result.carvedWidth = job.image.getWidth();
+            result.carvedHeight = job.image.getHeight();
+        } catch (RuntimeException e) {
+            result.error = e;
+        }
+        result.carveAllocatedBytes = ScratchArena.threadAllocatedBytes() - allocatedBefore;
+        job.queued = System.nanoTime();
+        result.carveNanos = job.queued - carveStart;
+    }
+
+    /**
+     * Writes a carved image, then frees it and gives its share of the memory budget back, whether it was
+     * carved or failed. This is the work of the encode stage.
+     *
+     * @param job The image.
+     * @param memory The memory budget.
+     * @param inMemory The number of images holding a share of the budget.
+     */
+    private void encode(Job job, Semaphore memory, AtomicInteger inMemory) {
+        Result result = job.result;
+        try (Image image = job.image) {
+            if (result.error == null) {
+                long writeStart = System.nanoTime();
+                result.encodeWaitNanos = writeStart - job.queued;
+                result.output = outputDirectory.resolve(job.outputName);
+                image.writeImage(result.output.toFile());
+                result.writeNanos = System.nanoTime() - writeStart;
+            }
+        } catch (IOException | RuntimeException e) {
+            result.error = e;
+        } finally {
+            job.image = null;
+            if (job.permits > 0) {
+                inMemory.decrementAndGet();
+                memory.release(job.permits);
+            }
+        }
+    }
+
+    /**
+     * Reads the width and height of an image from the header of its file, without decoding it.
+     *
+     * @param input The image file.
+     * @return The width and height of the image.
+     * @throws IOException If the file is not an image that can be read.
+     */
+    private static long[] readSize(Path input) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(input.toFile())) {
+            return readSize(in, "Cannot read image file: " + input);
+        }
+    }
+
+    /**
+     * Reads the width and height of an image from its header, without decoding it.
+     *
+     * @param in The stream of the encoded image, or null if none could be created.
+     * @param error The message of the exception thrown if it is not an image that can be read.
+     * @return The width and height.
+     * @throws IOException If it is not an image that can be read.
+     */
+    static long[] readSize(ImageInputStream in, String error) throws IOException {
+        Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+        if (readers == null || !readers.hasNext()) {
+            throw new IOException(error);
+        }
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(in, true, true);
+            return new long[] {reader.getWidth(0), reader.getHeight(0)};
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Returns the names of the PNG files the carved images are written to: the name of each input file
+     * with its extension replaced, or with ".png" added if another input has the same name without its
+     * extension. A name that is still the same as that of an earlier input, such as that of "a.jpg.png"
+     * next to "a.jpg" and "a.png", gets a suffix such as "-1" that no other input has.
+     * Names are compared ignoring case, since some file systems do.
+     *
+     * @param inputs The image files.
+     * @return The name of the output file of each input, in the same order.
+     */
+    public static List<String> outputNames(List<Path> inputs) {
+        // Count the inputs sharing each name without its extension
+        Map<String, Integer> stems = new HashMap<>();
+        for (Path input : inputs) {
+            stems.merge(stem(input).toLowerCase(Locale.ROOT), 1, Integer::sum);
+        }
+        List<String> names = new ArrayList<>(inputs.size());
+        for (Path input : inputs) {
+            String stem = stem(input);
+            boolean shared = stems.get(stem.toLowerCase(Locale.ROOT)) > 1;
+            names.add(shared ? input.getFileName().toString() : stem);
+        }
+        // Keep the suffixes clear of the names the other inputs have
+        Set<String> reserved = new HashSet<>();
+        for (String name : names) {
+            reserved.add(name.toLowerCase(Locale.ROOT));
+        }
+        Set<String> taken = new HashSet<>();
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            if (!taken.add(name.toLowerCase(Locale.ROOT))) {
+                // An earlier input has this name, so add the first suffix nobody else has
+                String suffixed = name;
+                for (int n = 1; reserved.contains(suffixed.toLowerCase(Locale.ROOT))
+                        || !taken.add(suffixed.toLowerCase(Locale.ROOT)); n++) {
+                    suffixed = name + "-" + n;
+                }
+                names.set(i, suffixed);
+            }
+        }
+        names.replaceAll(name -> name + ".png");
+        return names;
+    }
+
+    /**
+     * Returns the name of a file without its extension.
+     *
+     * @param input The file.
+     * @return The name without the extension.
+     */
+    private static String stem(Path input) {
+        String name = input.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * The Job class is an image on its way through the stages.
+     */
+    private static final class Job {
+        /**
+         * The result for the image, filled in by each stage.
+         */
+        private final Result result;
+
+        /**
+         * The name of the file the carved image is written to, in the output directory.
+         */
+        private final String outputName;
+
+        /**
+         * The decoded image, or null before it is decoded and after it is written.
+         */
+        private Image image;
+
+        /**
+         * The share of the memory budget the image holds, in permits.
+         */
+        private int permits;
+
+        /**
+         * The time the image was handed on to the queue of the next stage, from System.nanoTime.
+         */
+        private long queued;
+
+        /**
+         * Constructs a new Job for an image that has not been decoded yet.
+         *
+         * @param input The image file.
+         * @param outputName The name of the file the carved image is written to, in the output directory.
+         */
+        private Job(Path input, String outputName) {
+            this.result = new Result(input);
+            this.outputName = outputName;
+        }
+    }
+
+    /**
+     * The Result class holds what happened to one image of a batch, with the time each stage took.
+     */
+    public static final class Result {
+        /**
+         * The image file.
+         */
+        private final Path input;
+
+        /**
+         * The file the carved image was written to, or null if it was not written.
+         */
+        private Path output;
+
+        /**
+         * The width of the image before carving.
+         */
+        private int width;
+
+        /**
+         * The height of the image before carving.
+         */
+        private int height;
+
+        /**
+         * The width of the image after carving.
+         */
+        private int carvedWidth;
+
+        /**
+         * The height of the image after carving.
+         */
+        private int carvedHeight;
+
+        /**
+         * The time spent waiting for the image to fit within the memory budget, in nanoseconds.
+         */
+        private long memoryWaitNanos;
+
+        /**
+         * The time spent decoding the image, in nanoseconds.
+         */
+        private long decodeNanos;
+
+        /**
+         * The time the decoded image spent waiting for a worker, in nanoseconds.
+         */
+        private long workerWaitNanos;
+
+        /**
+         * The time spent carving the image, in nanoseconds.
+         */
+        private long carveNanos;
+
+        /**
+         * The number of bytes the worker allocated while carving the image, or a negative number if the
+         * JVM does not count allocations.
+         */
+        private long carveAllocatedBytes;
+
+        /**
+         * The time the carved image spent waiting for an encoder, in nanoseconds.
+         */
+        private long encodeWaitNanos;
+
+        /**
+         * The time spent writing the carved image, in nanoseconds.
+         */
+        private long writeNanos;
+
+        /**
+         * The error that stopped the image, or null if it was carved and written.
+         */
+        private Throwable error;
+
+        /**
+         * Constructs a new Result for an image that has not been processed yet.
+         *
+         * @param input The image file.
+         */
+        private Result(Path input) {
+            this.input = input;
+        }
+
+        /**
+         * Returns the image file.
+         *
+         * @return The image file.
+         */
+        public Path getInput() {
+            return input;
+        }
+
+        /**
+         * Returns the file the carved image was written to.
+         *
+         * @return The output file, or null if the image failed.
+         */
+        public Path getOutput() {
+            return error == null ? output : null;
+        }
+
+        /**
+         * Returns the width of the image before carving.
+         *
+         * @return The width, or 0 if the image could not be decoded.
+         */
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * Returns the height of the image before carving.
+         *
+         * @return The height, or 0 if the image could not be decoded.
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * Returns the width of the image after carving.
+         *
+         * @return The carved width, or 0 if the image failed.
+         */
+        public int getCarvedWidth() {
+            return carvedWidth;
+        }
+
+        /**
+         * Returns the height of the image after carving.
+         *
+         * @return The carved height, or 0 if the image failed.
+         */
+        public int getCarvedHeight() {
+            return carvedHeight;
+        }
+
+        /**
+         * Returns the number of seams removed from the image.
+         *
+         * @return The number of seams.
+         */
+        public int getSeams() {
+            return error == null ? width - carvedWidth + height - carvedHeight : 0;
+        }
+
+        /**
+         * Returns the time spent waiting for the image to fit within the memory budget.
+         *
+         * @return The time, in nanoseconds.
+         */
+        public long getMemoryWaitNanos() {
+            return memoryWaitNanos;
+        }
+
+        /**
+         * Returns the time spent decoding the image.
+         *
+         * @return The time, in nanoseconds.
+         */
+        public long getDecodeNanos() {
+            return decodeNanos;
+        }
+
+        /**
+         * Returns the time the decoded image spent waiting for a worker.
+         *
+         * @return The time, in nanoseconds.
+         */
+        public long getWorkerWaitNanos() {
+            return workerWaitNanos;
+        }
+
+        /**
+         * Returns the time spent carving the image.
+         *
+         * @return The time, in nanoseconds.
+         */
+        public long getCarveNanos() {
+            return carveNanos;
+        }
+
+        /**
+         * Returns the number of bytes the worker allocated on the heap while carving the image. Once the
+         * worker has carved an image as large, this is little more than the seams themselves.
+         *
+         * @return The number of bytes, or a negative number if the JVM does not count allocations.
+         */
+        public long getCarveAllocatedBytes() {
+            return carveAllocatedBytes;
+        }
+
+        /**
+         * Returns the time the carved image spent waiting for an encoder.
+         *
+         * @return The time, in nanoseconds.
+         */
+        public long getEncodeWaitNanos() {
+            return encodeWaitNanos;
+        }
+
+        /**
+         * Returns the time spent writing the carved image.
+         *
+         * @return The time, in nanoseconds.
+         */
+        public long getWriteNanos() {
+            return writeNanos;
+        }
+
+        /**
+         * Returns the error that stopped the image.
+         *
+         * @return The error, or null if the image was carved and written.
+         */
+        public Throwable getError() {
+            return error;
+        }
+    }
+
+    /**
+     * The Summary class holds the results of a whole batch and its throughput.
+     */
+    public static final class Summary {
+        /**
+         * The number of nanoseconds in a second.
+         */
+        private static final double NANOS_PER_SECOND = 1e9;
+
+        /**
+         * The number of pixels in a megapixel.
+         */
+        private static final double PIXELS_PER_MEGAPIXEL = 1e6;
+
+        /**
+         * The result for each image, in the order they finished.
+         */
+        private final List<Result> results;
+
+        /**
+         * The decode, carve and encode stages, with their metrics.
+         */
+        private final List<PipelineStage<?>> stages;
+
+        /**
+         * The time the whole batch took, in nanoseconds.
+         */
+        private final long wallNanos;
+
+        /**
+         * The largest number of images that held a share of the memory budget at once.
+         */
+        private final int maxImagesInMemory;
+
+        /**
+         * Constructs a new Summary.
+         *
+         * @param results The result for each image.
+         * @param stages The decode, carve and encode stages.
+         * @param wallNanos The time the whole batch took, in nanoseconds.
+         * @param maxImagesInMemory The largest number of images that held a share of the memory budget at once.
+         */
+        private Summary(List<Result> results, List<PipelineStage<?>> stages, long wallNanos, int maxImagesInMemory) {
+            this.results = Collections.unmodifiableList(results);
+            this.stages = Collections.unmodifiableList(stages);
+            this.wallNanos = wallNanos;
+            this.maxImagesInMemory = maxImagesInMemory;
+        }
+
+        /**
+         * Returns the largest number of images that held a share of the memory budget at once, from the
+         * start of their decoding to the end of their writing.
+         *
+         * @return The number of images.
+         */
+        public int getMaxImagesInMemory() {
+            return maxImagesInMemory;
+        }
+
+        /**
+         * Returns the result for each image, in the order they finished.
+         *
+         * @return The results.
+         */
+        public List<Result> getResults() {
+            return results;
+        }
+
+        /**
+         * Returns the decode, carve and encode stages, in order, whose queue depths and busy times show
+         * which stage held the batch back.
+         *
+         * @return The stages.
+         */
+        public List<PipelineStage<?>> getStages() {
+            return stages;
+        }
+
+        /**
+         * Returns the time the whole batch took.
+         *
+         * @return The time, in nanoseconds.
+         */
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        /**
+         * Returns the number of images that were carved and written.
+         *
+         * @return The number of images.
+         */
+        public int getSucceeded() {
+            return (int) results.stream().filter(result -> result.getError() == null).count();
+        }
+
+        /**
+         * Returns the number of images that failed.
+         *
+         * @return The number of images.
+         */
+        public int getFailed() {
+            return results.size() - getSucceeded();
+        }
+
+        /**
+         * Returns the number of images carved per second.
+         *
+         * @return The throughput, in images per second.
+         */
+        public double getImagesPerSecond() {
+            return getSucceeded() * NANOS_PER_SECOND / Math.max(wallNanos, 1);
+        }
+
+        /**
+         * Returns the number of megapixels of input carved per second.
+         *
+         * @return The throughput, in megapixels per second.
+         */
+        public double getMegapixelsPerSecond() {
+            double megapixels = results.stream().filter(result -> result.getError() == null)
+                    .mapToDouble(result -> (double) result.getWidth() * result.getHeight()).sum();
+            megapixels /= PIXELS_PER_MEGAPIXEL;
+            return megapixels * NANOS_PER_SECOND / Math.max(wallNanos, 1);
+        }
+
+        /**
+         * Returns the number of seams removed per second, over all images.
+         *
+         * @return The throughput, in seams per second.
+         */
+        public double getSeamsPerSecond() {
+            return results.stream().mapToLong(Result::getSeams).sum() * NANOS_PER_SECOND / Math.max(wallNanos, 1);
+        }
+    }
+}
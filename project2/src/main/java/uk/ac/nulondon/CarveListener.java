@@ -0,0 +1,16 @@
+package uk.ac.nulondon;
+
+/**
+ * The CarveListener interface receives progress updates while an image is being carved.
+ */
+@FunctionalInterface
+public interface CarveListener {
+    /**
+     * Called after each seam has been removed.
+     *
+     * @param seamsRemoved The number of seams removed so far.
+     * @param seamsTotal The total number of seams that will be removed.
+     * @param elapsedNanos The time spent carving so far, in nanoseconds.
+     */
+    void seamRemoved(int seamsRemoved, int seamsTotal, long elapsedNanos);
+}
@@ -0,0 +1,61 @@
+package uk.ac.nulondon;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The CarvingEvent class is the Java Flight Recorder event of an operation timed by CarvingMetrics,
+ * so a recording shows the carving of an image next to the garbage collections and allocations it caused.
+ *
+ * The event is only created when a recording has it enabled, with a setting such as
+ * {@code uk.ac.nulondon.CarvingOperation#enabled=true}. It is begun as the operation starts and committed
+ * as it ends, so its duration is that of the operation, and a threshold on the event, such as
+ * {@code uk.ac.nulondon.CarvingOperation#threshold=10 ms}, keeps only the operations that took that long.
+ */
+@Name("uk.ac.nulondon.CarvingOperation")
+@Label("Carving Operation")
+@Category("Seam Carving")
+@Description("An operation of the carving engine, such as loading an image, updating energies or finding a seam")
+@StackTrace(false)
+public class CarvingEvent extends Event {
+    /**
+     * The name of the operation, as in the JSON of CarvingMetrics.
+     */
+    @Label("Operation")
+    private String operation;
+
+    /**
+     * The width of the image once the operation was done.
+     */
+    @Label("Width")
+    private int width;
+
+    /**
+     * The height of the image once the operation was done.
+     */
+    @Label("Height")
+    private int height;
+
+    /**
+     * Constructs a new CarvingEvent, whose fields are filled in by CarvingMetrics once the operation is done.
+     */
+    CarvingEvent() {
+    }
+
+    /**
+     * Fills in the operation the event is of, once it is done.
+     *
+     * @param operationName The name of the operation.
+     * @param imageWidth The width of the image once the operation was done.
+     * @param imageHeight The height of the image once the operation was done.
+     */
+    void setOperation(String operationName, int imageWidth, int imageHeight) {
+        this.operation = operationName;
+        this.width = imageWidth;
+        this.height = imageHeight;
+    }
+}
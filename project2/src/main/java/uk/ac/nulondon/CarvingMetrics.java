@@ -0,0 +1,292 @@
+package uk.ac.nulondon;
+
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * The CarvingMetrics class times the operations of the carving engine, for every image of the process,
+ * so that it shows where the time goes: loading, updating the values of the pixels, searching for seams,
+ * removing and inserting them, or writing the result.
+ *
+ * Each operation is timed by Image with start and begin before it and record after it, which read the
+ * clock and add to a LatencyHistogram with a few atomic additions, so timing stays on even for batch work
+ * and allocates nothing unless a recording has the events enabled. The histograms can be read in three ways:
+ * as JSON from toJson, for example written to a file at exit with writeJsonOnExit;
+ * over JMX, as one MXBean per operation named {@code uk.ac.nulondon:type=CarvingMetrics,operation=...},
+ * once registerMBeans has been called;
+ * and as CarvingEvents in a Java Flight Recorder recording that enables them.
+ */
+public final class CarvingMetrics {
+    /**
+     * The operations that are timed.
+     */
+    public enum Operation {
+        /**
+         * Decoding an image into its store.
+         */
+        LOAD("load"),
+
+        /**
+         * Calculating the brightness of every pixel, on its own.
+         */
+        BRIGHTNESS("brightness"),
+
+        /**
+         * Calculating the energy of every pixel, on its own.
+         */
+        ENERGY("energy"),
+
+        /**
+         * Calculating the brightness and energy of every pixel in one pass.
+         */
+        VALUES("values"),
+
+        /**
+         * Updating the energy of the pixels next to the seams removed or inserted since the last update.
+         * The brightness of a pixel is updated as soon as its color changes, and its blueness is read
+         * from its color by the seam search, so neither has an update of its own.
+         */
+        ENERGY_UPDATE("energyUpdate"),
+
+        /**
+         * Searching for one seam, or for several seams at once, including reading the cost of each pixel.
+         */
+        SEAM_SEARCH("seamSearch"),
+
+        /**
+         * Removing a seam, or several found at once, and recording it in the undo history.
+         */
+        REMOVE_SEAM("removeSeam"),
+
+        /**
+         * Inserting the last removed seam back.
+         */
+        INSERT_SEAM("insertSeam"),
+
+        /**
+         * Encoding an image as a PNG.
+         */
+        EXPORT("export");
+
+        /**
+         * The name of the operation in the JSON, the JMX names and the events.
+         */
+        private final String label;
+
+        /**
+         * Constructs a new Operation.
+         *
+         * @param label The name of the operation in the JSON, the JMX names and the events.
+         */
+        Operation(String label) {
+            this.label = label;
+        }
+
+        /**
+         * Returns the name of the operation in the JSON, the JMX names and the events.
+         *
+         * @return The name.
+         */
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * The domain and type of the names of the MXBeans.
+     */
+    public static final String MBEAN_DOMAIN = "uk.ac.nulondon:type=CarvingMetrics";
+
+    /**
+     * The number of nanoseconds in a millisecond.
+     */
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /**
+     * The histogram of each operation, by the ordinal of its Operation.
+     */
+    private static final LatencyHistogram[] HISTOGRAMS = new LatencyHistogram[Operation.values().length];
+
+    static {
+        for (int i = 0; i < HISTOGRAMS.length; i++) {
+            HISTOGRAMS[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * The type of the events, which tells whether a recording has them enabled, or null until the
+     * Flight Recorder has started. It is only looked up then, since looking it up starts the Flight Recorder.
+     */
+    private static volatile EventType eventType;
+
+    /**
+     * Constructs nothing: the metrics are only used through static methods.
+     */
+    private CarvingMetrics() {
+    }
+
+    /**
+     * Returns the time an operation starts at, to be passed to record once it is done.
+     *
+     * @return The time, in nanoseconds, as read by System.nanoTime.
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Begins the CarvingEvent of an operation, if a recording has them enabled, to be passed to record once
+     * the operation is done, so that the event spans the operation.
+     *
+     * @return The begun event, or null, without allocating anything, if no recording has the events enabled.
+     */
+    public static CarvingEvent begin() {
+        if (!FlightRecorder.isInitialized() || !isEventEnabled()) {
+            return null;
+        }
+        CarvingEvent event = new CarvingEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Records that an operation is done, adding the time since it started to its histogram, and ending
+     * and committing its CarvingEvent, if it has one and the operation took at least the threshold of
+     * the recording.
+     *
+     * @param operation The operation.
+     * @param start The time the operation started at, as returned by start.
+     * @param event The event of the operation, as returned by begin, or null for none.
+     * @param width The width of the image once the operation was done.
+     * @param height The height of the image once the operation was done.
+     */
+    public static void record(Operation operation, long start, CarvingEvent event, int width, int height) {
+        HISTOGRAMS[operation.ordinal()].record(System.nanoTime() - start);
+        if (event != null) {
+            event.end();
+            // Only fill in the event if the recording keeps it
+            if (event.shouldCommit()) {
+                event.setOperation(operation.getLabel(), width, height);
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Returns whether a recording of the Flight Recorder, which must have started, has the events enabled.
+     *
+     * @return Whether the events are enabled.
+     */
+    private static boolean isEventEnabled() {
+        EventType type = eventType;
+        if (type == null) {
+            type = EventType.getEventType(CarvingEvent.class);
+            eventType = type;
+        }
+        return type.isEnabled();
+    }
+
+    /**
+     * Returns the histogram of an operation.
+     *
+     * @param operation The operation.
+     * @return The histogram of the times the operation took.
+     */
+    public static LatencyHistogram getHistogram(Operation operation) {
+        return HISTOGRAMS[operation.ordinal()];
+    }
+
+    /**
+     * Forgets every time recorded so far, for every operation.
+     */
+    public static void reset() {
+        for (LatencyHistogram histogram : HISTOGRAMS) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Registers the histogram of each operation with the platform MBean server, unless it already is.
+     *
+     * @throws JMException If an MXBean cannot be registered.
+     */
+    public static void registerMBeans() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (Operation operation : Operation.values()) {
+            ObjectName name = getMBeanName(operation);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(getHistogram(operation), name);
+            }
+        }
+    }
+
+    /**
+     * Returns the name of the MXBean of an operation.
+     *
+     * @param operation The operation.
+     * @return The name.
+     * @throws JMException If the name is not valid.
+     */
+    public static ObjectName getMBeanName(Operation operation) throws JMException {
+        return new ObjectName(MBEAN_DOMAIN + ",operation=" + operation.getLabel());
+    }
+
+    /**
+     * Returns the histograms of every operation as a JSON object, with the count of each operation and
+     * its total, average, median, 90th percentile, 99th percentile and longest time in milliseconds.
+     *
+     * @return The JSON object.
+     */
+    public static String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = getHistogram(operation);
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append(String.format(Locale.ROOT, "\"%s\":{\"count\":%d,\"totalMillis\":%.3f,\"meanMillis\":%.3f,"
+                            + "\"p50Millis\":%.3f,\"p90Millis\":%.3f,\"p99Millis\":%.3f,\"maxMillis\":%.3f}",
+                    operation.getLabel(), histogram.getCount(), histogram.getTotalNanos() / NANOS_PER_MILLI,
+                    histogram.getMeanNanos() / NANOS_PER_MILLI, histogram.getMedianNanos() / NANOS_PER_MILLI,
+                    histogram.getP90Nanos() / NANOS_PER_MILLI, histogram.getP99Nanos() / NANOS_PER_MILLI,
+                    histogram.getMaxNanos() / NANOS_PER_MILLI));
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * Writes the histograms of every operation to a file as JSON, as returned by toJson.
+     *
+     * @param file The file.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void writeJson(Path file) throws IOException {
+        Files.writeString(file, toJson() + System.lineSeparator(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the histograms of every operation to a file as JSON once the process exits.
+     *
+     * @param file The file.
+     */
+    public static void writeJsonOnExit(Path file) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                writeJson(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot write the carving metrics to " + file, e);
+            }
+        }, "carving-metrics"));
+    }
+}
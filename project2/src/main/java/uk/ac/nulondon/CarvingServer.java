@@ -0,0 +1,812 @@
+package uk.ac.nulondon;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The CarvingServer class carves images sent to it over HTTP, in a long-lived process, so each image
+ * does not pay for starting a JVM and warming up the carving code.
+ *
+ * A POST to {@code /carve?width=W&height=H&criterion=e} with an encoded image as its body answers with
+ * the image carved to that size as a PNG. The width and height default to those of the image, and the
+ * criterion is e (lowest energy, the default), b (bluest) or f (lowest forward energy), as on the command
+ * line. A GET of {@code /stats} answers with the request counts and latencies as JSON, along with the
+ * timings of the carving operations of the process, as recorded by CarvingMetrics.
+ *
+ * Each request runs on its own virtual thread, but only a bounded number of images are decoded and carved
+ * at the same time; the other requests wait for a slot, and are turned away with 503 if they wait too long.
+ * A body longer than the request limit, or an image with more pixels than a slot's share of half the heap,
+ * is turned away with 413 before it waits, judging the image by its header alone.
+ * Each image is carved on the platform thread of its slot, with the ScratchArena of the slot, so the tables
+ * of the seam search and the band the PNG is written from are allocated once per slot rather than once per
+ * request.
+ *
+ * Requests are batched: they are queued by the work they ask for, that is the size of their image, the size
+ * to carve it to and the criterion. A slot carves the queued requests one after the other, taking up to
+ * MAX_BATCH requests for the same work in a row before it turns to the work that has waited longest, and
+ * only lets go once nothing is queued. Each request waits for its own PNG rather than for a slot, so a
+ * request carved in the batch of another is answered as soon as it is done, and the seam finder of the slot
+ * carves images of a single size in a row, so its arrays are already the right size.
+ */
+public class CarvingServer implements AutoCloseable {
+    /**
+     * The path of the carving endpoint.
+     */
+    public static final String CARVE_PATH = "/carve";
+
+    /**
+     * The path of the statistics endpoint.
+     */
+    public static final String STATS_PATH = "/stats";
+
+    /**
+     * The default time a request waits for a slot before it is turned away, in milliseconds.
+     */
+    public static final long DEFAULT_QUEUE_TIMEOUT_MILLIS = 30_000;
+
+    /**
+     * The default largest body of a request, in bytes (64 MB).
+     */
+    public static final int DEFAULT_MAX_REQUEST_BYTES = 67_108_864;
+
+    /**
+     * The most requests for the same work a slot carves in a row before it turns to other work.
+     */
+    public static final int MAX_BATCH = 8;
+
+    /**
+     * The number of latencies of recent requests kept to work out the percentiles.
+     */
+    private static final int LATENCY_SAMPLES = 4096;
+
+    /**
+     * The status of a carved image.
+     */
+    private static final int OK = 200;
+
+    /**
+     * The status of a request with bad parameters or a body that is not an image.
+     */
+    private static final int BAD_REQUEST = 400;
+
+    /**
+     * The status of a request with an unsupported method.
+     */
+    private static final int METHOD_NOT_ALLOWED = 405;
+
+    /**
+     * The status of a request whose body or image is too large.
+     */
+    private static final int PAYLOAD_TOO_LARGE = 413;
+
+    /**
+     * The status of a request that failed on the server.
+     */
+    private static final int INTERNAL_ERROR = 500;
+
+    /**
+     * The status of a request that waited too long for a slot.
+     */
+    private static final int UNAVAILABLE = 503;
+
+    /**
+     * The number of nanoseconds in a millisecond.
+     */
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /**
+     * The median, as a percentile.
+     */
+    private static final double MEDIAN = 50;
+
+    /**
+     * The tail percentile reported next to the median.
+     */
+    private static final double TAIL = 99;
+
+    /**
+     * The number of percent in a whole.
+     */
+    private static final double PERCENT = 100;
+
+    /**
+     * The HTTP server.
+     */
+    private final HttpServer server;
+
+    /**
+     * The executor running each request on its own virtual thread.
+     */
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * The platform threads of the slots. Carving keeps a thread busy, so it does not run on the virtual
+     * threads, which would hold up the requests waiting to send their PNG on the same carrier.
+     */
+    private final ExecutorService slotThreads;
+
+    /**
+     * The number of images that may be decoded and carved at the same time.
+     */
+    private final int maxInFlight;
+
+    /**
+     * The number of free slots, each of which may decode and carve one image at a time. Guarded by pending.
+     */
+    private int freeSlots;
+
+    /**
+     * The scratch arenas of the free slots, whose arrays are kept from one request to the next.
+     */
+    private final BlockingQueue<ScratchArena> arenas;
+
+    /**
+     * The requests waiting to be carved, queued by the work they ask for, in the order each work was first
+     * queued. Guarded by itself.
+     */
+    private final Map<String, Deque<CarveRequest>> pending = new LinkedHashMap<>();
+
+    /**
+     * The time a request waits for a slot before it is turned away, in milliseconds.
+     */
+    private volatile long queueTimeoutMillis = DEFAULT_QUEUE_TIMEOUT_MILLIS;
+
+    /**
+     * The largest body of a request, in bytes.
+     */
+    private volatile int maxRequestBytes = DEFAULT_MAX_REQUEST_BYTES;
+
+    /**
+     * The most pixels the image of a request may have.
+     */
+    private volatile long maxImagePixels;
+
+    /**
+     * The latencies of the most recent carved images, in nanoseconds, as a ring. Guarded by itself.
+     */
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+
+    /**
+     * The number of latencies recorded so far, which is also where the next one goes in the ring.
+     */
+    private long recorded;
+
+    /**
+     * The number of images carved.
+     */
+    private final AtomicLong completed = new AtomicLong();
+
+    /**
+     * The number of requests that failed, including those turned away.
+     */
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * The number of requests turned away because they waited too long for a slot.
+     */
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * The number of requests carved right after another request for the same work, by the same slot.
+     */
+    private final AtomicLong batched = new AtomicLong();
+
+    /**
+     * A request waiting to be carved, and the PNG it is answered with.
+     */
+    private static final class CarveRequest {
+        /**
+         * The work the request asks for, which it is batched by.
+         */
+        private final String work;
+
+        /**
+         * The encoded image.
+         */
+        private final byte[] body;
+
+        /**
+         * The width to carve the image to.
+         */
+        private final int width;
+
+        /**
+         * The height to carve the image to.
+         */
+        private final int height;
+
+        /**
+         * The criterion that chooses the seams.
+         */
+        private final SeamCriterion criterion;
+
+        /**
+         * The carved image as a PNG, once it is done, or why it could not be carved.
+         */
+        private final CompletableFuture<byte[]> png = new CompletableFuture<>();
+
+        /**
+         * Whether a slot has taken the request off the queue to carve it. Guarded by pending.
+         */
+        private boolean claimed;
+
+        /**
+         * Constructs a new CarveRequest.
+         *
+         * @param work The work the request asks for.
+         * @param body The encoded image.
+         * @param width The width to carve the image to.
+         * @param height The height to carve the image to.
+         * @param criterion The criterion that chooses the seams.
+         */
+        private CarveRequest(String work, byte[] body, int width, int height, SeamCriterion criterion) {
+            this.work = work;
+            this.body = body;
+            this.width = width;
+            this.height = height;
+            this.criterion = criterion;
+        }
+    }
+
+    /**
+     * Constructs a new CarvingServer bound to the given address. It only answers once started.
+     *
+     * @param address The address to listen on, with port 0 for any free port.
+     * @param maxInFlight The number of images that may be decoded and carved at the same time, at least 1.
+     * @throws IOException If the server cannot be bound to the address.
+     */
+    public CarvingServer(InetSocketAddress address, int maxInFlight) throws IOException {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("At least one image has to be carved at a time, not " + maxInFlight);
+        }
+        this.maxInFlight = maxInFlight;
+        this.freeSlots = maxInFlight;
+        this.slotThreads = Executors.newFixedThreadPool(maxInFlight);
+        this.arenas = new ArrayBlockingQueue<>(maxInFlight);
+        for (int i = 0; i < maxInFlight; i++) {
+            arenas.add(new ScratchArena());
+        }
+        // Each slot gets an equal share of half of the heap
+        this.maxImagePixels = Runtime.getRuntime().maxMemory() / 2 / maxInFlight / BatchCarver.BYTES_PER_IMAGE_PIXEL;
+        this.server = HttpServer.create(address, 0);
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Starts answering requests.
+     */
+    public void start() {
+        // The handlers are only registered here, once the server is fully constructed
+        server.createContext(CARVE_PATH, this::handleCarve);
+        server.createContext(STATS_PATH, this::handleStats);
+        server.start();
+    }
+
+    /**
+     * Stops answering requests, and waits for the requests being answered to finish.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.close();
+        slotThreads.close();
+    }
+
+    /**
+     * Returns the port the server listens on, which is useful when it was bound to port 0.
+     *
+     * @return The port.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Sets the time a request waits for a slot before it is turned away with 503.
+     *
+     * @param queueTimeoutMillis The time, in milliseconds.
+     */
+    public void setQueueTimeoutMillis(long queueTimeoutMillis) {
+        this.queueTimeoutMillis = queueTimeoutMillis;
+    }
+
+    /**
+     * Sets the largest body a request may send. A longer body is turned away with 413 without being decoded.
+     *
+     * @param maxRequestBytes The number of bytes, at least 1.
+     */
+    public void setMaxRequestBytes(int maxRequestBytes) {
+        if (maxRequestBytes < 1 || maxRequestBytes == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Not a request limit: " + maxRequestBytes);
+        }
+        this.maxRequestBytes = maxRequestBytes;
+    }
+
+    /**
+     * Sets the most pixels the image of a request may have, which defaults to an equal share of half of the
+     * heap for each slot. A larger image is turned away with 413 as soon as its header has been read.
+     *
+     * @param maxImagePixels The number of pixels, at least 1.
+     */
+    public void setMaxImagePixels(long maxImagePixels) {
+        if (maxImagePixels < 1) {
+            throw new IllegalArgumentException("Not a pixel limit: " + maxImagePixels);
+        }
+        this.maxImagePixels = maxImagePixels;
+    }
+
+    /**
+     * Returns the number of images carved so far.
+     *
+     * @return The number of images.
+     */
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * Returns the number of requests that failed so far, including those turned away.
+     *
+     * @return The number of requests.
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Returns the number of requests turned away so far because they waited too long for a slot.
+     *
+     * @return The number of requests.
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Returns the number of requests carved so far right after another request for the same work,
+     * by the same slot.
+     *
+     * @return The number of requests.
+     */
+    public long getBatched() {
+        return batched.get();
+    }
+
+    /**
+     * Returns the number of images being decoded and carved right now.
+     *
+     * @return The number of images.
+     */
+    public int getInFlight() {
+        synchronized (pending) {
+            return maxInFlight - freeSlots;
+        }
+    }
+
+    /**
+     * Returns the number of requests waiting to be carved right now.
+     *
+     * @return The number of requests.
+     */
+    public int getQueued() {
+        synchronized (pending) {
+            int queued = 0;
+            for (Deque<CarveRequest> queue : pending.values()) {
+                queued += queue.size();
+            }
+            return queued;
+        }
+    }
+
+    /**
+     * Returns a percentile of the latencies of the most recent carved images, from the moment the request
+     * arrived, through waiting for a slot, to the moment the PNG was sent.
+     *
+     * @param percentile The percentile, such as 50 for the median or 99.
+     * @return The latency, in nanoseconds, or 0 if no image has been carved yet.
+     */
+    public long getLatencyPercentile(double percentile) {
+        long[] sorted;
+        synchronized (latencies) {
+            sorted = Arrays.copyOf(latencies, (int) Math.min(recorded, LATENCY_SAMPLES));
+        }
+        if (sorted.length == 0) {
+            return 0;
+        }
+        Arrays.sort(sorted);
+        // The nearest rank: the smallest latency that at least that percent of the requests did not exceed
+        int rank = (int) Math.ceil(percentile / PERCENT * sorted.length);
+        return sorted[Math.min(Math.max(rank, 1), sorted.length) - 1];
+    }
+
+    /**
+     * Carves the image in the body of a request and answers with the carved PNG.
+     *
+     * @param exchange The request and its response.
+     * @throws IOException If the response cannot be sent.
+     */
+    private void handleCarve(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                fail(exchange, METHOD_NOT_ALLOWED, "Send the image to carve with POST");
+                return;
+            }
+            byte[] body = readBody(exchange);
+            if (body == null) {
+                fail(exchange, PAYLOAD_TOO_LARGE, "The body is longer than the " + maxRequestBytes
+                        + " bytes a request may send");
+                return;
+            }
+            byte[] png;
+            try {
+                CarveRequest request = parseRequest(exchange.getRequestURI().getRawQuery(), body);
+                if (request == null) {
+                    fail(exchange, PAYLOAD_TOO_LARGE, "The image has more than the " + maxImagePixels
+                            + " pixels a request may carve");
+                    return;
+                }
+                png = carve(request);
+            } catch (IllegalArgumentException | IOException e) {
+                fail(exchange, BAD_REQUEST, e.getMessage());
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(exchange, UNAVAILABLE, "Interrupted while waiting to carve the image");
+                return;
+            } catch (RuntimeException e) {
+                fail(exchange, INTERNAL_ERROR, e.toString());
+                return;
+            }
+            if (png == null) {
+                rejected.incrementAndGet();
+                fail(exchange, UNAVAILABLE, "Too many images are being carved, try again later");
+                return;
+            }
+            // Send the PNG outside of the slot, so a slow client does not hold up other images
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            exchange.sendResponseHeaders(OK, png.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(png);
+            }
+            completed.incrementAndGet();
+            record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Reads the body of a request, unless it is longer than the request limit.
+     *
+     * @param exchange The request and its response.
+     * @return The body, or null if it is too long.
+     * @throws IOException If the body cannot be read.
+     */
+    private byte[] readBody(HttpExchange exchange) throws IOException {
+        int limit = maxRequestBytes;
+        // Turn a body that says it is too long away before reading any of it
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (length != null) {
+            try {
+                if (Long.parseLong(length.trim()) > limit) {
+                    return null;
+                }
+            } catch (NumberFormatException e) {
+                // The server has already rejected a malformed length, but the limit below still holds
+            }
+        }
+        // A chunked body has no length, so read one byte past the limit to tell whether it is too long
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(limit + 1);
+            return body.length > limit ? null : body;
+        }
+    }
+
+    /**
+     * Works out what a request asks for from its parameters and the header of its image.
+     *
+     * @param query The raw query of the request, with the target size and the criterion, or null for none.
+     * @param body The body of the request, with the encoded image.
+     * @return The request, or null if its image has more pixels than the limit.
+     * @throws IOException If the body is not an image that can be read.
+     */
+    private CarveRequest parseRequest(String query, byte[] body) throws IOException {
+        Map<String, String> parameters = parseQuery(query);
+        SeamCriterion criterion = SeamCriterion.parse(parameters.getOrDefault("criterion", "e"));
+        long[] size;
+        try (ImageInputStream in = new MemoryCacheImageInputStream(new ByteArrayInputStream(body))) {
+            size = BatchCarver.readSize(in, "Cannot read image");
+        }
+        if (size[0] * size[1] > maxImagePixels) {
+            return null;
+        }
+        int width = parseSize(parameters.get("width"), (int) size[0]);
+        int height = parseSize(parameters.get("height"), (int) size[1]);
+        String work = size[0] + "x" + size[1] + ">" + width + "x" + height + "/" + criterion;
+        return new CarveRequest(work, body, width, height, criterion);
+    }
+
+    /**
+     * Queues a request, starting a slot on it if one is free, and waits until a slot has carved it.
+     *
+     * @param request The request.
+     * @return The carved image as a PNG, or null if no slot took the request in time.
+     * @throws IOException If the body is not an image that can be read.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    private byte[] carve(CarveRequest request) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+        ScratchArena arena = null;
+        synchronized (pending) {
+            pending.computeIfAbsent(request.work, work -> new ArrayDeque<>()).add(request);
+            if (freeSlots > 0) {
+                freeSlots--;
+                arena = arenas.poll();
+            }
+        }
+        if (arena != null) {
+            // The slot runs on a thread of its own, so this request is answered as soon as it is carved
+            ScratchArena slotArena = arena;
+            slotThreads.execute(() -> runSlot(slotArena));
+        }
+        try {
+            try {
+                return request.png.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                // Give up, unless a slot has taken the request in the meantime
+                if (withdraw(request)) {
+                    return null;
+                }
+                return request.png.get();
+            }
+        } catch (InterruptedException e) {
+            withdraw(request);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            } else if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Cannot carve the image", e.getCause());
+        }
+    }
+
+    /**
+     * Carves queued requests on a slot until none are left, then frees the slot.
+     *
+     * @param arena The scratch arena of the slot.
+     */
+    private void runSlot(ScratchArena arena) {
+        String work = null;
+        int inRow = 0;
+        while (true) {
+            CarveRequest next;
+            synchronized (pending) {
+                next = claimNext(work, inRow);
+                if (next == null) {
+                    // Free the slot under the same lock that queues requests, so none is left behind
+                    arenas.add(arena);
+                    freeSlots++;
+                    return;
+                }
+            }
+            if (next.work.equals(work)) {
+                inRow++;
+                batched.incrementAndGet();
+            } else {
+                work = next.work;
+                inRow = 1;
+            }
+            carve(next, arena);
+        }
+    }
+
+    /**
+     * Takes the next request to carve off its queue: another one for the work the slot has just carved,
+     * unless it has carved MAX_BATCH of them in a row, and otherwise one for the work that has waited
+     * longest. Must be called holding pending.
+     *
+     * @param work The work the slot has just carved, or null if it has not carved anything yet.
+     * @param inRow The number of requests for that work the slot has carved in a row.
+     * @return The request, or null if none is queued.
+     */
+    private CarveRequest claimNext(String work, int inRow) {
+        Deque<CarveRequest> queue = work == null ? null : pending.get(work);
+        if (queue != null && inRow >= MAX_BATCH) {
+            // Give the other work a turn by queuing this work behind it
+            pending.remove(work);
+            pending.put(work, queue);
+            queue = null;
+        }
+        String claimed = work;
+        if (queue == null) {
+            Iterator<Map.Entry<String, Deque<CarveRequest>>> oldest = pending.entrySet().iterator();
+            if (!oldest.hasNext()) {
+                return null;
+            }
+            Map.Entry<String, Deque<CarveRequest>> entry = oldest.next();
+            claimed = entry.getKey();
+            queue = entry.getValue();
+        }
+        CarveRequest request = queue.poll();
+        if (queue.isEmpty()) {
+            pending.remove(claimed);
+        }
+        request.claimed = true;
+        return request;
+    }
+
+    /**
+     * Takes a request that is no longer waited for off its queue, unless a slot has already taken it.
+     *
+     * @param request The request.
+     * @return Whether it was taken off, so that nothing will carve it.
+     */
+    private boolean withdraw(CarveRequest request) {
+        synchronized (pending) {
+            if (request.claimed) {
+                return false;
+            }
+            Deque<CarveRequest> queue = pending.get(request.work);
+            queue.remove(request);
+            if (queue.isEmpty()) {
+                pending.remove(request.work);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Decodes, carves and encodes the image of a request within a slot, and completes the request with the
+     * PNG, or with why it could not be carved.
+     *
+     * @param request The request.
+     * @param arena The scratch arena of the slot.
+     */
+    private static void carve(CarveRequest request, ScratchArena arena) {
+        try (Image image = new Image(new ByteArrayInputStream(request.body))) {
+            // Other requests keep the cores busy, so each image is carved on one thread
+            image.setParallelism(Parallelism.SEQUENTIAL);
+            image.setScratchArena(arena);
+            image.setSeamParallelism(Parallelism.SEQUENTIAL);
+            // Nothing is ever inserted back, so the removed seams are not recorded
+            image.setKeepHistory(false);
+            image.carveTo(request.width, request.height, request.criterion);
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            image.writeImage(png);
+            request.png.complete(png.toByteArray());
+        } catch (IOException | RuntimeException | Error e) {
+            // The request may be waiting on another thread, so it is always completed
+            request.png.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Answers with the request counts and latencies, and the timings of the carving operations, as JSON.
+     *
+     * @param exchange The request and its response.
+     * @throws IOException If the response cannot be sent.
+     */
+    private void handleStats(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String json = String.format(Locale.ROOT, "{\"completed\":%d,\"failed\":%d,\"rejected\":%d,"
+                            + "\"batched\":%d,\"queued\":%d,\"inFlight\":%d,\"maxInFlight\":%d,\"p50Millis\":%.3f,"
+                            + "\"p99Millis\":%.3f,\"operations\":%s}",
+                    getCompleted(), getFailed(), getRejected(), getBatched(), getQueued(), getInFlight(), maxInFlight,
+                    getLatencyPercentile(MEDIAN) / NANOS_PER_MILLI, getLatencyPercentile(TAIL) / NANOS_PER_MILLI,
+                    CarvingMetrics.toJson());
+            send(exchange, OK, "application/json", json);
+        }
+    }
+
+    /**
+     * Records the latency of a carved image in the ring.
+     *
+     * @param nanos The latency, in nanoseconds.
+     */
+    private void record(long nanos) {
+        synchronized (latencies) {
+            latencies[(int) (recorded % LATENCY_SAMPLES)] = nanos;
+            recorded++;
+        }
+    }
+
+    /**
+     * Answers a request that failed with a plain text message, and counts it.
+     *
+     * @param exchange The request and its response.
+     * @param status The status of the response.
+     * @param message The message explaining the failure.
+     * @throws IOException If the response cannot be sent.
+     */
+    private void fail(HttpExchange exchange, int status, String message) throws IOException {
+        failed.incrementAndGet();
+        send(exchange, status, "text/plain; charset=utf-8", message + "\n");
+    }
+
+    /**
+     * Sends a text response.
+     *
+     * @param exchange The request and its response.
+     * @param status The status of the response.
+     * @param contentType The content type of the text.
+     * @param text The text.
+     * @throws IOException If the response cannot be sent.
+     */
+    private static void send(HttpExchange exchange, int status, String contentType, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(bytes);
+        }
+    }
+
+    /**
+     * Splits the query of a request into its parameters.
+     *
+     * @param query The raw query, such as "width=800&amp;height=600", or null for none.
+     * @return The value of each parameter, by name.
+     */
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                    URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    /**
+     * Parses a target width or height.
+     *
+     * @param value The value of the parameter, or null if it was not given.
+     * @param current The width or height of the image, used if the parameter was not given.
+     * @return The target width or height.
+     * @throws IllegalArgumentException If the value is not a number.
+     */
+    private static int parseSize(String value, int current) {
+        if (value == null) {
+            return current;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a size: " + value, e);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package uk.ac.nulondon;
+
+/**
+ * The HeapPixelStore class keeps the pixels of an image in primitive arrays on the Java heap.
+ * This is the fastest store, and the one used unless the image does not fit in the heap.
+ */
+public final class HeapPixelStore extends PixelStore {
+    /**
+     * The mask used to read an unsigned byte.
+     */
+    private static final int BYTE_MASK = 0xFF;
+
+    /**
+     * The packed ARGB color of each pixel, by physical index.
+     */
+    private final int[] colors;
+
+    /**
+     * The brightness (0 to 255) of each pixel, by physical index.
+     */
+    private final byte[] brightness;
+
+    /**
+     * The energy of each pixel, by physical index.
+     * The largest possible energy is about 1443, so a short is enough.
+     */
+    private final short[] energy;
+
+    /**
+     * The physical index of the pixel in each cell of the current image.
+     */
+    private final int[] index;
+
+    /**
+     * Constructs a new HeapPixelStore for an image of the specified size.
+     * Every pixel is initially black, and every cell points to the pixel with the same coordinates.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @throws IllegalArgumentException If the image has no pixels, or more than an int can index.
+     */
+    public HeapPixelStore(int width, int height) {
+        super(width, height);
+        int pixels = pixelCount(width, height);
+        this.colors = new int[pixels];
+        this.brightness = new byte[pixels];
+        this.energy = new short[pixels];
+        this.index = new int[pixels];
+        initIndex();
+    }
+
+    @Override
+    protected int readColor(int pixel) {
+        return colors[pixel];
+    }
+
+    @Override
+    protected void writeColor(int pixel, int argb) {
+        colors[pixel] = argb;
+    }
+
+    @Override
+    protected int readBrightness(int pixel) {
+        return brightness[pixel] & BYTE_MASK;
+    }
+
+    @Override
+    protected void writeBrightness(int pixel, int value) {
+        brightness[pixel] = (byte) value;
+    }
+
+    @Override
+    protected int readEnergy(int pixel) {
+        return energy[pixel];
+    }
+
+    @Override
+    protected void writeEnergy(int pixel, int value) {
+        energy[pixel] = (short) value;
+    }
+
+    @Override
+    protected int readIndex(int cell) {
+        return index[cell];
+    }
+
+    @Override
+    protected void writeIndex(int cell, int pixel) {
+        index[cell] = pixel;
+    }
+
+    @Override
+    protected void moveIndex(int from, int to, int length) {
+        System.arraycopy(index, from, index, to, length);
+    }
+}
@@ -1,150 +1,503 @@
 package uk.ac.nulondon;
 
 import javax.imageio.ImageIO;
-import java.awt.*;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 
 /**
- * The Image class represents an image as a graph structure where each node
- * (pixel) keeps track of only its left and right neighbors.
- * The image stores a list of the first column of pixels.
+ * The Image class represents an image that can be edited by removing and inserting seams.
+ * The pixels are stored in a packed PixelStore, which keeps the color, brightness and energy
+ * of each pixel in primitive arrays and tracks removed columns with a logical-to-physical index.
+ * Pixel objects are only created as a view of the image, for the seams that are returned to
+ * the caller and for the linked pixel graph built by toPixelGraph.
  */
-public class Image {
+public class Image implements AutoCloseable {
+    /**
+     * The number of pixels (16 megapixels) above which an image is decoded band by band by default.
+     */
+    public static final long STREAMING_THRESHOLD = 16_777_216L;
+
+    /**
+     * The number of bytes (256 MB) a band may take up while it is being decoded.
+     */
+    private static final long DECODE_BUDGET_BYTES = 268_435_456L;
+
+    /**
+     * The number of bytes a pixel takes up while its band is decoded: the decoded band and its packed copy.
+     */
+    private static final int BYTES_PER_DECODED_PIXEL = 8;
+
+    /**
+     * The number of rows in each band of an image that is being written.
+     */
+    private static final int WRITE_BAND_ROWS = 256;
+
     /**
      * The file path of the image.
      */
     private String filePath = "";
 
     /**
-     * The width of the image.
+     * The packed store holding the pixels of the image.
      */
-    private int width;
+    private final PixelStore store;
 
     /**
-     * The height of the image.
+     * The undo history of the seams removed from the image, the last removed seam last.
+     * A seam is a connected path of pixels in the image from top to bottom or from left to right.
+     * Each record holds where the pixels of a seam were removed from and their original colors,
+     * packed, so a long session only keeps a few bytes per removed pixel.
      */
-    private int height;
+    private final SeamHistory history;
 
     /**
-     * A list of the first column of pixels in the image.
-     * Each pixel in this list is the start of a row in the image.
+     * The seam finder used to search for seams in the image.
+     * It is kept for the lifetime of the image so that its scratch arrays can be reused between searches,
+     * unless another one is handed in by setSeamFinder.
      */
-    private ArrayList<Pixel> firstColumn = new ArrayList<>();
+    private SeamFinder seamFinder = new SeamFinder();
 
     /**
-     * This is a 2D ArrayList that stores the removed seams from the image.
-     * Each ArrayList<Pixel> inside the outer ArrayList represents a seam that has been removed.
-     * A seam is a connected path of pixels in the image from top to bottom or from left to right.
-     * The Pixel objects in the inner ArrayLists are the pixels that were removed from the image when the corresponding seam was removed.
+     * The arena whose export band the image is written through, or null for that of the writing thread.
      */
-    private ArrayList<ArrayList<Pixel>> removedSeams = new ArrayList<>();
+    private ScratchArena scratchArena;
+
+    /**
+     * The number of vertical seams carving takes from each seam search.
+     */
+    private int seamsPerPass = 1;
+
+    /**
+     * The coarse-to-fine search used for lowest cost seams, or null to always search exactly.
+     */
+    private SeamPyramid pyramid;
+
+    /**
+     * Decides whether the passes over every pixel of the image are split across threads.
+     */
+    private Parallelism parallelism = Parallelism.common();
+
+    /**
+     * The number of edits made to the image so far.
+     * Anything worked out from the pixels of the image stays valid for as long as the version is the same.
+     */
+    private long version;
+
+    /**
+     * The version of the image that the cached seams were found for.
+     */
+    private long cachedSeamsVersion = -1;
+
+    /**
+     * The vertical seams found for the current version of the image, by criterion, so that switching
+     * between criteria without editing the image does not search for a seam again.
+     */
+    private final HashMap<SeamCostFunction, int[]> cachedSeams = new HashMap<>();
+
+    /**
+     * Whether vertical seams are searched for incrementally, reusing the table of cumulative costs of
+     * the previous search after a seam is removed.
+     */
+    private boolean incrementalSeams;
+
+    /**
+     * The criterion of the table of cumulative costs kept by the seam finder, or null if it keeps none
+     * that can be reused.
+     */
+    private SeamCostFunction tableCriterion;
+
+    /**
+     * The version of the image the table of cumulative costs kept by the seam finder was filled for.
+     */
+    private long tableVersion;
+
+    /**
+     * The columns of the vertical seam removed since the table was filled, or null if none was.
+     */
+    private int[] removedSinceTable;
+
+    /**
+     * The first column whose energy the removal of that seam changed, in each row.
+     */
+    private int[] changedFrom = new int[0];
+
+    /**
+     * The last column whose energy the removal of that seam changed, in each row.
+     */
+    private int[] changedTo = new int[0];
+
+    /**
+     * Whether removed seams are recorded in the undo history.
+     */
+    private boolean keepHistory = true;
+
+    /**
+     * The physical index of each pixel of the seam being recorded, reused from one seam to the next.
+     * The history packs them into its own record, so they are only needed while the seam is recorded.
+     */
+    private int[] seamIndexes = new int[0];
+
+    /**
+     * The original color of each pixel of the seam being recorded, reused from one seam to the next.
+     */
+    private int[] seamColors = new int[0];
 
     /**
      * Constructs a new Image from the specified file path.
-     * The image is read into a graph structure where each node (pixel) keeps track
-     * of only its left and right neighbors.
-     * The image stores a list of the first column of pixels.
+     * Images of up to STREAMING_THRESHOLD pixels are decoded in one go; larger images are decoded
+     * band by band, so that only one band is ever held in memory next to the packed PixelStore.
      *
      * @param filePath The path of the image file.
      * @throws IOException If an error occurs while reading the image file.
      */
     public Image(String filePath) throws IOException {
-        // Create a new File object from the provided file path
-        File input = new File(filePath);
-        // Read the image from the file
-        BufferedImage img = ImageIO.read(input);
-        // Set the width of the image
-        this.width = img.getWidth();
-        // Set the height of the image
-        this.height = img.getHeight();
+        this(filePath, 0, 1);
+    }
+
+    /**
+     * Constructs a new Image from the specified file path, decoding it band by band.
+     * Each band of rows is decoded from a source region of the file and copied straight into the
+     * packed PixelStore, so the peak memory is the store plus one decoded band.
+     * Readers for tiled or striped formats such as TIFF only decode the part of the file a band
+     * needs; sequential formats such as PNG decode the file from the start for each band, so fewer,
+     * larger bands are faster.
+     *
+     * @param filePath The path of the image file.
+     * @param bandRows The number of rows of the stored image to decode at a time, or 0 to choose it
+     *                 automatically from the size of the image.
+     * @param subsampling Keep only every subsampling-th column and row of the file, 1 to keep them all.
+     * @throws IOException If an error occurs while reading the image file.
+     */
+    public Image(String filePath, int bandRows, int subsampling) throws IOException {
+        this(filePath, bandRows, subsampling, null);
+    }
+
+    /**
+     * Constructs a new Image from the specified file path, decoding it band by band into a store
+     * of memory-mapped files in the given directory.
+     * The store is kept outside the heap, so images larger than the heap can be carved. The image
+     * should be closed once it is no longer needed, which deletes the files.
+     *
+     * @param filePath The path of the image file.
+     * @param bandRows The number of rows of the stored image to decode at a time, or 0 to choose it automatically.
+     * @param subsampling Keep only every subsampling-th column and row of the file, 1 to keep them all.
+     * @param storageDirectory The directory for the files of the store, or null to keep the store on the heap
+     *                         unless it would take up more than half of the heap, in which case the system's
+     *                         temporary directory is used.
+     * @throws IOException If an error occurs while reading the image file or creating the store.
+     */
+    public Image(String filePath, int bandRows, int subsampling, Path storageDirectory) throws IOException {
+        this(new File(filePath), filePath, bandRows, subsampling, storageDirectory);
+    }
+
+    /**
+     * Constructs a new Image from an encoded image, such as the body of a request, decoding it in one go.
+     * The store is chosen as for a file: on the heap, unless it would take up more than half of the heap,
+     * in which case it is kept in memory-mapped files in the system's temporary directory.
+     * The stream is buffered in memory rather than in a cache file, whatever ImageIO.getUseCache says,
+     * and is read to the end of the image but not closed.
+     *
+     * @param input The stream of the encoded image.
+     * @throws IOException If the stream is not an image that can be read.
+     */
+    public Image(InputStream input) throws IOException {
+        // A stream cannot be read again from the start for each band, so it is decoded in a single band
+        this(input, "", Integer.MAX_VALUE, 1, null);
+    }
+
+    /**
+     * Constructs a new Image from a file or a stream, decoding it band by band.
+     *
+     * @param source The image file, or the stream of the encoded image.
+     * @param filePath The path of the image file, or an empty string for a stream.
+     * @param bandRows The number of rows of the stored image to decode at a time, or 0 to choose it automatically.
+     * @param subsampling Keep only every subsampling-th column and row of the file, 1 to keep them all.
+     * @param storageDirectory The directory for the files of the store, or null to choose automatically.
+     * @throws IOException If an error occurs while reading the image or creating the store.
+     */
+    private Image(Object source, String filePath, int bandRows, int subsampling, Path storageDirectory)
+            throws IOException {
+        if (subsampling < 1) {
+            throw new IllegalArgumentException("Subsampling must be at least 1: " + subsampling);
+        }
         // Store the file path of the image
         this.filePath = filePath;
-        // Declare a Pixel object to keep track of the current pixel
-        Pixel chaser = null;
-        // Print the width and height of the image to the console
-        // System.out.println("Width: " + width + " Height: " + height);
-        // Loop over each row of pixels in the image
-        for (int row = 0; row < height; row++) {
-            // Loop over each column of pixels in the image
-            for (int col = 0; col < width; col++) {
-                // Get the color of the current pixel
-                Color color = new Color(img.getRGB(col, row));
-                // Create a new Pixel object for the current pixel
-                Pixel pixel = new Pixel(col, row, color);
-                // If the current pixel is in the first column, add it to the firstColumn list
-                if (col == 0) {
-                    firstColumn.add(pixel);
-                } else {
-                    // Otherwise, set the right neighbor of the previous pixel to the current pixel
-                    // and set the left neighbor of the current pixel to the previous pixel
-                    chaser.setRight(pixel);
-                    pixel.setLeft(chaser);
-                }
-                // Set the current pixel as the previous pixel for the next iteration
-                chaser = pixel;
+        long start = CarvingMetrics.start();
+        CarvingEvent event = CarvingMetrics.begin();
+        // Find a reader for the image file
+        // A stream is buffered in memory, since a cache file would cost a round trip to the disk per image
+        try (ImageInputStream in = source instanceof InputStream stream ? new MemoryCacheImageInputStream(stream)
+                : ImageIO.createImageInputStream(source)) {
+            Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException(filePath.isEmpty() ? "Cannot read image" : "Cannot read image file: " + filePath);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                // Read the image into a store, band by band
+                this.store = readStore(reader, bandRows, subsampling, storageDirectory);
+            } finally {
+                reader.dispose();
             }
         }
-        // Update the energy and blueness values of the pixels in the image
-        updateValues();
+        // Keep the undo history within its memory limit by spilling the oldest seams next to the store
+        this.history = new SeamHistory(store.getStride());
+        history.setSpillDirectory(storageDirectory != null ? storageDirectory
+                : Path.of(System.getProperty("java.io.tmpdir")));
+        recordTime(CarvingMetrics.Operation.LOAD, start, event);
+        // Split the seam search across the common pool for wide images only
+        seamFinder.setParallelism(Parallelism.common(SeamFinder.DEFAULT_ROW_THRESHOLD));
+        // Seams are used up before the next search, except those copied into the cache
+        seamFinder.setReuseSeams(true);
+        // Keep the table of cumulative costs between searches, unless the image is too large for the heap
+        incrementalSeams = store instanceof HeapPixelStore;
+        // Calculate the brightness and energy values of the pixels in the image
+        updateAllValues();
+    }
+
+    /**
+     * Reads an image into a new PixelStore, one band of rows at a time.
+     *
+     * @param reader The reader, with its input set to the image file.
+     * @param bandRows The number of rows of the stored image to decode at a time, or 0 to choose it automatically.
+     * @param subsampling Keep only every subsampling-th column and row of the file.
+     * @param storageDirectory The directory for a memory-mapped store, or null to choose the store automatically.
+     * @return The store holding the colors of the image.
+     * @throws IOException If an error occurs while reading the image file or creating the store.
+     */
+    private static PixelStore readStore(ImageReader reader, int bandRows, int subsampling, Path storageDirectory)
+            throws IOException {
+        int fileWidth = reader.getWidth(0);
+        int fileHeight = reader.getHeight(0);
+        // The stored image keeps every subsampling-th column and row, starting with the first
+        int width = (fileWidth + subsampling - 1) / subsampling;
+        int height = (fileHeight + subsampling - 1) / subsampling;
+        PixelStore store = createStore(width, height, storageDirectory);
+        int rows = bandRows > 0 ? bandRows : automaticBandRows(width, height);
+
+        // Loop over each band of rows in the stored image
+        for (int y = 0; y < height; y += rows) {
+            int count = Math.min(rows, height - y);
+            // Decode the rows of the file that the band is made of
+            ImageReadParam param = reader.getDefaultReadParam();
+            int fileY = y * subsampling;
+            int fileRows = Math.min(count * subsampling, fileHeight - fileY);
+            param.setSourceRegion(new Rectangle(0, fileY, fileWidth, fileRows));
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            BufferedImage band = reader.read(0, param);
+            // Store the colors of the band
+            store.setRows(y, count, RasterIO.readArgb(band));
+        }
+        return store;
+    }
+
+    /**
+     * Creates an empty store for an image of the given size.
+     * Without a directory, the store is kept on the heap if it takes up at most half of the heap,
+     * and in memory-mapped files in the system's temporary directory otherwise.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param storageDirectory The directory for a memory-mapped store, or null to choose automatically.
+     * @return The store.
+     * @throws IOException If the files of a memory-mapped store cannot be created.
+     */
+    private static PixelStore createStore(int width, int height, Path storageDirectory) throws IOException {
+        if (storageDirectory != null) {
+            return new MappedPixelStore(width, height, storageDirectory);
+        }
+        long bytes = (long) width * height * PixelStore.BYTES_PER_PIXEL;
+        if (bytes > Runtime.getRuntime().maxMemory() / 2) {
+            return new MappedPixelStore(width, height, Path.of(System.getProperty("java.io.tmpdir")));
+        }
+        return new HeapPixelStore(width, height);
+    }
+
+    /**
+     * Chooses how many rows to decode at a time.
+     * Images of up to STREAMING_THRESHOLD pixels are decoded in one band; larger images in bands
+     * that fit in DECODE_BUDGET_BYTES.
+     *
+     * @param width The width of the stored image.
+     * @param height The height of the stored image.
+     * @return The number of rows in each band.
+     */
+    private static int automaticBandRows(int width, int height) {
+        if ((long) width * height <= STREAMING_THRESHOLD) {
+            return Math.max(height, 1);
+        }
+        return (int) Math.max(1, DECODE_BUDGET_BYTES / ((long) width * BYTES_PER_DECODED_PIXEL));
+    }
+
+    /**
+     * Returns the current width of the image.
+     *
+     * @return The current width of the image.
+     */
+    public int getWidth() {
+        return store.getWidth();
+    }
+
+    /**
+     * Returns the current height of the image.
+     *
+     * @return The current height of the image.
+     */
+    public int getHeight() {
+        return store.getHeight();
+    }
+
+    /**
+     * Releases the store of the image. If the store is kept in memory-mapped files, they are deleted,
+     * along with the spill file of the undo history.
+     * The image must not be used afterwards.
+     *
+     * @throws IOException If the store cannot be released.
+     */
+    @Override
+    public void close() throws IOException {
+        history.close();
+        store.close();
+    }
+
+    /**
+     * Returns the undo history of the seams removed from the image, to set its memory limit and
+     * spill directory or to read how much of it is kept where.
+     *
+     * @return The undo history.
+     */
+    public SeamHistory getHistory() {
+        return history;
     }
 
     /**
      * Exports the image represented by this Image object to a file.
-     * The method takes a string parameter outputFilePath which is the path where
-     * the output image will be saved.
-     * It creates a new BufferedImage object with a size of 8x8 pixels and a type of
-     * BufferedImage.TYPE_INT_RGB.
-     * It then iterates over each row and column of the image, retrieves the color
-     * of the pixel and sets the RGB value of the corresponding pixel in the
-     * BufferedImage object.
-     * Finally, it writes the BufferedImage object to the output file. If an
-     * IOException occurs during this process, the exception is caught and its stack
+     * The method takes a string parameter outputFilePath which is the name of the output
+     * image; it is saved as a PNG in the Output folder next to the source folder of the image.
+     * If an IOException occurs during this process, the exception is caught and its stack
      * trace is printed.
      *
-     * @param outputFilePath The path where the output image will be saved.
+     * @param outputFilePath The name of the file where the output image will be saved.
      */
     public void exportImage(String outputFilePath) {
-        // Create a new BufferedImage object with the width and height of the image
-        BufferedImage newImage = new BufferedImage(this.width, this.height, BufferedImage.TYPE_INT_RGB);
         try {
-            // Loop over each row of pixels in the image
-            for (int row = 0; row < this.height; row++) {
-                // Get the first pixel in the current row
-                Pixel pixel = firstColumn.get(row);
-                // Loop over each column of pixels in the image
-                for (int col = 0; col < this.width; col++) {
-                    // Set the color of the current pixel in the new image
-                    newImage.setRGB(col, row, pixel.getColor().getRGB());
-                    // Move to the next pixel in the row
-                    pixel = pixel.getRight();
-                }
-            }
-            // Create a new File object for the output file
-            File output = new File(filePath.split("src")[0] + "Output\\" + outputFilePath + ".png");
-
-            // Write the new image to the output file
-            ImageIO.write(newImage, "png", output);
+            // Write the image to the output file
+            writeImage(exportFile(outputFilePath));
         // Catch any IOExceptions that occur and print the stack trace
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    
+    /**
+     * Returns the file that exportImage writes an image with the given name to.
+     * The file is in the Output directory next to the src directory of the original image.
+     *
+     * @param outputFilePath The name of the output image, without the extension.
+     * @return The output file.
+     */
+    public File exportFile(String outputFilePath) {
+        return new File(filePath.split("src")[0] + "Output\\" + outputFilePath + ".png");
+    }
+
+    /**
+     * Takes a snapshot of the colors of the image as it is now.
+     * The snapshot is a single copy of the packed colors, so it is cheap enough to take after
+     * every edit, and it can be written to a file on another thread while the image keeps changing.
+     *
+     * @return The snapshot.
+     */
+    public ImageSnapshot snapshot() {
+        int[] argb = new int[store.getWidth() * store.getHeight()];
+        store.copyColors(argb);
+        return new ImageSnapshot(store.getWidth(), store.getHeight(), argb);
+    }
+
+    /**
+     * Takes a snapshot of the colors of the image with a vertical seam highlighted on top.
+     * The highlight is only drawn on the snapshot, so the image itself is not changed.
+     *
+     * @param criterion The criterion that chooses the seam to highlight, as in findVerticalSeam.
+     * @param color The color to highlight the seam with.
+     * @return The snapshot.
+     */
+    public ImageSnapshot snapshot(SeamCostFunction criterion, Color color) {
+        int[] columns = cachedVerticalSeam(criterion);
+        int[] argb = new int[store.getWidth() * store.getHeight()];
+        store.copyColors(argb);
+        // Draw the seam over the copied colors
+        for (int y = 0; y < columns.length; y++) {
+            argb[y * store.getWidth() + columns[y]] = color.getRGB();
+        }
+        return new ImageSnapshot(store.getWidth(), store.getHeight(), argb);
+    }
+
+    /**
+     * Writes the image represented by this Image object to a PNG file.
+     * The image is handed to the PNG writer as a BandedImage, which copies the colors out of the store
+     * a few rows at a time as the writer asks for them, so the whole image is never copied at once.
+     *
+     * @param output The file where the output image will be saved.
+     * @throws IOException If an error occurs while writing the image file.
+     */
+    public void writeImage(File output) throws IOException {
+        long start = CarvingMetrics.start();
+        CarvingEvent event = CarvingMetrics.begin();
+        // Write the image to the output file band by band
+        if (!ImageIO.write(BandedImage.forWriter(store, WRITE_BAND_ROWS, scratchArena), "png", output)) {
+            throw new IOException("No PNG writer available");
+        }
+        recordTime(CarvingMetrics.Operation.EXPORT, start, event);
+    }
+
+    /**
+     * Writes the image represented by this Image object to a stream as a PNG, band by band like
+     * writeImage(File). The PNG is buffered in memory rather than in a cache file, whatever
+     * ImageIO.getUseCache says. The stream is not closed.
+     *
+     * @param output The stream the PNG is written to.
+     * @throws IOException If an error occurs while writing to the stream.
+     */
+    public void writeImage(OutputStream output) throws IOException {
+        long start = CarvingMetrics.start();
+        CarvingEvent event = CarvingMetrics.begin();
+        // Closing the buffer flushes it to the stream, but leaves the stream open
+        try (ImageOutputStream out = new MemoryCacheImageOutputStream(output)) {
+            if (!ImageIO.write(BandedImage.forWriter(store, WRITE_BAND_ROWS, scratchArena), "png", out)) {
+                throw new IOException("No PNG writer available");
+            }
+        }
+        recordTime(CarvingMetrics.Operation.EXPORT, start, event);
+    }
+
     /**
      * Prints the image to the console.
-     * It iterates over each pixel in the first column of the image, and for each pixel, 
-     * it prints the pixel and all its right neighbors in the same row.
+     * It builds the linked pixel graph of the image, iterates over each pixel in its first column,
+     * and for each pixel, it prints the pixel and all its right neighbors in the same row.
      * Each pixel is printed using its toString method, followed by a space.
      * After all pixels in a row have been printed, it prints a new line.
      */
     public void printImage() {
         // Loop over each pixel in the first column of the image
-        for (Pixel pixel : firstColumn) {
+        for (Pixel pixel : toPixelGraph()) {
             // While the current pixel is not null
             while (pixel != null) {
                 // Print the string representation of the current pixel to the console
@@ -156,558 +509,884 @@ public class Image {
             System.out.println();
         }
     }
-    
+
     /**
-     * Calculates the brightness of a given Pixel.
-     * The brightness is calculated as the average of the red, green, and blue color
-     * components.
-     * The calculated brightness is then set as the brightness of the Pixel.
+     * Builds the image as a graph structure where each node (pixel) keeps track
+     * of only its left and right neighbors.
+     * This is a compatibility view: the pixels are copied out of the store, so changing
+     * them does not change the image.
      *
-     * @param pixel The Pixel whose brightness is to be calculated.
-     * @return The calculated brightness.
+     * @return A list of the first column of pixels, each the start of a row of linked pixels.
      */
-    private int calculateBrightness(Pixel pixel) {
-        // Get the red component of the pixel's color
-        int r = pixel.getColor().getRed();
-        // Get the green component of the pixel's color
-        int g = pixel.getColor().getGreen();
-        // Get the blue component of the pixel's color
-        int b = pixel.getColor().getBlue();
-        // Calculate the brightness of the pixel as the average of the red, green, and blue components
-        int brightness = (r + g + b) / 3;
-        // Return the calculated brightness
-        return brightness;
+    public ArrayList<Pixel> toPixelGraph() {
+        // Initialize a list to store the first column of pixels
+        ArrayList<Pixel> firstColumn = new ArrayList<>(store.getHeight());
+        // Loop over each row of pixels in the image
+        for (int row = 0; row < store.getHeight(); row++) {
+            // Declare a Pixel object to keep track of the previous pixel
+            Pixel chaser = null;
+            // Loop over each column of pixels in the image
+            for (int col = 0; col < store.getWidth(); col++) {
+                // Create a view of the current pixel
+                Pixel pixel = pixelAt(col, row);
+                // If the current pixel is in the first column, add it to the firstColumn list
+                if (col == 0) {
+                    firstColumn.add(pixel);
+                } else {
+                    // Otherwise, link the previous pixel and the current pixel
+                    chaser.setRight(pixel);
+                    pixel.setLeft(chaser);
+                }
+                // Set the current pixel as the previous pixel for the next iteration
+                chaser = pixel;
+            }
+        }
+        // Return the first column of pixels
+        return firstColumn;
     }
 
     /**
-     * Calculates the brightness of each pixel in the image.
-     * It iterates over each pixel in the first column of the image, and for each pixel, 
-     * it calculates the brightness and sets the pixel's brightness to the calculated value.
-     * The brightness is calculated using the calculateBrightness method.
+     * Creates a Pixel view of the pixel in the given cell of the image.
+     * The view has the original coordinates of the pixel, so it can be found again in the store.
+     *
+     * @param x The column of the cell.
+     * @param y The row of the cell.
+     * @return A Pixel holding the color, brightness, energy and blueness of the pixel.
      */
-    public void imageCalculateBrightness() {
-        // Loop over each pixel in the first column of the image
-        for (Pixel pixel : firstColumn) {
-            // While the current pixel is not null
-            while (pixel != null) {
-                // Calculate the brightness of the current pixel
-                int brightness = calculateBrightness(pixel);
-                // Set the brightness of the current pixel
-                pixel.setBrightness(brightness);
-                // Move to the next pixel in the row
-                pixel = pixel.getRight();
-            }
+    private Pixel pixelAt(int x, int y) {
+        // Work out the original coordinates of the pixel from its physical index
+        int physicalIndex = store.physicalIndex(x, y);
+        int stride = store.getStride();
+        // Create the view with the color of the pixel
+        Pixel pixel = new Pixel(physicalIndex % stride, physicalIndex / stride, new Color(store.getColor(x, y)));
+        // Copy the values of the pixel into the view
+        pixel.setBrightness(store.getBrightness(x, y));
+        pixel.setEnergy(store.getEnergy(x, y));
+        pixel.setBlueness(store.getBlueness(x, y));
+        return pixel;
+    }
+
+    /**
+     * Returns the physical index in the store of the pixel that a Pixel view was created for.
+     *
+     * @param pixel The Pixel view.
+     * @return The physical index of the pixel.
+     */
+    private int physicalIndexOf(Pixel pixel) {
+        return pixel.getY() * store.getStride() + pixel.getX();
+    }
+
+    /**
+     * Sets how the passes over every pixel of the image are split across threads.
+     * Every setting gives exactly the same values.
+     *
+     * @param parallelism The parallelism to use, for example Parallelism.SEQUENTIAL.
+     */
+    public void setParallelism(Parallelism parallelism) {
+        this.parallelism = parallelism;
+        if (pyramid != null) {
+            pyramid.setParallelism(parallelism);
         }
     }
 
     /**
-     * Calculates the energy of a pixel in an image. The energy of a pixel is a measure of its importance in the image.
-     * The energy is calculated based on the brightness of the pixel and its eight neighboring pixels.
-     * This method is used in the context of seam carving, an image resizing technique that removes seams from an image.
+     * Sets how the rows of the seam search are split across threads.
+     * The threshold is compared with the number of pixels in a row, so only wide images are split.
+     * Every setting finds exactly the same seams.
      *
-     * @param pixelE The current pixel for which the energy is being calculated.
-     * @param pixelB The pixel above the current pixel.
-     * @param pixelH The pixel below the current pixel.
-     * @return The energy of the current pixel, calculated as the square root of the sum of the squares of the horizontal and vertical energy.
+     * @param seamParallelism The parallelism to use, for example Parallelism.SEQUENTIAL.
      */
-    private int calculateEnergy(Pixel pixelE, Pixel pixelB, Pixel pixelH) {
-        // Get the x and y coordinates and the brightness of the current pixel
-        int x = pixelE.getX();
-        int y = pixelE.getY();
-        int brE = pixelE.getBrightness();      
+    public void setSeamParallelism(Parallelism seamParallelism) {
+        seamFinder.setParallelism(seamParallelism);
+    }
 
-        // Identify the eight neighboring pixels of the current pixel
-        Pixel pixelA = y > 0 && x > 0 ? pixelB.getLeft() : pixelE;
-        Pixel pixelC = y > 0 ? pixelB.getRight() : pixelE;
-        Pixel pixelD = x > 0 ? pixelE.getLeft() : pixelE;
-        Pixel pixelF = pixelE.getRight();
-        Pixel pixelG = y < firstColumn.size() - 1 && x > 0 ? pixelH.getLeft() : pixelE;
-        Pixel pixelI = y < firstColumn.size() - 1 ? pixelH.getRight() : pixelE;
+    /**
+     * Sets the seam finder used to search for seams in the image, and so the scratch arrays of the search.
+     * A process carving many images can keep a few seam finders and hand them from one image to the next,
+     * so their tables, which grow to the largest image they have seen, are not allocated again for every
+     * image. A seam finder must only be used by one image at a time, and the image has it reuse the array
+     * of its last seam.
+     *
+     * @param seamFinder The seam finder, with its parallelism already set.
+     */
+    public void setSeamFinder(SeamFinder seamFinder) {
+        this.seamFinder = seamFinder;
+        seamFinder.setReuseSeams(true);
+        if (pyramid != null) {
+            SeamPyramid coarse = new SeamPyramid(seamFinder);
+            coarse.setParallelism(parallelism);
+            coarse.setBand(pyramid.getBand());
+            pyramid = coarse;
+        }
+        // The table of the last search was kept by the other seam finder
+        tableCriterion = null;
+    }
 
-        // Get the brightness of each neighboring pixel. If a neighboring pixel is null, use the brightness of the current pixel
-        int brA = pixelA != null ? pixelA.getBrightness() : brE;
-        int brB = pixelB != null ? pixelB.getBrightness() : brE;
-        int brC = pixelC != null ? pixelC.getBrightness() : brE;
-        int brD = pixelD != null ? pixelD.getBrightness() : brE;
-        int brF = pixelF != null ? pixelF.getBrightness() : brE;
-        int brG = pixelG != null ? pixelG.getBrightness() : brE;
-        int brH = pixelH != null ? pixelH.getBrightness() : brE;
-        int brI = pixelI != null ? pixelI.getBrightness() : brE;
+    /**
+     * Sets the scratch arena the image is carved and written with: its seam finder searches for the seams,
+     * as with setSeamFinder, and the image is written through its export band. A thread that only lives for
+     * one image, such as a virtual thread, borrows an arena from a pool and hands it in here, rather than
+     * build an arena of its own. The arena must only be used by one image at a time.
+     *
+     * @param arena The arena.
+     */
+    public void setScratchArena(ScratchArena arena) {
+        this.scratchArena = arena;
+        setSeamFinder(arena.getSeamFinder());
+    }
 
-        // Calculate the horizontal and vertical energy of the current pixel
-        int horizEnergy = (brA + 2 * brD + brG) - (brC + 2 * brF + brI);
-        int vertEnergy = (brA + 2 * brB + brC) - (brG + 2 * brH + brI);
+    /**
+     * Sets whether removed seams are recorded in the undo history, so they can be inserted back.
+     * It is on by default. Carving that never undoes, such as that of BatchCarver and CarvingServer,
+     * turns it off, so removing a seam allocates nothing to record it.
+     *
+     * @param keepHistory Whether to record removed seams.
+     */
+    public void setKeepHistory(boolean keepHistory) {
+        this.keepHistory = keepHistory;
+    }
 
-        // Return the total energy of the current pixel
-        return (int) Math.sqrt(horizEnergy * horizEnergy + vertEnergy * vertEnergy);
+    /**
+     * Sets whether vertical seams are searched for incrementally. The seam finder then keeps its table
+     * of cumulative costs (four bytes per pixel), and after a vertical seam is removed, the next search
+     * for the same criterion only recomputes the part of the table that the removal changed.
+     * This is on by default unless the image is kept in memory-mapped files. Either way the same
+     * seams are found.
+     *
+     * @param incrementalSeams Whether to search for vertical seams incrementally.
+     */
+    public void setIncrementalSeams(boolean incrementalSeams) {
+        this.incrementalSeams = incrementalSeams;
+        tableCriterion = null;
     }
 
     /**
-     * Calculates the energies of all Pixels in the Image.
-     * This method iterates over all Pixels in the Image and calls the energy method
-     * on each Pixel.
+     * Sets whether lowest cost seams, such as those of findLowestEnergySeam, are searched for from coarse
+     * to fine with a SeamPyramid, and how wide the band searched around the coarse seam is.
+     * This is much faster on very large images, but the seams found are only the cheapest ones within
+     * the band, so they can cost a little more than the exact ones. It is off by default.
+     *
+     * @param band The number of columns searched on each side of the coarse seam, or 0 to search exactly.
+     * @throws IllegalArgumentException If the band is negative.
      */
-    public void imageCalculateEnergy() {
-        // Loop over each pixel in the first column of the image
-        for (int i = 0; i < firstColumn.size(); i++) {
-            // Get the current pixel, and the pixels directly above and below it
-            Pixel pixelE = firstColumn.get(i);
-            Pixel pixelB = i > 0 ? firstColumn.get(i - 1) : pixelE;
-            Pixel pixelH = i < firstColumn.size() - 1 ? firstColumn.get(i + 1) : pixelE;
-            // While the current pixel is not null
-            while (pixelE != null) {
-                // Calculate the energy of the current pixel
-                int energy = calculateEnergy(pixelE, pixelB, pixelH);
-                // Set the energy of the current pixel
-                pixelE.setEnergy(energy);
-                // Move to the next pixel in the row
-                pixelE = pixelE.getRight();
-                pixelB = pixelB.getRight();
-                pixelH = pixelH.getRight();
+    public void setPyramidBand(int band) {
+        if (band < 0) {
+            throw new IllegalArgumentException("The band must not be negative: " + band);
+        }
+        if (band == 0) {
+            pyramid = null;
+        } else {
+            if (pyramid == null) {
+                pyramid = new SeamPyramid(seamFinder);
+                pyramid.setParallelism(parallelism);
             }
+            pyramid.setBand(band);
         }
+        // Seams found the other way no longer apply
+        cachedSeams.clear();
+        tableCriterion = null;
     }
 
     /**
-     * Calculates the blueness of a given pixel.
-     *
-     * This method retrieves the blue component of the pixel's color and returns it
-     * as the pixel's blueness.
-     * The blueness is an integer between 0 (no blue) and 255 (maximum blue).
+     * Sets how many vertical seams carving takes from each seam search. With more than one, each search
+     * extracts that many seams that never cross from its table of cumulative costs, as SeamFinder.findSeams
+     * does, and they are removed together before the energy is updated and the next search is run.
+     * This is much faster for large shrinks, but only the first seam of each pass is the exact cheapest
+     * one. Every seam is still recorded in the undo history on its own. It is 1 by default.
      *
-     * @param pixel the pixel for which to calculate the blueness
-     * @return the blueness of the pixel
+     * @param seamsPerPass The number of seams per search, at least 1.
+     * @throws IllegalArgumentException If the number is less than 1.
      */
-    private int calculateBlueness(Pixel pixel) {
-        // Get the blue component of the pixel's color
-        int blueness = pixel.getColor().getBlue();
-        // Return the blue component
-        return blueness;
+    public void setSeamsPerPass(int seamsPerPass) {
+        if (seamsPerPass < 1) {
+            throw new IllegalArgumentException("At least one seam has to be taken per pass, not " + seamsPerPass);
+        }
+        this.seamsPerPass = seamsPerPass;
     }
 
     /**
-     * Calculates and sets the blueness of all pixels in the image.
+     * Returns the fraction of the cumulative costs of the image that the last seam search computed.
+     * This is 1 for a full search, and the size of the recomputed part of the table for an incremental one.
      *
-     * This method iterates over the pixels in the first column of the image, and
-     * for each pixel, it calculates the blueness
-     * and sets it as the pixel's blueness. It then moves to the right and repeats
-     * the process for the next pixel, until it
-     * has processed all pixels in the image.
+     * @return The fraction of the cells computed, between 0 and 1.
      */
-    public void imageCalculateBluenesses() {
-        // Loop over each pixel in the first column of the image
-        for (Pixel pixel : firstColumn) {
-            // While the current pixel is not null
-            while (pixel != null) {
-                // Calculate the blueness of the current pixel
-                int blueness = calculateBlueness(pixel);
-                // Set the blueness of the current pixel
-                pixel.setBlueness(blueness);
-                // Move to the next pixel in the row
-                pixel = pixel.getRight();
-            }
-        }
+    public double getLastSeamComputedFraction() {
+        return seamFinder.getLastComputedFraction();
+    }
+
+    /**
+     * Calculates the brightness of each pixel in the image.
+     * The brightness is the average of the red, green, and blue color components of a pixel.
+     */
+    public void imageCalculateBrightness() {
+        long start = CarvingMetrics.start();
+        CarvingEvent event = CarvingMetrics.begin();
+        // Calculate the brightness of every pixel in the store
+        store.calculateBrightness(parallelism);
+        recordTime(CarvingMetrics.Operation.BRIGHTNESS, start, event);
+    }
+
+    /**
+     * Calculates the energies of all pixels in the image.
+     * The energy of a pixel is a measure of its importance in the image: it is the Sobel gradient
+     * of the brightness of the pixel and its eight neighboring pixels.
+     * The brightness of every pixel must already be up to date.
+     */
+    public void imageCalculateEnergy() {
+        long start = CarvingMetrics.start();
+        CarvingEvent event = CarvingMetrics.begin();
+        // Calculate the energy of every pixel in the store
+        store.calculateEnergy(parallelism);
+        recordTime(CarvingMetrics.Operation.ENERGY, start, event);
     }
 
     /**
      * Finds the bluest seam in the image.
      *
      * This method uses dynamic programming to find the seam with the maximum total blueness.
-     * It first initializes the first row of the dynamic programming table with the blueness of each pixel in the first row.
-     * Then, for each remaining row, it calculates the maximum total blueness that can be achieved by selecting a pixel in that row,
-     * given that the pixel in the previous row that was selected is either the pixel to the left, the pixel directly above, or the pixel to the right.
-     * It keeps track of the seam that achieves the maximum total blueness for each pixel.
-     * Finally, it returns the seam that achieves the maximum total blueness in the last row.
+     * The search is done by the image's SeamFinder, which works on its own scratch buffer of cumulative
+     * blueness values and parent offsets, so the pixels of the image are left untouched.
+     * The seam is then rebuilt by backtracking and converted back into the pixels of the image.
      *
      * @return An ArrayList of Pixel objects representing the bluest seam in the image.
      */
     public ArrayList<Pixel> findBluestSeam() {
-        // Get the height of the image
-        int height = firstColumn.size();
-        // Initialize an ArrayList to store the pixels in the bluest seam
-        ArrayList<Pixel> seam = new ArrayList<>();
-        // Initialize an array to store the blueness values of the previous row of pixels
-        int[] previousValues = new int[height];
-        // Initialize a 2D array to store the pixels in the bluest seam up to each pixel in the previous row
-        Pixel[][] previousSeams = new Pixel[height][height];
-
-        // Initialize the first row of pixels
-        Pixel pixel = firstColumn.get(0);
-        int i = 0;
-        while (pixel != null) {
-            // Set the blueness value of the current pixel in the previousValues array
-            previousValues[i] = pixel.getBlueness();
-            // Set the current pixel as the bluest seam up to itself in the previousSeams array
-            previousSeams[i][0] = pixel;
-            // Move to the next pixel in the row
-            pixel = pixel.getRight();
-            i++;
-        }
-
-        // Process the remaining rows of pixels
-        for (int y = 1; y < height; y++) {
-            pixel = firstColumn.get(y);
-            int[] currentValues = new int[i];
-            Pixel[][] currentSeams = new Pixel[i][height];
-            int x = 0;
-            while (pixel != null) {
-                // Calculate the maximum blueness value of the three pixels above the current pixel
-                int left = x > 0 ? previousValues[x - 1] : -1;
-                int middle = x < previousValues.length ? previousValues[x]: -1;
-                int right = x < i - 1 ? previousValues[x + 1] : -1;
-                int max = Math.max(Math.max(left, middle), right);
-                // Add the blueness value of the current pixel to the maximum blueness value
-                currentValues[x] = pixel.getBlueness() + max;
-
-                // Update the bluest seam up to the current pixel
-                if (max == left) {
-                    System.arraycopy(previousSeams[x - 1], 0, currentSeams[x], 0, y);
-                } else if (max == middle) {
-                    System.arraycopy(previousSeams[x], 0, currentSeams[x], 0, y);
-                } else {
-                    System.arraycopy(previousSeams[x + 1], 0, currentSeams[x], 0, y);
-                }
-                currentSeams[x][y] = pixel;
-                // Update the blueness value of the current pixel
-                pixel.setBlueness(currentValues[x]);
-                // Move to the next pixel in the row
-                pixel = pixel.getRight();
-                x++;
-            }
-
-            // Prepare for the next row
-            previousValues = currentValues;
-            previousSeams = currentSeams;
-        }
-
-        // Find the bluest seam in the last row of pixels
-        int maxIndex = indexOfLargest(previousValues);
-        Pixel[] pixelSeam = previousSeams[maxIndex];
-        // Add the pixels in the bluest seam to the seam ArrayList
-        seam.addAll(Arrays.asList(pixelSeam));
-        // Return the seam ArrayList
-        return seam;
+        // Find the bluest seam and convert its columns into the pixels of the seam
+        return seamFromPositions(cachedVerticalSeam(SeamCriterion.BLUEST), false);
     }
 
     /**
      * Finds the seam with the lowest total energy in the image.
      *
      * This method uses dynamic programming to find the seam with the lowest total energy.
-     * It first initializes the first row of the dynamic programming table with the energy of each pixel in the first row.
-     * Then, for each remaining row, it calculates the minimum total energy that can be achieved by selecting a pixel in that row,
-     * given that the pixel in the previous row that was selected is either the pixel to the left, the pixel directly above, or the pixel to the right.
-     * It keeps track of the seam that achieves the minimum total energy for each pixel.
-     * Finally, it returns the seam that achieves the minimum total energy in the last row.
+     * The search is done by the image's SeamFinder, which keeps one rolling row of cumulative energies
+     * and a table of parent offsets instead of copying the partial seam ending at every pixel.
+     * The seam is then rebuilt by backtracking and converted back into the pixels of the image.
      *
      * @return An ArrayList of Pixel objects representing the seam with the lowest total energy in the image.
      */
     public ArrayList<Pixel> findLowestEnergySeam() {
-        // Get the height of the image
-        int height = firstColumn.size();
-        // Initialize an ArrayList to store the pixels in the lowest energy seam
-        ArrayList<Pixel> seam = new ArrayList<>();
-        // Initialize an array to store the energy values of the previous row of pixels
-        int[] previousValues = new int[height];
-        // Initialize a 2D array to store the pixels in the lowest energy seam up to each pixel in the previous row
-        Pixel[][] previousSeams = new Pixel[height][height];
-    
-        // Initialize the first row of pixels
-        Pixel pixel = firstColumn.get(0);
-        int i = 0;
-        while (pixel != null) {
-            // Set the energy value of the current pixel in the previousValues array
-            previousValues[i] = pixel.getEnergy();
-            // Set the current pixel as the lowest energy seam up to itself in the previousSeams array
-            previousSeams[i][0] = pixel;
-            // Move to the next pixel in the row
-            pixel = pixel.getRight();
-            i++;
-        }
-    
-        // Process the remaining rows of pixels
-        for (int y = 1; y < height; y++) {
-            pixel = firstColumn.get(y);
-            int[] currentValues = new int[i];
-            Pixel[][] currentSeams = new Pixel[i][height];
-            int x = 0;
-            while (pixel != null) {
-                // Calculate the total energy for all possible seams ending at this pixel
-                int minEnergy = Integer.MAX_VALUE;
-                for (int dx = -1; dx <= 1; dx++) {
-                    if (x + dx >= 0 && x + dx < previousValues.length) {
-                        int energy = pixel.getEnergy() + previousValues[x + dx];
-                        if (energy < minEnergy) {
-                            minEnergy = energy;
-                            // Copy the seam from the previous row
-                            System.arraycopy(previousSeams[x + dx], 0, currentSeams[x], 0, y);
-                        }
-                    }
+        // Find the lowest energy seam and convert its columns into the pixels of the seam
+        return seamFromPositions(cachedVerticalSeam(SeamCriterion.LOWEST_ENERGY), false);
+    }
+
+    /**
+     * Finds a vertical seam in the image, chosen by any cost function, such as SeamCriterion.FORWARD_ENERGY.
+     *
+     * @param criterion The criterion used to choose the seam.
+     * @return An ArrayList of Pixel objects representing the seam, one for each row from top to bottom.
+     */
+    public ArrayList<Pixel> findVerticalSeam(SeamCostFunction criterion) {
+        // Find the seam and convert its columns into the pixels of the seam
+        return seamFromPositions(cachedVerticalSeam(criterion), false);
+    }
+
+    /**
+     * Removes the vertical seam chosen by the given criterion, as found by findVerticalSeam.
+     * The seam found for the current version of the image is reused, so nothing is searched again.
+     *
+     * @param criterion The criterion used to choose the seam.
+     */
+    public void removeVerticalSeam(SeamCostFunction criterion) {
+        removeSeamAt(cachedVerticalSeam(criterion), false);
+    }
+
+    /**
+     * Returns the vertical seam chosen by the given criterion for the current version of the image.
+     * The energy of the pixels is brought up to date first, and the seam is only searched for if it
+     * has not been found since the image last changed.
+     *
+     * @param criterion The criterion used to choose the seam.
+     * @return The column of the seam in each row.
+     */
+    private int[] cachedVerticalSeam(SeamCostFunction criterion) {
+        // Forget the seams found for an earlier version of the image
+        if (cachedSeamsVersion != version) {
+            cachedSeams.clear();
+            cachedSeamsVersion = version;
+        }
+        int[] columns = cachedSeams.get(criterion);
+        if (columns == null) {
+            updateValues();
+            // Copy the seam, since the seam finder reuses its array for the next search
+            columns = findSeamPositions(criterion, false).clone();
+            cachedSeams.put(criterion, columns);
+        }
+        return columns;
+    }
+
+    /**
+     * Returns the version of the image: the number of edits made to it so far.
+     * Removing, inserting or highlighting a seam each count as an edit.
+     *
+     * @return The version of the image.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Finds a horizontal seam in the image, running from the left edge to the right edge.
+     * The columns of the image are fed to the SeamFinder as if they were rows, so the image is
+     * never transposed.
+     *
+     * @param criterion The criterion used to choose the seam.
+     * @return An ArrayList of Pixel objects representing the seam, one for each column from left to right.
+     */
+    public ArrayList<Pixel> findHorizontalSeam(SeamCostFunction criterion) {
+        // Find the seam and convert its rows into the pixels of the seam
+        return seamFromPositions(findSeamPositions(criterion, true), true);
+    }
+
+    /**
+     * Finds the seam chosen by the given criterion.
+     *
+     * @param criterion The criterion used to choose the seam.
+     * @param horizontal Whether to find a horizontal seam rather than a vertical one.
+     * @return The column of a vertical seam in each row, or the row of a horizontal seam in each column.
+     */
+    private int[] findSeamPositions(SeamCostFunction criterion, boolean horizontal) {
+        long start = CarvingMetrics.start();
+        CarvingEvent event = CarvingMetrics.begin();
+        int[] positions = searchSeamPositions(criterion, horizontal);
+        recordTime(CarvingMetrics.Operation.SEAM_SEARCH, start, event);
+        return positions;
+    }
+
+    /**
+     * Searches for the seam chosen by the given criterion, with the pyramid or the kept table if they apply.
+     *
+     * @param criterion The criterion used to choose the seam.
+     * @param horizontal Whether to find a horizontal seam rather than a vertical one.
+     * @return The column of a vertical seam in each row, or the row of a horizontal seam in each column.
+     */
+    private int[] searchSeamPositions(SeamCostFunction criterion, boolean horizontal) {
+        // A horizontal seam is found by treating each column as a row
+        int length = horizontal ? store.getHeight() : store.getWidth();
+        int count = horizontal ? store.getWidth() : store.getHeight();
+        if (criterion.hasTransitionCosts()) {
+            tableCriterion = null;
+            return seamFinder.findSeam(length, count, (line, from, to, costs, leftCosts, rightCosts) -> {
+                criterion.fillCosts(store, horizontal, line, from, to, costs);
+                criterion.fillTransitionCosts(store, horizontal, line, from, to, leftCosts, rightCosts);
+            }, criterion.isMaximized());
+        }
+        SeamFinder.CostRows source = (line, from, to, costs) ->
+                criterion.fillCosts(store, horizontal, line, from, to, costs);
+        if (pyramid != null && !criterion.isMaximized()) {
+            // The pyramid overwrites the table of the seam finder
+            tableCriterion = null;
+            return pyramid.findMinSeam(length, count, source);
+        }
+        if (!horizontal && incrementalSeams && criterion.isLocal()) {
+            // Reuse the table of the last search if only a vertical seam was removed since
+            int[] columns;
+            if (criterion == tableCriterion && removedSinceTable != null && version == tableVersion + 1) {
+                columns = seamFinder.updateSeam(length, count, source, criterion.isMaximized(), removedSinceTable,
+                        changedFrom, changedTo);
+            } else {
+                columns = seamFinder.findSeamAndKeepTable(length, count, source, criterion.isMaximized());
+            }
+            tableCriterion = criterion;
+            tableVersion = version;
+            removedSinceTable = null;
+            return columns;
+        }
+        // Any other search overwrites the table
+        tableCriterion = null;
+        return criterion.isMaximized() ? seamFinder.findMaxSeam(length, count, source)
+                : seamFinder.findMinSeam(length, count, source);
+    }
+
+    /**
+     * Carves the image down to the given width.
+     *
+     * Seams chosen by the given criterion are removed back to back. Between seams, only the energy
+     * of the pixels next to the last removed seam is updated, and nothing is exported.
+     * The removed seams are kept, so they can still be inserted back one by one.
+     *
+     * @param targetWidth The width to carve the image down to.
+     * @param criterion The criterion used to choose each seam.
+     * @param listener The listener told about each removed seam, or null for none.
+     * @throws IllegalArgumentException If the target width is less than 1 or more than the current width.
+     */
+    public void carveToWidth(int targetWidth, SeamCostFunction criterion, CarveListener listener) {
+        carveTo(targetWidth, store.getHeight(), criterion, listener);
+    }
+
+    /**
+     * Carves the image down to the given width without reporting progress.
+     *
+     * @param targetWidth The width to carve the image down to.
+     * @param criterion The criterion used to choose each seam.
+     * @throws IllegalArgumentException If the target width is less than 1 or more than the current width.
+     */
+    public void carveToWidth(int targetWidth, SeamCostFunction criterion) {
+        carveTo(targetWidth, store.getHeight(), criterion, null);
+    }
+
+    /**
+     * Carves the image down to the given width and height.
+     *
+     * Seams are removed back to back, as in carveToWidth. While both the width and the height still
+     * have to shrink, the best vertical and the best horizontal seam are both found at each step,
+     * and the one with the better cost per pixel is removed.
+     * Once only the width has to shrink, each search removes as many vertical seams as setSeamsPerPass allows.
+     *
+     * @param targetWidth The width to carve the image down to.
+     * @param targetHeight The height to carve the image down to.
+     * @param criterion The criterion used to choose each seam.
+     * @param listener The listener told about each removed seam, or null for none.
+     * @throws IllegalArgumentException If a target is less than 1 or more than the current size.
+     */
+    public void carveTo(int targetWidth, int targetHeight, SeamCostFunction criterion, CarveListener listener) {
+        if (targetWidth < 1 || targetWidth > store.getWidth()) {
+            throw new IllegalArgumentException("Target width " + targetWidth
+                    + " is not between 1 and the current width " + store.getWidth());
+        }
+        if (targetHeight < 1 || targetHeight > store.getHeight()) {
+            throw new IllegalArgumentException("Target height " + targetHeight
+                    + " is not between 1 and the current height " + store.getHeight());
+        }
+        // Work out how many seams have to be removed
+        int seamsTotal = store.getWidth() - targetWidth + store.getHeight() - targetHeight;
+        long start = System.nanoTime();
+        int removed = 0;
+        while (removed < seamsTotal) {
+            // Update the energy of the pixels next to the last removed seams
+            updateValues();
+            // Find the next seams and remove them
+            int batch = 1;
+            if (store.getHeight() == targetHeight && seamsPerPass > 1) {
+                batch = removeVerticalSeams(criterion, Math.min(seamsPerPass, store.getWidth() - targetWidth));
+            } else if (store.getHeight() == targetHeight) {
+                removeSeamAt(findSeamPositions(criterion, false), false);
+            } else if (store.getWidth() == targetWidth) {
+                removeSeamAt(findSeamPositions(criterion, true), true);
+            } else {
+                removeCheaperSeam(criterion);
+            }
+            // Report the progress, once for each removed seam
+            for (int i = 0; i < batch; i++) {
+                removed++;
+                if (listener != null) {
+                    listener.seamRemoved(removed, seamsTotal, System.nanoTime() - start);
                 }
-                currentValues[x] = minEnergy;
-                currentSeams[x][y] = pixel;
-                // Move to the next pixel in the row
-                pixel = pixel.getRight();
-                x++;
             }
-    
-            // Prepare for the next row
-            previousValues = currentValues;
-            previousSeams = currentSeams;
-        }
-    
-        // Find the lowest energy seam in the last row of pixels
-        int minIndex = indexOfSmallest(previousValues);
-        Pixel[] pixelSeam = previousSeams[minIndex];
-        // Add the pixels in the lowest energy seam to the seam ArrayList
-        seam.addAll(Arrays.asList(pixelSeam));
+        }
+        // Leave the values of the carved image up to date
+        updateValues();
+    }
+
+    /**
+     * Carves the image down to the given width and height without reporting progress.
+     *
+     * @param targetWidth The width to carve the image down to.
+     * @param targetHeight The height to carve the image down to.
+     * @param criterion The criterion used to choose each seam.
+     * @throws IllegalArgumentException If a target is less than 1 or more than the current size.
+     */
+    public void carveTo(int targetWidth, int targetHeight, SeamCostFunction criterion) {
+        carveTo(targetWidth, targetHeight, criterion, null);
+    }
+
+    /**
+     * Carves the image down to a minimum width, recording the step at which each pixel was removed,
+     * so that the original image can later be retargeted to any width in between with the returned
+     * index, without carving it again.
+     * The image must not have been edited yet. It is left at the minimum width, and the seams removed
+     * here are not added to the undo history.
+     *
+     * @param minWidth The smallest width the index can retarget the image to.
+     * @param criterion The criterion used to choose the seams, as in carveToWidth.
+     * @return The index of the seams removed from the image.
+     */
+    public SeamIndex buildSeamIndex(int minWidth, SeamCostFunction criterion) {
+        int width = store.getWidth();
+        int height = store.getHeight();
+        if (width != store.getStride() || history.size() > 0 || history.getDroppedCount() > 0
+                || !keepHistory && version > 0) {
+            throw new IllegalStateException("A seam index can only be built for an image that has not been edited");
+        }
+        if (minWidth < 1 || minWidth > width || width - minWidth > SeamIndex.MAX_STEPS) {
+            throw new IllegalArgumentException("Minimum width " + minWidth + " is not between "
+                    + Math.max(1, width - SeamIndex.MAX_STEPS) + " and the width " + width);
+        }
+        // Every pixel is kept unless it is removed on the way to the minimum width
+        char[] steps = new char[width * height];
+        Arrays.fill(steps, SeamIndex.KEPT);
+        for (int step = 0; step < width - minWidth; step++) {
+            // Update the energy of the pixels next to the last removed seam
+            updateValues();
+            // Find the next seam, record when its pixels were removed, and remove it
+            int[] columns = findSeamPositions(criterion, false);
+            for (int y = 0; y < height; y++) {
+                steps[store.physicalIndex(columns[y], y)] = (char) step;
+            }
+            removeVerticalSeamFromStore(columns);
+        }
+        // Leave the values of the carved image up to date
+        updateValues();
+        return new SeamIndex(width, height, minWidth, steps);
+    }
+
+    /**
+     * Finds the best vertical and the best horizontal seam, and removes the one with the better cost per pixel.
+     * A vertical seam has one pixel per row and a horizontal seam one pixel per column, so their total costs
+     * are compared after dividing by their lengths.
+     *
+     * @param criterion The criterion used to choose the seam.
+     */
+    private void removeCheaperSeam(SeamCostFunction criterion) {
+        // Find the best seam in each direction, with its total cost
+        // The vertical seam is copied, since a square image would have the horizontal search reuse its array
+        int[] vertical = findSeamPositions(criterion, false).clone();
+        long verticalCost = seamFinder.getLastSeamCost();
+        int[] horizontal = findSeamPositions(criterion, true);
+        long horizontalCost = seamFinder.getLastSeamCost();
+        // Compare verticalCost / height with horizontalCost / width without dividing
+        long verticalScaled = verticalCost * store.getWidth();
+        long horizontalScaled = horizontalCost * store.getHeight();
+        boolean verticalBetter = criterion.isMaximized()
+                ? verticalScaled >= horizontalScaled
+                : verticalScaled <= horizontalScaled;
+        // Remove the better seam
+        if (verticalBetter) {
+            removeSeamAt(vertical, false);
+        } else {
+            removeSeamAt(horizontal, true);
+        }
+    }
+
+    /**
+     * Converts a seam given by its position in each row or column into the pixels of the seam.
+     *
+     * @param positions The column of a vertical seam in each row, or the row of a horizontal seam in each column.
+     * @param horizontal Whether the seam is horizontal.
+     * @return An ArrayList of Pixel objects representing the seam.
+     */
+    private ArrayList<Pixel> seamFromPositions(int[] positions, boolean horizontal) {
+        // Initialize an ArrayList to store the pixels in the seam
+        ArrayList<Pixel> seam = new ArrayList<>(positions.length);
+        // Loop over each row (or column) of the image
+        for (int i = 0; i < positions.length; i++) {
+            // Add a view of the pixel of the seam in this row (or column)
+            seam.add(horizontal ? pixelAt(i, positions[i]) : pixelAt(positions[i], i));
+        }
         // Return the seam ArrayList
         return seam;
     }
 
     /**
      * Highlights a given seam in the image with a specified color.
+     * The seam can be vertical or horizontal.
      *
      * @param seam an ArrayList of Pixel objects representing the seam to be highlighted.
      * @param color the color to use for highlighting the seam.
      */
     public void highlightSeam(ArrayList<Pixel> seam, Color color) {
+        version++;
         // Loop over each pixel in the seam
-        for (Pixel pixel : seam) {
-            // If the current pixel is not null
-            if (pixel != null) {
-                // Set the color of the current pixel to the specified color
-                pixel.setColor(color);
+        for (int i = 0; i < seam.size(); i++) {
+            Pixel pixel = seam.get(i);
+            // Set the color of the current pixel to the specified color
+            pixel.setColor(color);
+            // The i-th pixel of a vertical seam is in row i, and that of a horizontal seam in column i
+            int physicalIndex = physicalIndexOf(pixel);
+            int column = i < store.getHeight() ? store.findColumn(i, physicalIndex) : -1;
+            // Set the color of the pixel in the store as well
+            if (column >= 0) {
+                store.setColor(column, i, color.getRGB());
+            } else {
+                store.setColor(i, store.findRow(i, physicalIndex), color.getRGB());
             }
         }
     }
-    
+
     /**
-     * Removes a given seam from the image and stores the removed pixels.
+     * Removes a given vertical seam from the image and stores the removed pixels.
      *
-     * @param seam an ArrayList of Pixel objects representing the seam to be removed.
+     * @param seam an ArrayList of Pixel objects representing the seam to be removed, one for each row.
      */
     public void removeSeam(ArrayList<Pixel> seam) {
-        // Initialize an ArrayList to store the pixels that will be removed
-        ArrayList<Pixel> removedPixels = new ArrayList<>();
-        // Loop over each pixel in the seam
-        for (Pixel pixel : seam) {
-            // If the current pixel is not null
-            if (pixel != null) {
-                // Add the current pixel to the removedPixels ArrayList
-                removedPixels.add(pixel);
-                // Remove the current pixel from the image
-                removePixel(pixel);
-            }
+        // Find the column of the seam in each row
+        int[] columns = new int[seam.size()];
+        for (int y = 0; y < seam.size(); y++) {
+            columns[y] = store.findColumn(y, physicalIndexOf(seam.get(y)));
         }
-        // Decrease the width of the image by 1
-        this.width--;
-        // Add the removedPixels ArrayList to the removedSeams ArrayList
-        removedSeams.add(removedPixels);
+        // Remove the seam
+        removeSeamAt(columns, false, seam);
     }
 
     /**
-     * Inserts a given seam into the image.
+     * Removes a given horizontal seam from the image and stores the removed pixels.
      *
-     * @param seam an ArrayList of Pixel objects representing the seam to be inserted.
+     * @param seam an ArrayList of Pixel objects representing the seam to be removed, one for each column.
      */
-    public void insertSeam(ArrayList<Pixel> seam) {
-        // Loop over each pixel in the seam
-        for (int y = 0; y < seam.size(); y++) {
-            // Get the current pixel
-            Pixel pixel = seam.get(y);
-            // If the current pixel is not null
-            if (pixel != null) {
-                // Insert the current pixel into the image
-                insertPixel(pixel);
-            }
+    public void removeHorizontalSeam(ArrayList<Pixel> seam) {
+        // Find the row of the seam in each column
+        int[] rows = new int[seam.size()];
+        for (int x = 0; x < seam.size(); x++) {
+            rows[x] = store.findRow(x, physicalIndexOf(seam.get(x)));
         }
-        // Increase the width of the image by 1
-        this.width++;
-        // Remove the last seam from the removedSeams ArrayList
-        removedSeams.removeLast();
-    }
-    
-    /**
-     * Inserts a pixel into the image.
-     *
-     * This method inserts a pixel into the image by updating the left and right neighbors of the pixel
-     * to point to the new pixel, effectively inserting the pixel into the linked list that represents the image.
-     * If the pixel being inserted is the first pixel in its row (i.e., it's in the firstColumn list),
-     * the method updates the firstColumn list to point to the new pixel.
-     *
-     * @param pixel The pixel to be inserted. If the pixel is null, the method does nothing.
-     */
-    private void insertPixel(Pixel pixel) {
-        // If the pixel to be inserted is not null
-        if (pixel != null) {
-            // Get the pixel to the left of the current pixel
-            Pixel left = pixel.getLeft();
-            // Get the pixel to the right of the current pixel
-            Pixel right = pixel.getRight();
-            // Set the left pixel of the current pixel
-            pixel.setLeft(left);
-            // Set the right pixel of the current pixel
-            pixel.setRight(right);
-            // If there is a pixel to the left of the current pixel
-            if (left != null) {
-                // Set the right pixel of the left pixel to the current pixel
-                left.setRight(pixel);
+        // Remove the seam
+        removeSeamAt(rows, true, seam);
+    }
+
+    /**
+     * Removes the seam at the given positions from the image and stores the removed pixels.
+     *
+     * @param positions The column of a vertical seam in each row, or the row of a horizontal seam in each column.
+     * @param horizontal Whether the seam is horizontal.
+     */
+    private void removeSeamAt(int[] positions, boolean horizontal) {
+        removeSeamAt(positions, horizontal, null);
+    }
+
+    /**
+     * Removes the seam at the given positions from the image and stores the removed pixels in the history.
+     *
+     * @param positions The column of a vertical seam in each row, or the row of a horizontal seam in each column.
+     * @param horizontal Whether the seam is horizontal.
+     * @param seam The pixels of the seam, which keep the initial color of each pixel, or null to record
+     *             the current colors of the pixels.
+     */
+    private void removeSeamAt(int[] positions, boolean horizontal, ArrayList<Pixel> seam) {
+        long start = CarvingMetrics.start();
+        CarvingEvent event = CarvingMetrics.begin();
+        if (keepHistory) {
+            // Find the physical index and the original color of each pixel of the seam
+            growSeamScratch(positions.length);
+            for (int i = 0; i < positions.length; i++) {
+                int x = horizontal ? i : positions[i];
+                int y = horizontal ? positions[i] : i;
+                seamIndexes[i] = store.physicalIndex(x, y);
+                seamColors[i] = seam == null ? store.getColor(x, y) : seam.get(i).getInitialColor().getRGB();
             }
-            // If there is a pixel to the right of the current pixel
-            if (right != null) {
-                // Set the left pixel of the right pixel to the current pixel
-                right.setLeft(pixel);
+            // Add the removed pixels to the history, with where they were removed from
+            try {
+                history.push(horizontal, positions, seamIndexes, seamColors);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot spill the undo history", e);
             }
-            // If the right pixel is the first pixel in the column
-            if (right == firstColumn.get(pixel.getY())) {
-                // Set the first pixel in the column to the current pixel
-                firstColumn.set(pixel.getY(), pixel);
+        }
+        // Remove the seam from the store
+        if (horizontal) {
+            store.removeHorizontalSeam(positions);
+            version++;
+        } else {
+            removeVerticalSeamFromStore(positions);
+        }
+        recordTime(CarvingMetrics.Operation.REMOVE_SEAM, start, event);
+    }
+
+    /**
+     * Finds several vertical seams with one search and removes them together.
+     * Each seam is recorded in the history on its own, from the rightmost to the leftmost, so that the
+     * seams can be inserted back one by one from the leftmost, as if they had been removed in that order.
+     *
+     * @param criterion The criterion used to choose the seams.
+     * @param count The largest number of seams to remove.
+     * @return The number of seams removed, at least 1.
+     */
+    private int removeVerticalSeams(SeamCostFunction criterion, int count) {
+        int width = store.getWidth();
+        int height = store.getHeight();
+        long start = CarvingMetrics.start();
+        CarvingEvent event = CarvingMetrics.begin();
+        int[][] seams;
+        if (criterion.hasTransitionCosts()) {
+            seams = seamFinder.findSeams(width, height, (line, from, to, costs, leftCosts, rightCosts) -> {
+                criterion.fillCosts(store, false, line, from, to, costs);
+                criterion.fillTransitionCosts(store, false, line, from, to, leftCosts, rightCosts);
+            }, criterion.isMaximized(), count);
+        } else {
+            seams = seamFinder.findSeams(width, height, (line, from, to, costs) ->
+                    criterion.fillCosts(store, false, line, from, to, costs), criterion.isMaximized(), count);
+        }
+        // The search overwrites the table of the seam finder
+        tableCriterion = null;
+        recordTime(CarvingMetrics.Operation.SEAM_SEARCH, start, event);
+        start = CarvingMetrics.start();
+        event = CarvingMetrics.begin();
+        // Record the seams, from the rightmost to the leftmost, whose columns the others do not shift
+        if (keepHistory) {
+            growSeamScratch(height);
+            for (int j = seams.length - 1; j >= 0; j--) {
+                for (int y = 0; y < height; y++) {
+                    seamIndexes[y] = store.physicalIndex(seams[j][y], y);
+                    seamColors[y] = store.getColor(seams[j][y], y);
+                }
+                try {
+                    history.push(false, seams[j], seamIndexes, seamColors);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Cannot spill the undo history", e);
+                }
             }
-            // Set the color of the current pixel to its initial color
-            pixel.setColor(pixel.getInitialColor());
         }
+        store.removeVerticalSeams(seams);
+        version++;
+        recordTime(CarvingMetrics.Operation.REMOVE_SEAM, start, event);
+        return seams.length;
     }
 
     /**
-     * Removes a pixel from the image.
+     * Makes sure the scratch arrays for the physical indexes and colors of a seam hold the given number of pixels.
      *
-     * This method removes a pixel from the image by updating the left and right neighbors of the pixel
-     * to point to each other, effectively removing the pixel from the linked list that represents the image.
-     * If the pixel being removed is the first pixel in its row (i.e., it's in the firstColumn list),
-     * the method updates the firstColumn list to point to the right neighbor of the pixel.
+     * @param length The number of pixels of the seam.
+     */
+    private void growSeamScratch(int length) {
+        if (seamIndexes.length < length) {
+            seamIndexes = new int[length];
+            seamColors = new int[length];
+        }
+    }
+
+    /**
+     * Removes a vertical seam from the store. If the seam finder kept its table for the image as it was,
+     * the seam and the cells whose energy it changed are noted, so the next search can reuse the table.
      *
-     * @param pixel The pixel to be removed. If the pixel is null, the method does nothing.
+     * @param columns The column of the seam in each row.
      */
-    private void removePixel(Pixel pixel) {
-        // If the pixel to be removed is not null
-        if (pixel != null) {
-            // Get the pixel to the left of the current pixel
-            Pixel left = pixel.getLeft();
-            // Get the pixel to the right of the current pixel
-            Pixel right = pixel.getRight();
-            // If there is a pixel to the left of the current pixel
-            if (left != null) {
-                // Set the right pixel of the left pixel to the right pixel of the current pixel
-                left.setRight(right);
-            }
-            // If there is a pixel to the right of the current pixel
-            if (right != null) {
-                // Set the left pixel of the right pixel to the left pixel of the current pixel
-                right.setLeft(left);
+    private void removeVerticalSeamFromStore(int[] columns) {
+        store.removeVerticalSeam(columns);
+        if (tableCriterion != null && version == tableVersion) {
+            // The cells marked dirty by the removal are exactly those whose energy changes
+            if (changedFrom.length < store.getHeight()) {
+                changedFrom = new int[store.getHeight()];
+                changedTo = new int[store.getHeight()];
             }
-            // If the current pixel is the first pixel in its column
-            if (pixel == firstColumn.get(pixel.getY())) {
-                // Set the first pixel in the column to the right pixel of the current pixel
-                firstColumn.set(pixel.getY(), right);
+            store.copyDirtyRanges(changedFrom, changedTo);
+            removedSinceTable = columns;
+        }
+        version++;
+    }
+
+    /**
+     * Inserts a given seam into the image.
+     * The seam must be the last removed seam. Each pixel is put back in the place it was
+     * removed from, with its initial color.
+     *
+     * @param seam an ArrayList of Pixel objects representing the seam to be inserted.
+     */
+    public void insertSeam(ArrayList<Pixel> seam) {
+        long start = CarvingMetrics.start();
+        CarvingEvent event = CarvingMetrics.begin();
+        // Remove the last seam from the history, with where it was removed from
+        SeamHistory.Entry removed = popHistory();
+        version++;
+        int[] positions = removed.getPositions();
+        int[] colors = removed.getColors();
+        // Insert the seam into the store
+        if (removed.isHorizontal()) {
+            store.insertHorizontalSeam(positions, removed.getPhysicalIndexes());
+        } else {
+            store.insertVerticalSeam(positions, removed.getPhysicalIndexes());
+        }
+        // Set the color of each pixel of the seam back to its initial color
+        for (int i = 0; i < positions.length; i++) {
+            int x = removed.isHorizontal() ? i : positions[i];
+            int y = removed.isHorizontal() ? positions[i] : i;
+            store.setColor(x, y, colors[i]);
+        }
+        // Reset the colors of the views of the seam as well
+        for (Pixel pixel : seam) {
+            pixel.setColor(pixel.getInitialColor());
+        }
+        recordTime(CarvingMetrics.Operation.INSERT_SEAM, start, event);
+    }
+
+    /**
+     * Removes the last seam from the history.
+     *
+     * @return The last removed seam.
+     * @throws IllegalStateException If there is no removed seam left to undo.
+     */
+    private SeamHistory.Entry popHistory() {
+        try {
+            SeamHistory.Entry removed = history.pop();
+            if (removed == null) {
+                throw new IllegalStateException("There is no removed seam to insert");
             }
+            return removed;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read the undo history", e);
         }
     }
 
     /**
      * Returns the last seam that was removed from the image.
      *
-     * @return an ArrayList of Pixel objects representing the last seam that was removed. 
+     * @return an ArrayList of Pixel objects representing the last seam that was removed.
      *         If no seams have been removed, this method returns null.
      */
     public ArrayList<Pixel> getLastRemovedSeam() {
-        // Check if the removedSeams list is empty
-        if (removedSeams.isEmpty()) {
-            // If it is, return null
+        SeamHistory.Entry removed;
+        try {
+            removed = history.peek();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read the undo history", e);
+        }
+        // Check if there is a removed seam left to undo
+        if (removed == null) {
+            // If there is not, return null
             return null;
         }
-        // Otherwise, return the last seam that was removed from the image
-        return removedSeams.getLast();
+        // Otherwise, create views of the pixels of the last seam that was removed from the image
+        int stride = store.getStride();
+        ArrayList<Pixel> seam = new ArrayList<>(removed.getPositions().length);
+        for (int i = 0; i < removed.getPositions().length; i++) {
+            int physicalIndex = removed.getPhysicalIndexes()[i];
+            seam.add(new Pixel(physicalIndex % stride, physicalIndex / stride, new Color(removed.getColors()[i])));
+        }
+        return seam;
     }
 
     /**
-     * Updates the values of brightness, energy, and blueness for each pixel in the image.
-     * It first calculates the brightness of each pixel using the imageCalculateBrightness method,
-     * then calculates the energy of each pixel using the imageCalculateEnergy method,
-     * and finally calculates the blueness of each pixel using the imageCalculateBluenesses method.
+     * Updates the values of brightness and energy for the pixels that changed since the last update.
+     * The brightness of a pixel is updated as soon as its color changes. Removing or inserting a seam,
+     * or changing a color, marks the neighbors whose energy changed as dirty, and only those are
+     * recalculated here. The blueness of a pixel is read directly from its packed color, so it needs no update.
      */
     public void updateValues() {
-        // Calculate the brightness of each pixel in the image
-        imageCalculateBrightness();
-        // Calculate the energy of each pixel in the image
-        imageCalculateEnergy();
-        // Calculate the blueness of each pixel in the image
-        imageCalculateBluenesses();
+        long start = CarvingMetrics.start();
+        CarvingEvent event = CarvingMetrics.begin();
+        // Calculate the energy of the dirty pixels in the image
+        store.updateEnergy();
+        recordTime(CarvingMetrics.Operation.ENERGY_UPDATE, start, event);
     }
 
     /**
-     * UTILITY FUNCTIONS
-     * THESE FUNCTIONS ARE USED TO HELP IMPLEMENT AND BUG FIX THE MAIN FUNCTIONS
-     * 
-     * 
+     * Updates the values of brightness and energy for every pixel in the image.
+     * The brightness and energy are calculated in one pass, split across threads for large images.
+     * This gives the same values as updateValues, and is kept as a full recalculation fallback.
      */
+    public void updateAllValues() {
+        long start = CarvingMetrics.start();
+        CarvingEvent event = CarvingMetrics.begin();
+        // Calculate the brightness and energy of each pixel in the image
+        store.calculateValues(parallelism);
+        recordTime(CarvingMetrics.Operation.VALUES, start, event);
+    }
 
     /**
-     * Returns the index of the largest value in the given array.
-     *
-     * This function iterates over the array, keeping track of the maximum value
-     * found so far and its index.
-     * If it finds a value that is larger than the current maximum, it updates the
-     * maximum and its index.
-     * After iterating over the entire array, it returns the index of the maximum
-     * value.
+     * Records that an operation on the image is done, with the size the image has now.
      *
-     * @param array the array to search
-     * @return the index of the largest value in the array
+     * @param operation The operation.
+     * @param start The time the operation started at, as returned by CarvingMetrics.start.
+     * @param event The event of the operation, as returned by CarvingMetrics.begin, or null for none.
      */
-    private static int indexOfLargest(int[] array) {
-        // Initialize the index of the maximum value to 0
-        int maxIndex = 0;
-        // Loop over each element in the array starting from the second element
-        for (int i = 1; i < array.length; i++) {
-            // If the current element is greater than the maximum value
-            if (array[i] > array[maxIndex]) {
-                // Update the index of the maximum value to the current index
-                maxIndex = i;
-            }
-        }
-        // Return the index of the maximum value
-        return maxIndex;
-    }
-
-    /**
-     * Returns the index of the smallest value in the given array.
-     *
-     * This function iterates over the array, keeping track of the minimum value
-     * found so far and its index.
-     * If it finds a value that is smaller than or equal to the current minimum, it
-     * updates the minimum and its index.
-     * After iterating over the entire array, it returns the index of the minimum
-     * value.
-     *
-     * If the array is empty, it returns -1.
-     *
-     * @param array the array to search
-     * @return the index of the smallest value in the array, or -1 if the array is
-     *         empty
-     */
-    private static int indexOfSmallest(int[] array) {
-        // Check if the array is empty
-        if (array.length == 0)
-            // If it is, return -1
-            return -1;
-        // Initialize the index of the minimum value to 0
-        int index = 0;
-        // Initialize the minimum value to the first element in the array
-        int min = array[index];
-        // Loop over each element in the array starting from the second element
-        for (int i = 1; i < array.length; i++) {
-            // If the current element is less than or equal to the minimum value
-            if (array[i] <= min) {
-                // Update the minimum value to the current element
-                min = array[i];
-                // Update the index of the minimum value to the current index
-                index = i;
-            }
-        }
-        // Return the index of the minimum value
-        return index;
+    private void recordTime(CarvingMetrics.Operation operation, long start, CarvingEvent event) {
+        CarvingMetrics.record(operation, start, event, store.getWidth(), store.getHeight());
     }
 
+    /**
+     * UTILITY FUNCTIONS
+     * THESE FUNCTIONS ARE USED TO HELP IMPLEMENT AND BUG FIX THE MAIN FUNCTIONS
+     * 
+     * 
+     */
+
     /**
      * Prints the elements of the given array.
      *
@@ -776,4 +1455,4 @@ public class Image {
         // Print a newline
         System.out.println();
     }
-}
\ No newline at end of file
+}
@@ -1,5 +1,6 @@
 package uk.ac.nulondon;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Scanner;
 import java.awt.Color;
@@ -17,10 +18,16 @@ public class ImageEditor {
     private Image image;
 
     /**
-     * The currently highlighted seam in the image.
-     * This is an array of integers representing the x-coordinates of the pixels in the seam.
+     * The criterion of the currently highlighted seam in the image, or null if no seam is highlighted.
+     * The image caches the seam it found for each criterion until it is edited, so the seam is
+     * only searched for once however often it is highlighted or deleted.
      */
-    private ArrayList<Pixel> highlightedSeam;
+    private SeamCriterion highlightedSeam;
+
+    /**
+     * The color the highlighted seam is drawn in on the exported previews.
+     */
+    private Color highlightColor;
 
     /**
      * The last seam that was removed from the image.
@@ -28,6 +35,11 @@ public class ImageEditor {
      */
     private ArrayList<Pixel> lastRemovedSeam;
 
+    /**
+     * The writer that exports the image in the background, so that commands never wait for a PNG to be written.
+     */
+    private final AsyncImageWriter writer = new AsyncImageWriter();
+
     /**
      * Constructor for the ImageEditor class.
      *
@@ -41,25 +53,39 @@ public class ImageEditor {
     /**
      * Undoes the highlighting of a seam in the image.
      *
-     * This method removes the currently highlighted seam from the image, 
-     * retrieves the last removed seam from the image, 
-     * and then inserts this last removed seam back into the image. 
-     * It then sets the currently highlighted seam to null. 
-     * If there is a last removed seam in the image, it sets the last removed seam to null.
+     * The highlight is only drawn on the exported previews, never on the image itself,
+     * so cancelling it leaves the image, and the seams cached for it, untouched.
      */
     public void undoHighlightedSeam() {
-        // Remove the currently highlighted seam from the image
-        image.removeSeam(highlightedSeam);
-        // Retrieve the last removed seam from the image
-        lastRemovedSeam = image.getLastRemovedSeam();
-        // Insert the last removed seam back into the image
-        image.insertSeam(lastRemovedSeam);
         // Set the currently highlighted seam to null
         highlightedSeam = null;
-        // If there is a last removed seam in the image, set the last removed seam to null
-        lastRemovedSeam = image.getLastRemovedSeam() == null ? null : image.getLastRemovedSeam();
-        // Update the values of the image
-        image.updateValues();
+        highlightColor = null;
+    }
+
+    /**
+     * Highlights the seam chosen by the given criterion.
+     * The seam is found (or taken from the image's cache) straight away, so that it can be deleted.
+     *
+     * @param criterion The criterion that chooses the seam.
+     * @param color The color to draw the seam in.
+     */
+    private void highlight(SeamCriterion criterion, Color color) {
+        image.findVerticalSeam(criterion);
+        highlightedSeam = criterion;
+        highlightColor = color;
+    }
+
+    /**
+     * Hands a snapshot of the image to the background writer as a preview, with the highlighted seam
+     * drawn on top of it.
+     * If the writer is still busy with an earlier preview, the earlier one may be skipped.
+     *
+     * @param name The name of the output image, without the extension.
+     */
+    private void exportPreview(String name) {
+        ImageSnapshot snapshot = highlightedSeam == null ? image.snapshot()
+                : image.snapshot(highlightedSeam, highlightColor);
+        writer.writePreview(image.exportFile(name), snapshot);
     }
 
     /**
@@ -74,8 +100,8 @@ public class ImageEditor {
      * - 'u': Undo the last seam deletion.
      * - 'q': Quit the editor and save the current state of the image.
      *
-     * After each command, the method updates the image values, prints the image to the console,
-     * and exports the image to a temporary file.
+     * After each command, the method updates the image values and exports the image to a temporary file.
+     * The files are written by a background writer; on quit, the editor waits until they are written.
      */
     public void startEditor() {
         // Create a new Scanner object for reading user input
@@ -87,7 +113,7 @@ public class ImageEditor {
 
         // Start an infinite loop for the command-line interface
         while (true) {
-            // Update the energy and blueness values of the pixels in the image
+            // Update the energy of the pixels that changed since the last command
             image.updateValues();
             // Print a separator line
             System.out.println("---------------------------------");
@@ -105,30 +131,20 @@ public class ImageEditor {
             // Process the user's command
             switch (input) {
                 case "b":
-                    // If there is a currently highlighted seam, undo the highlighting
-                    if (highlightedSeam != null) {
-                        undoHighlightedSeam();
-                    }
-                    // Find the bluest seam in the image and highlight it
-                    highlightedSeam = image.findBluestSeam();
-                    image.highlightSeam(highlightedSeam, Color.BLUE);
-                    // Export the image to a temporary file
-                    image.exportImage("tempIMG_" + tempImgCount);
+                    // Find the bluest seam in the image and highlight it, replacing any other highlight
+                    highlight(SeamCriterion.BLUEST, Color.BLUE);
+                    // Export the image to a temporary file in the background
+                    exportPreview("tempIMG_" + tempImgCount);
                     // Increment the counter for the temporary images
                     tempImgCount++;
                     // Print a message to the console
                     System.out.println("Bluest seam found. Press 'd' to delete the seam. Press anything else to cancel.");
                     break;
                 case "e":
-                    // If there is a currently highlighted seam, undo the highlighting
-                    if (highlightedSeam != null) {
-                        undoHighlightedSeam();
-                    }
-                    // Find the seam with the lowest energy in the image and highlight it
-                    highlightedSeam = image.findLowestEnergySeam();
-                    image.highlightSeam(highlightedSeam, Color.RED);
-                    // Export the image to a temporary file
-                    image.exportImage("tempIMG_" + tempImgCount);
+                    // Find the lowest energy seam in the image and highlight it, replacing any other highlight
+                    highlight(SeamCriterion.LOWEST_ENERGY, Color.RED);
+                    // Export the image to a temporary file in the background
+                    exportPreview("tempIMG_" + tempImgCount);
                     // Increment the counter for the temporary images
                     tempImgCount++;
                     // Print a message to the console
@@ -137,11 +153,11 @@ public class ImageEditor {
                 case "d":
                     // If there is a currently highlighted seam, delete it
                     if (highlightedSeam != null) {
-                        image.removeSeam(highlightedSeam);
+                        image.removeVerticalSeam(highlightedSeam);
                         lastRemovedSeam = image.getLastRemovedSeam();
-                        highlightedSeam = null;
-                        // Export the image to a temporary file
-                        image.exportImage("tempIMG_" + tempImgCount);
+                        undoHighlightedSeam();
+                        // Export the image to a temporary file in the background
+                        exportPreview("tempIMG_" + tempImgCount);
                         // Increment the counter for the temporary images
                         tempImgCount++;
                     } else {
@@ -159,8 +175,8 @@ public class ImageEditor {
 //                        image.printSeam(lastRemovedSeam);
                         image.insertSeam(lastRemovedSeam);
                         lastRemovedSeam = image.getLastRemovedSeam() == null ? null : image.getLastRemovedSeam();
-                        // Export the image to a temporary file
-                        image.exportImage("tempIMG_" + tempImgCount);
+                        // Export the image to a temporary file in the background
+                        exportPreview("tempIMG_" + tempImgCount);
                         // Increment the counter for the temporary images
                         tempImgCount++;
                     } else {
@@ -173,8 +189,16 @@ public class ImageEditor {
                     if (highlightedSeam != null) {
                         undoHighlightedSeam();
                     }
-                    // Export the image to a new file
-                    image.exportImage("newImg");
+                    // Export the image to a new file, then wait for every export to be written
+                    writer.writeDurably(image.exportFile("newImg"), image.snapshot());
+                    writer.close();
+                    System.out.println(writer.getSummary());
+                    // Release the store, which deletes its files if the image was too large for the heap
+                    try {
+                        image.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
                     // Close the Scanner object
                     scanner.close();
                     // Exit the method
@@ -184,8 +208,8 @@ public class ImageEditor {
                     if (highlightedSeam != null) {
                         undoHighlightedSeam();
                         System.out.println("Cancelled seam selection");
-                        // Export the image to a temporary file
-                        image.exportImage("tempIMG_" + tempImgCount);
+                        // Export the image to a temporary file in the background
+                        exportPreview("tempIMG_" + tempImgCount);
                         // Increment the counter for the temporary images
                         tempImgCount++;
                     }
@@ -0,0 +1,66 @@
+package uk.ac.nulondon;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * The ImageSnapshot class holds a copy of the colors of an image at one point in time.
+ * It never changes once it has been taken, so it can be handed to another thread while the
+ * image it was taken from keeps being edited.
+ */
+public class ImageSnapshot {
+    /**
+     * The width of the image.
+     */
+    private final int width;
+
+    /**
+     * The height of the image.
+     */
+    private final int height;
+
+    /**
+     * The packed ARGB color of every pixel, row by row.
+     */
+    private final int[] argb;
+
+    /**
+     * Constructs a new ImageSnapshot.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param argb The packed ARGB color of every pixel, row by row. The array must not be changed afterwards.
+     */
+    public ImageSnapshot(int width, int height, int[] argb) {
+        this.width = width;
+        this.height = height;
+        this.argb = argb;
+    }
+
+    /**
+     * Returns the width of the image.
+     *
+     * @return The width of the image.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the image.
+     *
+     * @return The height of the image.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the snapshot as a BufferedImage of type TYPE_INT_RGB, ready to be written.
+     * The image shares the colors of the snapshot, so nothing is copied.
+     *
+     * @return The BufferedImage.
+     */
+    public BufferedImage toBufferedImage() {
+        return RasterIO.wrapRgb(width, height, argb);
+    }
+}
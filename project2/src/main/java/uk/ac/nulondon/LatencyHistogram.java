@@ -0,0 +1,193 @@
+package uk.ac.nulondon;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The LatencyHistogram class counts how long an operation took, in buckets whose width grows with the time,
+ * so that it can record from many threads at the cost of a few atomic additions and still give percentiles.
+ *
+ * Each power of two of nanoseconds is split into eight buckets of the same width, so a bucket is at most
+ * an eighth as wide as the times it holds, and a percentile read from the upper end of its bucket is at
+ * most 12.5% above the exact one. Times below eight nanoseconds have a bucket each. The buckets cover every
+ * long, so the histogram never has to grow, and it takes up a few kilobytes whatever it records.
+ */
+public final class LatencyHistogram implements LatencyHistogramMXBean {
+    /**
+     * The number of bits of each time, below its highest one, that choose its bucket within its power of two.
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /**
+     * The number of buckets each power of two is split into.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The number of buckets: one for each time below SUB_BUCKETS, then SUB_BUCKETS for each higher power of two.
+     */
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    /**
+     * The percentile of the median.
+     */
+    private static final double MEDIAN = 50;
+
+    /**
+     * The percentile read by getP90Nanos.
+     */
+    private static final double P90 = 90;
+
+    /**
+     * The percentile read by getP99Nanos.
+     */
+    private static final double P99 = 99;
+
+    /**
+     * The number of percent in a whole.
+     */
+    private static final double PERCENT = 100;
+
+    /**
+     * The number of times recorded in each bucket.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    /**
+     * The number of times recorded.
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * The sum of the times recorded, in nanoseconds.
+     */
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    /**
+     * The longest time recorded, in nanoseconds.
+     */
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records a time the operation took.
+     *
+     * @param nanos The time, in nanoseconds. A negative time, which a clock stepping back can give, counts as 0.
+     */
+    public void record(long nanos) {
+        long time = Math.max(nanos, 0);
+        buckets.incrementAndGet(bucketOf(time));
+        count.incrementAndGet();
+        totalNanos.addAndGet(time);
+        maxNanos.accumulateAndGet(time, Math::max);
+    }
+
+    /**
+     * Returns the bucket a time is counted in.
+     *
+     * @param nanos The time, in nanoseconds, not negative.
+     * @return The index of the bucket.
+     */
+    private static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        // The highest bit chooses the power of two, and the bits below it the bucket within it
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the longest time counted in a bucket.
+     *
+     * @param bucket The index of the bucket.
+     * @return The time, in nanoseconds.
+     */
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * Returns the time the operation took the given percentage of the time or less, rounded up to the
+     * upper end of its bucket and never above the longest time recorded.
+     * Times recorded while this runs may or may not be counted.
+     *
+     * @param percentile The percentage, between 0 and 100.
+     * @return The time, in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        // Find the bucket holding the time of that rank
+        long rank = Math.max(1, (long) Math.ceil(percentile / PERCENT * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    @Override
+    public double getMeanNanos() {
+        long recorded = count.get();
+        return recorded == 0 ? 0 : (double) totalNanos.get() / recorded;
+    }
+
+    @Override
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    @Override
+    public long getMedianNanos() {
+        return getPercentileNanos(MEDIAN);
+    }
+
+    @Override
+    public long getP90Nanos() {
+        return getPercentileNanos(P90);
+    }
+
+    @Override
+    public long getP99Nanos() {
+        return getPercentileNanos(P99);
+    }
+
+    /**
+     * Forgets every time recorded so far. Times recorded while this runs may be partly kept.
+     */
+    @Override
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+}
@@ -0,0 +1,61 @@
+package uk.ac.nulondon;
+
+/**
+ * The management interface of a LatencyHistogram, through which JMX clients such as JConsole or
+ * VisualVM read how often an operation ran and how long it took.
+ */
+public interface LatencyHistogramMXBean {
+    /**
+     * Returns the number of times the operation ran.
+     *
+     * @return The count.
+     */
+    long getCount();
+
+    /**
+     * Returns the total time the operation took.
+     *
+     * @return The time, in nanoseconds.
+     */
+    long getTotalNanos();
+
+    /**
+     * Returns the average time the operation took.
+     *
+     * @return The time, in nanoseconds, or 0 if it never ran.
+     */
+    double getMeanNanos();
+
+    /**
+     * Returns the longest time the operation took.
+     *
+     * @return The time, in nanoseconds, or 0 if it never ran.
+     */
+    long getMaxNanos();
+
+    /**
+     * Returns the median time the operation took.
+     *
+     * @return The time, in nanoseconds, or 0 if it never ran.
+     */
+    long getMedianNanos();
+
+    /**
+     * Returns the time the operation took 90% of the time or less.
+     *
+     * @return The time, in nanoseconds, or 0 if it never ran.
+     */
+    long getP90Nanos();
+
+    /**
+     * Returns the time the operation took 99% of the time or less.
+     *
+     * @return The time, in nanoseconds, or 0 if it never ran.
+     */
+    long getP99Nanos();
+
+    /**
+     * Forgets every time recorded so far.
+     */
+    void reset();
+}
@@ -1,19 +1,136 @@
 package uk.ac.nulondon;
 
+import javax.management.JMException;
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Scanner;
 
 public class Main {
+    /**
+     * The number of nanoseconds in a millisecond.
+     */
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /**
+     * The number of bytes in a kilobyte.
+     */
+    private static final double BYTES_PER_KB = 1024;
+
+    /**
+     * The number of progress lines printed while carving.
+     */
+    private static final int PROGRESS_STEPS = 10;
+
+    /**
+     * The number of percent in a whole.
+     */
+    private static final double PERCENT = 100;
+
+    /**
+     * The position of the pyramid band among the command-line arguments.
+     */
+    private static final int PYRAMID_BAND_ARG = 5;
+
+    /**
+     * The position of the number of seams per pass among the command-line arguments.
+     */
+    private static final int SEAMS_PER_PASS_ARG = 6;
+
+    /**
+     * The first command-line argument of the batch mode.
+     */
+    private static final String BATCH_FLAG = "--batch";
+
+    /**
+     * The number of arguments of the batch mode, with the flag, before the optional ones.
+     */
+    private static final int BATCH_ARGS = 4;
+
+    /**
+     * The position of the number of workers among the command-line arguments of the batch mode.
+     */
+    private static final int WORKERS_ARG = 5;
+
+    /**
+     * The position of the number of decoding threads among the command-line arguments of the batch mode.
+     */
+    private static final int DECODERS_ARG = 6;
+
+    /**
+     * The position of the number of encoding threads among the command-line arguments of the batch mode.
+     */
+    private static final int ENCODERS_ARG = 7;
+
+    /**
+     * The first command-line argument of the server mode.
+     */
+    private static final String SERVE_FLAG = "--serve";
+
+    /**
+     * The port the server listens on unless another one is given.
+     */
+    private static final int DEFAULT_PORT = 8080;
+
+    /**
+     * The position of the number of images carved at the same time among the arguments of the server mode.
+     */
+    private static final int MAX_IN_FLIGHT_ARG = 2;
+
+    /**
+     * The system property naming the file the timings of the carving operations are written to at exit.
+     */
+    private static final String METRICS_PROPERTY = "carving.metrics";
+
     /**
      * The main entry point for the application.
      *
-     * This method handles any exceptions that may occur during the execution of the application.
-     * It creates a new Image object from the specified file, creates a new ImageEditor object with the created Image object,
-     * starts the image editor, and prints the image to the console.
+     * Without arguments, the application runs the interactive editor: it reads the path of an image
+     * from the console, creates a new Image object from the specified file, creates a new ImageEditor
+     * object with the created Image object and starts the image editor.
+     *
+     * With arguments, the application carves an image without any interaction:
+     * {@code <input> <output> <target width> [e|b|f] [threads] [band] [seams per pass]} removes lowest energy
+     * seams (e, the
+     * default), bluest seams (b) or lowest forward energy seams (f) from the input image until it has the
+     * target width, and writes the result to the output PNG file. The work is split across the given number
+     * of threads, or across the common pool if no number is given. With a band, lowest cost seams are
+     * searched for from coarse to fine within that many columns of the coarse seam, and a band of 0 searches
+     * exactly. With a number of seams per pass, each seam search removes up to that many seams at once.
+     *
+     * With {@code --batch <input directory or glob> <output directory> <target> [e|b|f] [workers] [decoders]
+     * [encoders]}, the application carves every image of the input directory (or every file matching the
+     * glob, such as {@code photos/*.jpg}) to the target size, such as 800, 800x600 or 75%, on the given
+     * number of workers (one per core by default), and writes them as PNG files to the output directory.
+     * The images are decoded and written on their own threads, two of each by default.
+     *
+     * With {@code --serve [port] [images at a time]}, the application runs a CarvingServer on the loopback
+     * address (port 8080 by default), carving up to the given number of images at the same time (one per
+     * core by default), until it is stopped.
+     *
+     * In every mode, the timings of the carving operations can be read over JMX while the application runs,
+     * and with {@code -Dcarving.metrics=<file>} they are written to that file as JSON when it exits.
+     *
      * If any exceptions occur during this process, it catches them and prints the stack trace.
      *
-     * @param args The command-line arguments. This parameter is not used in this method.
+     * @param args The command-line arguments, empty for the interactive editor.
      */
     public static void main(String[] args) {
+        publishMetrics();
+        if (args.length > 0 && args[0].equals(BATCH_FLAG)) {
+            batch(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals(SERVE_FLAG)) {
+            serve(args);
+            return;
+        }
+        if (args.length > 0) {
+            carve(args);
+            return;
+        }
         // Use a try-catch block to handle any exceptions that may occur
         try {
             // Create a new Scanner object for reading input
@@ -22,12 +139,13 @@ public class Main {
             System.out.println("Enter the path of the image you would like to edit: ");
             // Read the image path from the user
             String path = scanner.nextLine();
-            // Create a new Image object with the provided path
-            Image image = new Image(path);
-            // Create a new ImageEditor object with the created Image object
-            ImageEditor imageEditor = new ImageEditor(image);
-            // Start the image editor
-            imageEditor.startEditor();
+            // Create a new Image object with the provided path, closed even if the editor fails
+            try (Image image = new Image(path)) {
+                // Create a new ImageEditor object with the created Image object
+                ImageEditor imageEditor = new ImageEditor(image);
+                // Start the image editor
+                imageEditor.startEditor();
+            }
             // Close the scanner
             scanner.close();
 
@@ -36,4 +154,185 @@ public class Main {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Registers the timings of the carving operations over JMX, and writes them to the file named by the
+     * carving.metrics system property at exit, if it is set.
+     */
+    private static void publishMetrics() {
+        try {
+            CarvingMetrics.registerMBeans();
+        // The timings are still recorded and written without JMX
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        String metricsFile = System.getProperty(METRICS_PROPERTY);
+        if (metricsFile != null && !metricsFile.isEmpty()) {
+            CarvingMetrics.writeJsonOnExit(Path.of(metricsFile));
+        }
+    }
+
+    /**
+     * Carves an image to a target width without any interaction.
+     * Progress is printed every tenth of the way, followed by the time spent loading, carving and writing.
+     *
+     * @param args The input path, the output path, the target width, and optionally the seam criterion
+     *             the number of threads, the pyramid band and the number of seams per pass.
+     */
+    private static void carve(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: <input> <output> <target width> [e|b|f] [threads] [band] [seams per pass]");
+            return;
+        }
+        // The threads given on the command line, shut down once the image is written
+        Parallelism threads = Parallelism.common();
+        try {
+            // Read the arguments
+            int targetWidth = Integer.parseInt(args[2]);
+            SeamCriterion criterion = args.length > 3 ? SeamCriterion.parse(args[3]) : SeamCriterion.LOWEST_ENERGY;
+            // Load the image, closed once written so a store in memory-mapped files deletes them
+            long start = System.nanoTime();
+            try (Image image = new Image(args[0])) {
+                if (args.length > 4) {
+                    // One pool serves both the values of the pixels and the seam search
+                    threads = new Parallelism(Integer.parseInt(args[4]), Parallelism.DEFAULT_THRESHOLD);
+                    image.setParallelism(threads);
+                    image.setSeamParallelism(threads.withThreshold(SeamFinder.DEFAULT_ROW_THRESHOLD));
+                }
+                if (args.length > PYRAMID_BAND_ARG) {
+                    image.setPyramidBand(Integer.parseInt(args[PYRAMID_BAND_ARG]));
+                }
+                if (args.length > SEAMS_PER_PASS_ARG) {
+                    image.setSeamsPerPass(Integer.parseInt(args[SEAMS_PER_PASS_ARG]));
+                }
+                int loadedWidth = image.getWidth();
+                long loaded = System.nanoTime();
+                long allocatedBefore = ScratchArena.threadAllocatedBytes();
+                // Carve the image, printing the progress every tenth of the way
+                double[] computed = {0};
+                image.carveToWidth(targetWidth, criterion, (removed, total, elapsedNanos) -> {
+                    computed[0] += image.getLastSeamComputedFraction();
+                    if (removed == total || removed % Math.max(total / PROGRESS_STEPS, 1) == 0) {
+                        double elapsedMillis = elapsedNanos / NANOS_PER_MILLI;
+                        System.out.printf("%d/%d seams removed (%.1f ms)%n", removed, total, elapsedMillis);
+                    }
+                });
+                long carved = System.nanoTime();
+                long allocated = ScratchArena.threadAllocatedBytes() - allocatedBefore;
+                // Write the carved image
+                image.writeImage(new File(args[1]));
+                long written = System.nanoTime();
+                // Print where the time went
+                System.out.printf("Load %.1f ms, carve %.1f ms, write %.1f ms%n", (loaded - start) / NANOS_PER_MILLI,
+                        (carved - loaded) / NANOS_PER_MILLI, (written - carved) / NANOS_PER_MILLI);
+                // Print how much of the seam search each seam needed on average
+                int seams = Math.max(loadedWidth - targetWidth, 1);
+                System.out.printf("Seam search recomputed %.1f%% of the cells per seam on average%n",
+                        PERCENT * computed[0] / seams);
+                // Print how much this thread allocated per seam, most of which is the undo history
+                if (allocatedBefore >= 0) {
+                    System.out.printf("Carving allocated %.1f KB per seam on this thread%n",
+                            allocated / BYTES_PER_KB / seams);
+                }
+            }
+        // Catch any exceptions that occur and print the stack trace
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            threads.close();
+        }
+    }
+
+    /**
+     * Carves every image of a directory to a target size on a pool of workers.
+     * A line is printed as each image is done, followed by the throughput of the whole batch and the
+     * metrics of each stage. The images being processed are kept within half of the heap.
+     *
+     * @param args The batch flag, the input directory or glob, the output directory, the target size, and
+     *             optionally the seam criterion and the numbers of workers, decoders and encoders.
+     */
+    private static void batch(String[] args) {
+        if (args.length < BATCH_ARGS) {
+            System.out.println("Usage: --batch <input directory or glob> <output directory> <target> "
+                    + "[e|b|f] [workers] [decoders] [encoders]");
+            return;
+        }
+        try {
+            // Read the arguments
+            List<Path> inputs = BatchCarver.listInputs(args[1]);
+            SeamCriterion criterion = args.length > BATCH_ARGS ? SeamCriterion.parse(args[BATCH_ARGS])
+                    : SeamCriterion.LOWEST_ENERGY;
+            int workers = args.length > WORKERS_ARG ? Integer.parseInt(args[WORKERS_ARG])
+                    : Runtime.getRuntime().availableProcessors();
+            BatchCarver carver = new BatchCarver(Path.of(args[2]), args[3], criterion, workers,
+                    Runtime.getRuntime().maxMemory() / 2);
+            if (args.length > DECODERS_ARG) {
+                carver.setDecoders(Integer.parseInt(args[DECODERS_ARG]));
+            }
+            if (args.length > ENCODERS_ARG) {
+                carver.setEncoders(Integer.parseInt(args[ENCODERS_ARG]));
+            }
+            System.out.printf("Carving %d images on %d workers%n", inputs.size(), workers);
+            // Carve the images, printing a line as each one is done
+            BatchCarver.Summary summary = carver.run(inputs, result -> {
+                if (result.getError() != null) {
+                    System.out.printf("%s: failed: %s%n", result.getInput().getFileName(), result.getError());
+                } else {
+                    System.out.printf("%s: %dx%d -> %dx%d, waited %.1f ms, decode %.1f ms, queued %.1f ms, "
+                                    + "carve %.1f ms (%.1f KB/seam), queued %.1f ms, write %.1f ms%n",
+                            result.getInput().getFileName(), result.getWidth(), result.getHeight(),
+                            result.getCarvedWidth(), result.getCarvedHeight(),
+                            result.getMemoryWaitNanos() / NANOS_PER_MILLI, result.getDecodeNanos() / NANOS_PER_MILLI,
+                            result.getWorkerWaitNanos() / NANOS_PER_MILLI, result.getCarveNanos() / NANOS_PER_MILLI,
+                            result.getCarveAllocatedBytes() / BYTES_PER_KB / Math.max(result.getSeams(), 1),
+                            result.getEncodeWaitNanos() / NANOS_PER_MILLI, result.getWriteNanos() / NANOS_PER_MILLI);
+                }
+            });
+            // Print the throughput of the whole batch
+            System.out.printf("%d carved, %d failed in %.1f ms: %.2f images/s, %.2f megapixels/s, %.1f seams/s%n",
+                    summary.getSucceeded(), summary.getFailed(), summary.getWallNanos() / NANOS_PER_MILLI,
+                    summary.getImagesPerSecond(), summary.getMegapixelsPerSecond(), summary.getSeamsPerSecond());
+            // Print the metrics of each stage: the bottleneck is busy with a full queue
+            for (PipelineStage<?> stage : summary.getStages()) {
+                System.out.printf("%-6s %2d threads: %.0f%% busy, %.1f ms blocked, queue %.1f on average, "
+                                + "%d at most of %d%n", stage.getName(), stage.getWorkers(),
+                        PERCENT * stage.getUtilization(summary.getWallNanos()),
+                        stage.getBlockedNanos() / NANOS_PER_MILLI, stage.getAverageQueueDepth(),
+                        stage.getMaxQueueDepth(), stage.getCapacity());
+            }
+        // Catch any exceptions that occur and print the stack trace
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs a CarvingServer on the loopback address until the process is stopped, and prints its request
+     * counts and latencies when it is.
+     *
+     * @param args The server flag, and optionally the port and the number of images carved at the same time.
+     */
+    private static void serve(String[] args) {
+        try {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+            int maxInFlight = args.length > MAX_IN_FLIGHT_ARG ? Integer.parseInt(args[MAX_IN_FLIGHT_ARG])
+                    : Runtime.getRuntime().availableProcessors();
+            CarvingServer server = new CarvingServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                    maxInFlight);
+            // Print what the server did once the process is stopped
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.close();
+                System.out.printf("%d carved, %d failed, %d turned away: p50 %.1f ms, p99 %.1f ms%n",
+                        server.getCompleted(), server.getFailed(), server.getRejected(),
+                        server.getLatencyPercentile(PERCENT / 2) / NANOS_PER_MILLI,
+                        server.getLatencyPercentile(PERCENT - 1) / NANOS_PER_MILLI);
+            }));
+            server.start();
+            System.out.printf("Carving up to %d images at a time at http://localhost:%d%s?width=W&height=H%n",
+                    maxInFlight, server.getPort(), CarvingServer.CARVE_PATH);
+        // Catch any exceptions that occur and print the stack trace
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 }
@@ -0,0 +1,191 @@
+package uk.ac.nulondon;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The MappedPixelStore class keeps the pixels of an image in memory-mapped files, so images larger
+ * than the Java heap can still be carved.
+ *
+ * Each of the four arrays (colors, brightness, energy and index) is a file in a temporary directory,
+ * mapped in chunks of 1 GB. Only the pages that are being worked on need to be in memory; the
+ * operating system's page cache keeps the hot rows there and writes the cold ones back to disk.
+ * Removing a seam only shifts entries of the index, so the colors, brightness and energy of the
+ * pixels are never moved on disk.
+ *
+ * The files are scratch space: they are deleted when the store is closed.
+ */
+public final class MappedPixelStore extends PixelStore {
+    /**
+     * The base-2 logarithm of the size of a mapped chunk, in bytes.
+     */
+    private static final int CHUNK_SHIFT = 30;
+
+    /**
+     * The size of a mapped chunk, in bytes.
+     */
+    private static final long CHUNK_BYTES = 1L << CHUNK_SHIFT;
+
+    /**
+     * The mask of the offset of a byte within its chunk.
+     */
+    private static final long CHUNK_MASK = CHUNK_BYTES - 1;
+
+    /**
+     * The mask used to read an unsigned byte.
+     */
+    private static final int BYTE_MASK = 0xFF;
+
+    /**
+     * The base-2 logarithm of the size of an int, in bytes.
+     */
+    private static final int INT_SHIFT = 2;
+
+    /**
+     * The temporary directory holding the files.
+     */
+    private final Path directory;
+
+    /**
+     * The packed ARGB color of each pixel, by physical index.
+     */
+    private final MappedByteBuffer[] colors;
+
+    /**
+     * The brightness (0 to 255) of each pixel, by physical index.
+     */
+    private final MappedByteBuffer[] brightness;
+
+    /**
+     * The energy of each pixel, by physical index, as a short.
+     */
+    private final MappedByteBuffer[] energy;
+
+    /**
+     * The physical index of the pixel in each cell of the current image.
+     */
+    private final MappedByteBuffer[] index;
+
+    /**
+     * Constructs a new MappedPixelStore for an image of the specified size.
+     * Every pixel is initially black, and every cell points to the pixel with the same coordinates.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param parent The directory to create the temporary directory of the files in.
+     * @throws IOException If the files cannot be created or mapped.
+     * @throws IllegalArgumentException If the image has no pixels, or more than an int can index.
+     */
+    public MappedPixelStore(int width, int height, Path parent) throws IOException {
+        super(width, height);
+        this.directory = Files.createTempDirectory(parent, "pixels");
+        long pixels = pixelCount(width, height);
+        this.colors = map("colors", pixels * Integer.BYTES);
+        this.brightness = map("brightness", pixels);
+        this.energy = map("energy", pixels * Short.BYTES);
+        this.index = map("index", pixels * Integer.BYTES);
+        initIndex();
+    }
+
+    /**
+     * Creates a file of the given size in the temporary directory and maps it in chunks.
+     *
+     * @param name The name of the file.
+     * @param bytes The size of the file.
+     * @return The mapped chunks of the file, in order.
+     * @throws IOException If the file cannot be created or mapped.
+     */
+    private MappedByteBuffer[] map(String name, long bytes) throws IOException {
+        Path file = directory.resolve(name);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.SPARSE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer[] chunks = new MappedByteBuffer[(int) Math.max(1, (bytes + CHUNK_MASK) >>> CHUNK_SHIFT)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i << CHUNK_SHIFT;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(CHUNK_BYTES, bytes - start));
+                chunks[i].order(ByteOrder.nativeOrder());
+            }
+            // The mappings stay valid after the channel is closed
+            return chunks;
+        }
+    }
+
+    @Override
+    protected int readColor(int pixel) {
+        long offset = (long) pixel << INT_SHIFT;
+        return colors[(int) (offset >>> CHUNK_SHIFT)].getInt((int) (offset & CHUNK_MASK));
+    }
+
+    @Override
+    protected void writeColor(int pixel, int argb) {
+        long offset = (long) pixel << INT_SHIFT;
+        colors[(int) (offset >>> CHUNK_SHIFT)].putInt((int) (offset & CHUNK_MASK), argb);
+    }
+
+    @Override
+    protected int readBrightness(int pixel) {
+        return brightness[pixel >>> CHUNK_SHIFT].get((int) (pixel & CHUNK_MASK)) & BYTE_MASK;
+    }
+
+    @Override
+    protected void writeBrightness(int pixel, int value) {
+        brightness[pixel >>> CHUNK_SHIFT].put((int) (pixel & CHUNK_MASK), (byte) value);
+    }
+
+    @Override
+    protected int readEnergy(int pixel) {
+        long offset = (long) pixel << 1;
+        return energy[(int) (offset >>> CHUNK_SHIFT)].getShort((int) (offset & CHUNK_MASK));
+    }
+
+    @Override
+    protected void writeEnergy(int pixel, int value) {
+        long offset = (long) pixel << 1;
+        energy[(int) (offset >>> CHUNK_SHIFT)].putShort((int) (offset & CHUNK_MASK), (short) value);
+    }
+
+    @Override
+    protected int readIndex(int cell) {
+        long offset = (long) cell << INT_SHIFT;
+        return index[(int) (offset >>> CHUNK_SHIFT)].getInt((int) (offset & CHUNK_MASK));
+    }
+
+    @Override
+    protected void writeIndex(int cell, int pixel) {
+        long offset = (long) cell << INT_SHIFT;
+        index[(int) (offset >>> CHUNK_SHIFT)].putInt((int) (offset & CHUNK_MASK), pixel);
+    }
+
+    @Override
+    protected void moveIndex(int from, int to, int length) {
+        // Copy in the direction that does not overwrite entries before they are moved
+        if (to < from) {
+            for (int i = 0; i < length; i++) {
+                writeIndex(to + i, readIndex(from + i));
+            }
+        } else {
+            for (int i = length - 1; i >= 0; i--) {
+                writeIndex(to + i, readIndex(from + i));
+            }
+        }
+    }
+
+    /**
+     * Deletes the files of the store.
+     * The mappings themselves are released once they are garbage collected.
+     *
+     * @throws IOException If the files cannot be deleted.
+     */
+    @Override
+    public void close() throws IOException {
+        for (String name : new String[] {"colors", "brightness", "energy", "index"}) {
+            Files.deleteIfExists(directory.resolve(name));
+        }
+        Files.deleteIfExists(directory);
+    }
+}
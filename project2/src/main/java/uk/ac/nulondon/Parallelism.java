@@ -0,0 +1,259 @@
+package uk.ac.nulondon;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The Parallelism class decides whether work over an image is split across threads, and runs it.
+ *
+ * Work is described as a range of indexes (usually rows) that can be processed independently.
+ * The range is split into a few chunks per thread and run on a fork-join pool. Images with fewer
+ * pixels than a threshold are processed sequentially on the calling thread, since splitting them
+ * costs more than it saves.
+ *
+ * A Parallelism whose level is neither 1 nor that of the common pool starts a pool of its own,
+ * which close shuts down; one on the common pool, or sharing the pool of another, has nothing to close.
+ */
+public class Parallelism implements AutoCloseable {
+    /**
+     * The default number of pixels (512 x 512) below which work is done sequentially.
+     */
+    public static final int DEFAULT_THRESHOLD = 262_144;
+
+    /**
+     * The number of chunks each thread gets, so that uneven chunks still balance out.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * A Parallelism that always works sequentially on the calling thread.
+     */
+    public static final Parallelism SEQUENTIAL = new Parallelism(1, Integer.MAX_VALUE);
+
+    /**
+     * A Parallelism that uses the common fork-join pool for images of at least DEFAULT_THRESHOLD pixels.
+     */
+    private static final Parallelism COMMON =
+            new Parallelism(ForkJoinPool.getCommonPoolParallelism(), DEFAULT_THRESHOLD);
+
+    /**
+     * A range of indexes that can be processed independently of the rest.
+     */
+    @FunctionalInterface
+    public interface Range {
+        /**
+         * Processes the indexes from one index (inclusive) to another (exclusive).
+         *
+         * @param from The first index to process.
+         * @param to The index after the last index to process.
+         */
+        void run(int from, int to);
+    }
+
+    /**
+     * The number of threads the work is split across.
+     */
+    private final int level;
+
+    /**
+     * The number of pixels below which work is done sequentially.
+     */
+    private final long threshold;
+
+    /**
+     * The pool the work runs on, or null if the work is always sequential.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Whether the pool was started by this Parallelism, so close shuts it down.
+     */
+    private final boolean ownsPool;
+
+    /**
+     * Constructs a new Parallelism.
+     * A level equal to the parallelism of the common fork-join pool uses the common pool;
+     * any other level above 1 gets a pool of its own.
+     *
+     * @param level The number of threads to split the work across.
+     * @param threshold The number of pixels below which work is done sequentially.
+     */
+    public Parallelism(int level, long threshold) {
+        if (level < 1) {
+            throw new IllegalArgumentException("Parallelism level must be at least 1: " + level);
+        }
+        this.level = level;
+        this.threshold = threshold;
+        if (level == 1) {
+            this.pool = null;
+        } else if (level == ForkJoinPool.getCommonPoolParallelism()) {
+            this.pool = ForkJoinPool.commonPool();
+        } else {
+            this.pool = new ForkJoinPool(level);
+        }
+        this.ownsPool = pool != null && pool != ForkJoinPool.commonPool();
+    }
+
+    /**
+     * Constructs a new Parallelism on the pool of another, which keeps owning it.
+     *
+     * @param shared The Parallelism whose pool is used.
+     * @param threshold The number of pixels below which work is done sequentially.
+     */
+    private Parallelism(Parallelism shared, long threshold) {
+        this.level = shared.level;
+        this.threshold = threshold;
+        this.pool = shared.pool;
+        this.ownsPool = false;
+    }
+
+    /**
+     * Returns a Parallelism that uses the common fork-join pool for images of at least DEFAULT_THRESHOLD pixels.
+     *
+     * @return The default Parallelism.
+     */
+    public static Parallelism common() {
+        return COMMON;
+    }
+
+    /**
+     * Returns a Parallelism that uses the common fork-join pool for work of at least the given number of pixels.
+     *
+     * @param threshold The number of pixels below which work is done sequentially.
+     * @return A Parallelism on the common pool.
+     */
+    public static Parallelism common(long threshold) {
+        return new Parallelism(ForkJoinPool.getCommonPoolParallelism(), threshold);
+    }
+
+    /**
+     * Returns a Parallelism with the same threads as this one but another threshold, such as one for
+     * the seam search next to one for the values of the pixels. It shares the pool of this Parallelism,
+     * so it must not be used once this one is closed, and closing it does nothing.
+     *
+     * @param newThreshold The number of pixels below which work is done sequentially.
+     * @return A Parallelism on the same pool.
+     */
+    public Parallelism withThreshold(long newThreshold) {
+        return new Parallelism(this, newThreshold);
+    }
+
+    /**
+     * Shuts down the pool of this Parallelism if it started one, once the work already given to it is done.
+     */
+    @Override
+    public void close() {
+        if (ownsPool) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Returns the number of threads the work is split across.
+     *
+     * @return The parallelism level.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns whether work over the given number of pixels is split across threads.
+     *
+     * @param pixels The number of pixels the work covers.
+     * @return Whether the work runs in parallel.
+     */
+    public boolean isParallel(long pixels) {
+        return pool != null && pixels >= threshold;
+    }
+
+    /**
+     * Processes the indexes from 0 to length, in parallel if the work covers enough pixels.
+     * Returns once every index has been processed.
+     *
+     * @param length The number of indexes to process.
+     * @param pixels The number of pixels the work covers.
+     * @param body The work for a range of indexes.
+     */
+    public void forEach(int length, long pixels, Range body) {
+        forEach(length, pixels, 1, body);
+    }
+
+    /**
+     * Processes the indexes from 0 to length, in parallel if the work covers enough pixels.
+     * No chunk is made smaller than the given minimum, so cheap indexes are not split too finely.
+     * Returns once every index has been processed.
+     *
+     * @param length The number of indexes to process.
+     * @param pixels The number of pixels the work covers.
+     * @param minChunk The smallest number of indexes worth running as a separate task.
+     * @param body The work for a range of indexes.
+     */
+    public void forEach(int length, long pixels, int minChunk, Range body) {
+        if (!isParallel(pixels) || length < 2 * minChunk) {
+            body.run(0, length);
+            return;
+        }
+        // Split the range into a few chunks per thread
+        int chunk = Math.max(minChunk, length / (level * CHUNKS_PER_THREAD));
+        pool.invoke(new RangeTask(body, 0, length, chunk));
+    }
+
+    /**
+     * A fork-join task that splits a range of indexes in half until the halves are small enough.
+     */
+    private static final class RangeTask extends RecursiveAction {
+        /**
+         * The version of the serialized form, which tasks never use but RecursiveAction declares.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The work for a range of indexes.
+         */
+        private final transient Range body;
+
+        /**
+         * The first index of this task.
+         */
+        private final int from;
+
+        /**
+         * The index after the last index of this task.
+         */
+        private final int to;
+
+        /**
+         * The largest number of indexes processed without splitting.
+         */
+        private final int chunk;
+
+        /**
+         * Constructs a new RangeTask.
+         *
+         * @param body The work for a range of indexes.
+         * @param from The first index of this task.
+         * @param to The index after the last index of this task.
+         * @param chunk The largest number of indexes processed without splitting.
+         */
+        private RangeTask(Range body, int from, int to, int chunk) {
+            this.body = body;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        /**
+         * Processes the range, splitting it in half first if it is too large.
+         */
+        @Override
+        protected void compute() {
+            if (to - from <= chunk) {
+                body.run(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeTask(body, from, middle, chunk), new RangeTask(body, middle, to, chunk));
+        }
+    }
+}
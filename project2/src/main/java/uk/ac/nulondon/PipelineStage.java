@@ -0,0 +1,461 @@
+package uk.ac.nulondon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * The PipelineStage class is one stage of a pipeline: a bounded queue of items, worked on by a fixed
+ * number of threads, which hand each finished item on to the queue of the next stage.
+ *
+ * Because every queue is bounded, a slow stage fills up its queue and the stages before it block when
+ * they hand items on, so the number of items in flight stays bounded without any other coordination.
+ * Each stage measures how deep its queue gets, how long its threads were busy working, and how long
+ * they were blocked handing items on, which together show which stage is the bottleneck: it has a full
+ * queue and busy threads, while the stages before it are blocked and the stages after it are idle.
+ *
+ * If the work of any stage throws, the whole pipeline is aborted: the threads of every stage are
+ * interrupted, the items still queued are dropped, and the exception is kept by the stage it was thrown
+ * in, so the code that runs the pipeline can rethrow it once the stages have stopped. Every item dropped,
+ * whether queued or held by a thread of a stage, is handed to the drop handler of that stage, so the
+ * resources it holds can be released.
+ *
+ * @param <T> The type of the items.
+ */
+public class PipelineStage<T> {
+    /**
+     * The work a stage does on each item.
+     *
+     * @param <T> The type of the items.
+     */
+    @FunctionalInterface
+    public interface Work<T> {
+        /**
+         * Works on an item. The work must deal with its own failures, for example by marking the item
+         * as failed so that the next stages skip it; any exception or error thrown aborts the whole pipeline.
+         *
+         * @param item The item.
+         */
+        void process(T item);
+    }
+
+    /**
+     * The item put in a queue once per thread to tell the threads of the stage that no more items will come.
+     */
+    private static final Object END = new Object();
+
+    /**
+     * The name of the stage, which also names its threads.
+     */
+    private final String name;
+
+    /**
+     * The number of threads of the stage.
+     */
+    private final int workers;
+
+    /**
+     * The largest number of items waiting in the queue of the stage.
+     */
+    private final int capacity;
+
+    /**
+     * The items waiting for the stage, followed by one END per thread once no more will come.
+     */
+    private final BlockingQueue<Object> queue;
+
+    /**
+     * The work the stage does on each item.
+     */
+    private final Work<T> work;
+
+    /**
+     * The stage the finished items are handed on to, or null if this is the last stage.
+     */
+    private final PipelineStage<T> next;
+
+    /**
+     * The stage that hands its finished items on to this one, set once that stage starts, or null if
+     * this is the first stage.
+     */
+    private volatile PipelineStage<T> previous;
+
+    /**
+     * The threads of the stage.
+     */
+    private final List<Thread> threads = new ArrayList<>();
+
+    /**
+     * The number of threads of the stage that have not finished yet.
+     */
+    private final AtomicInteger running = new AtomicInteger();
+
+    /**
+     * The number of items handed to the stage that its threads have not taken yet, including those
+     * whose put is still waiting for room in the queue.
+     */
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * Whether the pipeline the stage belongs to was aborted.
+     */
+    private volatile boolean aborted;
+
+    /**
+     * The first exception or error thrown by the work of the stage, or null if there was none.
+     */
+    private volatile Throwable failure;
+
+    /**
+     * The handler given the items the stage drops when the pipeline is aborted, or null for none.
+     */
+    private volatile Consumer<? super T> dropHandler;
+
+    /**
+     * The number of items the stage has finished.
+     */
+    private final AtomicLong processed = new AtomicLong();
+
+    /**
+     * The total time the threads of the stage spent working on items, in nanoseconds.
+     */
+    private final AtomicLong busyNanos = new AtomicLong();
+
+    /**
+     * The total time the threads of the stage spent blocked handing items on to a full queue, in nanoseconds.
+     */
+    private final AtomicLong blockedNanos = new AtomicLong();
+
+    /**
+     * The number of items put in the queue of the stage.
+     */
+    private final AtomicLong arrivals = new AtomicLong();
+
+    /**
+     * The sum of the depth of the queue just after each item arrived, to average it.
+     */
+    private final AtomicLong depthSum = new AtomicLong();
+
+    /**
+     * The deepest the queue of the stage has been.
+     */
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    /**
+     * Constructs a new PipelineStage. Its threads are only started by start.
+     *
+     * @param name The name of the stage, which also names its threads.
+     * @param workers The number of threads of the stage, at least 1.
+     * @param capacity The largest number of items waiting in the queue of the stage, at least 1.
+     * @param work The work the stage does on each item.
+     * @param next The stage the finished items are handed on to, or null if this is the last stage.
+     */
+    public PipelineStage(String name, int workers, int capacity, Work<T> work, PipelineStage<T> next) {
+        if (workers < 1 || capacity < 1) {
+            throw new IllegalArgumentException("The " + name + " stage needs at least one thread and one place"
+                    + " in its queue, not " + workers + " and " + capacity);
+        }
+        this.name = name;
+        this.workers = workers;
+        this.capacity = capacity;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.work = work;
+        this.next = next;
+    }
+
+    /**
+     * Starts the threads of the stage. The stages of a pipeline are started before any item is put.
+     */
+    public void start() {
+        // Link the stages both ways, so an abort anywhere reaches the stages feeding this one too
+        if (next != null) {
+            next.previous = this;
+        }
+        running.set(workers);
+        for (int i = 0; i < workers; i++) {
+            Thread thread = new Thread(this::runWorker, name + "-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Hands an item to the stage, waiting while its queue is full.
+     *
+     * @param item The item.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     * @throws CancellationException If the pipeline was aborted.
+     */
+    public void put(T item) throws InterruptedException {
+        if (aborted) {
+            throw new CancellationException("The " + name + " stage was aborted");
+        }
+        // Count the item before handing it over, so a thread taking it at once cannot hide it
+        int depth = waiting.incrementAndGet();
+        arrivals.incrementAndGet();
+        depthSum.addAndGet(depth);
+        maxDepth.accumulateAndGet(depth, Math::max);
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            waiting.decrementAndGet();
+            throw e;
+        }
+        // An item that got in just after the queue was cleared by an abort is dropped as well
+        if (aborted) {
+            dropQueued();
+        }
+    }
+
+    /**
+     * Sets the handler given the items the stage drops when the pipeline is aborted: those in its queue,
+     * and the one each of its threads was working on or handing on. The handler runs on the thread that
+     * drops the item, and must not throw.
+     *
+     * @param handler The handler, or null for none.
+     */
+    public void setDropHandler(Consumer<? super T> handler) {
+        this.dropHandler = handler;
+    }
+
+    /**
+     * Tells the stage that no more items will come, waiting while its queue is full. Once its threads
+     * have finished the items already in its queue, the next stage is told as well.
+     *
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     * @throws CancellationException If the pipeline was aborted.
+     */
+    public void finish() throws InterruptedException {
+        for (int i = 0; i < workers; i++) {
+            // An aborted stage has no threads left to make room for the rest
+            if (aborted) {
+                throw new CancellationException("The " + name + " stage was aborted");
+            }
+            queue.put(END);
+        }
+    }
+
+    /**
+     * Waits until the threads of the stage have finished.
+     *
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public void join() throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Aborts the whole pipeline the stage belongs to, from its first stage to its last: the threads of
+     * every stage are interrupted and stop once their current item is done, the items still queued are
+     * dropped, and any later put throws a CancellationException. Aborting twice does nothing more.
+     */
+    public void abort() {
+        PipelineStage<T> first = this;
+        while (first.previous != null) {
+            first = first.previous;
+        }
+        for (PipelineStage<T> stage = first; stage != null; stage = stage.next) {
+            stage.aborted = true;
+            stage.threads.forEach(Thread::interrupt);
+            // Dropping the queued items also frees a thread still blocked putting an item
+            stage.dropQueued();
+        }
+    }
+
+    /**
+     * Returns whether the pipeline the stage belongs to was aborted.
+     *
+     * @return Whether it was aborted.
+     */
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Returns the first exception or error thrown by the work of the stage, which aborted the pipeline.
+     *
+     * @return The exception or error, or null if the work never threw.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Takes items from the queue and works on them until the END of this thread arrives, or the
+     * pipeline is aborted.
+     */
+    @SuppressWarnings("unchecked")
+    private void runWorker() {
+        // The item the thread has taken and not yet handed on, which is dropped if the thread stops
+        Object item = null;
+        try {
+            while (true) {
+                item = queue.take();
+                if (item == END || aborted) {
+                    break;
+                }
+                waiting.decrementAndGet();
+                long start = System.nanoTime();
+                work.process((T) item);
+                long done = System.nanoTime();
+                busyNanos.addAndGet(done - start);
+                processed.incrementAndGet();
+                if (next != null) {
+                    next.put((T) item);
+                    blockedNanos.addAndGet(System.nanoTime() - done);
+                }
+                item = null;
+            }
+        } catch (InterruptedException e) {
+            // Only an abort interrupts the threads of a stage
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException | Error e) {
+            // A put into an aborted stage is not a failure of its own
+            if (!aborted) {
+                synchronized (this) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+                abort();
+            }
+        } finally {
+            if (item != null) {
+                drop(item);
+            }
+            // The last thread to finish tells the next stage, unless the pipeline was torn down
+            if (running.decrementAndGet() == 0 && next != null && !aborted) {
+                try {
+                    next.finish();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops every item in the queue of the stage, handing each to the drop handler.
+     */
+    private void dropQueued() {
+        List<Object> dropped = new ArrayList<>();
+        queue.drainTo(dropped);
+        dropped.forEach(this::drop);
+    }
+
+    /**
+     * Hands an item the stage drops to its drop handler, if it has one.
+     *
+     * @param item The item, or END, which is not handed on.
+     */
+    @SuppressWarnings("unchecked")
+    private void drop(Object item) {
+        Consumer<? super T> handler = dropHandler;
+        if (item != END && handler != null) {
+            handler.accept((T) item);
+        }
+    }
+
+    /**
+     * Returns the name of the stage.
+     *
+     * @return The name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of threads of the stage.
+     *
+     * @return The number of threads.
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Returns the largest number of items waiting in the queue of the stage.
+     *
+     * @return The capacity of the queue.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of items handed to the stage that its threads have not taken yet, including
+     * those whose put is still waiting for room in the queue.
+     *
+     * @return The depth of the queue.
+     */
+    public int getQueueDepth() {
+        return waiting.get();
+    }
+
+    /**
+     * Returns the deepest the queue of the stage has been. Since items whose put is waiting for room are
+     * counted, this can exceed the capacity by up to the number of threads handing items to the stage,
+     * which shows that they were held back.
+     *
+     * @return The largest depth of the queue.
+     */
+    public int getMaxQueueDepth() {
+        return maxDepth.get();
+    }
+
+    /**
+     * Returns the average depth of the queue of the stage as items arrived, including the new item.
+     * A stage that keeps up has an average of about 1 or less; the bottleneck has one close to its capacity.
+     *
+     * @return The average depth of the queue.
+     */
+    public double getAverageQueueDepth() {
+        long count = arrivals.get();
+        return count == 0 ? 0 : (double) depthSum.get() / count;
+    }
+
+    /**
+     * Returns the number of items the stage has finished.
+     *
+     * @return The number of items.
+     */
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    /**
+     * Returns the total time the threads of the stage spent working on items.
+     *
+     * @return The time, in nanoseconds.
+     */
+    public long getBusyNanos() {
+        return busyNanos.get();
+    }
+
+    /**
+     * Returns the total time the threads of the stage spent blocked handing items on to the next stage.
+     *
+     * @return The time, in nanoseconds.
+     */
+    public long getBlockedNanos() {
+        return blockedNanos.get();
+    }
+
+    /**
+     * Returns the fraction of the time its threads could have worked that the stage was busy.
+     *
+     * @param wallNanos The time the pipeline ran for, in nanoseconds.
+     * @return The utilization, between 0 and 1.
+     */
+    public double getUtilization(long wallNanos) {
+        return (double) busyNanos.get() / Math.max(1, wallNanos * workers);
+    }
+}
@@ -5,6 +5,9 @@ import java.awt.*;
 /**
  * The Pixel class represents a pixel in an image.
  * Each pixel has a color and references to its left and right neighbors.
+ * The Image class keeps its pixels in a packed PixelStore, so Pixel objects are a view:
+ * they are created for the seams returned by the image and for its linked pixel graph.
+ * The x and y coordinates of a Pixel are its coordinates in the original image.
  */
 public class Pixel {
     /**
@@ -0,0 +1,866 @@
+package uk.ac.nulondon;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The PixelStore class stores the pixels of an image in packed primitive arrays.
+ *
+ * Every pixel of the original image has a fixed physical index (row * original width + column),
+ * and its color, brightness and energy are kept in parallel arrays at that index.
+ * The pixels that are still in the image are found through a logical-to-physical index:
+ * the cell at (x, y) of the current image is stored at y * original width + x of that index.
+ * Removing a pixel only shifts the entries of the index, so the pixel data itself never moves.
+ *
+ * A pixel costs 4 bytes of color, 4 bytes of index, 1 byte of brightness and 2 bytes of energy.
+ * The index has an entry per cell rather than a list of removed columns per row, because horizontal seams
+ * are removed and inserted as well: once they are, the pixels of a row of the current image can come from
+ * any row and column of the original, which only a full map of the cells can describe.
+ *
+ * The brightness of a pixel is recalculated as soon as its color is set. The energy is updated lazily:
+ * changing a color or removing or inserting a seam marks the cells whose neighborhood changed as dirty,
+ * and updateEnergy recalculates only those cells. The dirty cells are kept as a range of columns per row.
+ *
+ * This class holds the logic; where the four arrays live is up to its subclasses. HeapPixelStore keeps
+ * them on the Java heap, and MappedPixelStore keeps them in memory-mapped files for images that do not
+ * fit in the heap.
+ */
+public abstract class PixelStore implements AutoCloseable {
+    /**
+     * The mask used to read an unsigned byte.
+     */
+    private static final int BYTE_MASK = 0xFF;
+
+    /**
+     * The shift of the red component in a packed ARGB color.
+     */
+    private static final int RED_SHIFT = 16;
+
+    /**
+     * The shift of the green component in a packed ARGB color.
+     */
+    private static final int GREEN_SHIFT = 8;
+
+    /**
+     * The number of bytes each pixel takes up in the store: 7 of pixel data and 4 of index.
+     */
+    public static final int BYTES_PER_PIXEL = 11;
+
+    /**
+     * The width of the original image, which is also the length of a row in every array.
+     */
+    private final int stride;
+
+    /**
+     * The current width of the image.
+     */
+    private int width;
+
+    /**
+     * The current height of the image.
+     */
+    private int height;
+
+    /**
+     * The first dirty column of each row, or Integer.MAX_VALUE if the row is clean.
+     */
+    private final int[] dirtyStart;
+
+    /**
+     * The last dirty column of each row, or -1 if the row is clean.
+     */
+    private final int[] dirtyEnd;
+
+    /**
+     * The first row that may have dirty cells.
+     */
+    private int firstDirtyRow = Integer.MAX_VALUE;
+
+    /**
+     * The last row that may have dirty cells.
+     */
+    private int lastDirtyRow = -1;
+
+    /**
+     * Constructs a new PixelStore for an image of the specified size.
+     * The subclass must call initIndex once its arrays exist.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @throws IllegalArgumentException If the image has no pixels, or more than an int can index.
+     */
+    protected PixelStore(int width, int height) {
+        pixelCount(width, height);
+        this.stride = width;
+        this.width = width;
+        this.height = height;
+        this.dirtyStart = new int[height];
+        this.dirtyEnd = new int[height];
+        // Initially no row is dirty
+        Arrays.fill(dirtyStart, Integer.MAX_VALUE);
+        Arrays.fill(dirtyEnd, -1);
+    }
+
+    /**
+     * Returns the number of pixels of an image, which a store indexes with ints.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @return The number of pixels.
+     * @throws IllegalArgumentException If the image has no pixels, or more than an int can index.
+     */
+    protected static int pixelCount(int width, int height) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("An image needs at least one pixel, not " + width + "x" + height);
+        }
+        // Work the size out in a long, so that it cannot wrap around
+        long pixels = (long) width * height;
+        if (pixels > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A " + width + "x" + height + " image has " + pixels
+                    + " pixels, more than the " + Integer.MAX_VALUE + " a store can hold");
+        }
+        return (int) pixels;
+    }
+
+    /**
+     * Points every cell to the pixel with the same coordinates.
+     * Every pixel is initially black.
+     */
+    protected void initIndex() {
+        int size = pixelCount(stride, height);
+        for (int i = 0; i < size; i++) {
+            writeIndex(i, i);
+        }
+    }
+
+    /**
+     * Reads the packed ARGB color of a pixel.
+     *
+     * @param pixel The physical index of the pixel.
+     * @return The packed ARGB color.
+     */
+    protected abstract int readColor(int pixel);
+
+    /**
+     * Writes the packed ARGB color of a pixel.
+     *
+     * @param pixel The physical index of the pixel.
+     * @param argb The packed ARGB color.
+     */
+    protected abstract void writeColor(int pixel, int argb);
+
+    /**
+     * Reads the brightness of a pixel.
+     *
+     * @param pixel The physical index of the pixel.
+     * @return The brightness, from 0 to 255.
+     */
+    protected abstract int readBrightness(int pixel);
+
+    /**
+     * Writes the brightness of a pixel.
+     *
+     * @param pixel The physical index of the pixel.
+     * @param value The brightness, from 0 to 255.
+     */
+    protected abstract void writeBrightness(int pixel, int value);
+
+    /**
+     * Reads the energy of a pixel.
+     *
+     * @param pixel The physical index of the pixel.
+     * @return The energy.
+     */
+    protected abstract int readEnergy(int pixel);
+
+    /**
+     * Writes the energy of a pixel.
+     *
+     * @param pixel The physical index of the pixel.
+     * @param value The energy, at most about 1443.
+     */
+    protected abstract void writeEnergy(int pixel, int value);
+
+    /**
+     * Reads the physical index of the pixel in a cell.
+     *
+     * @param cell The cell, y * stride + x.
+     * @return The physical index of the pixel.
+     */
+    protected abstract int readIndex(int cell);
+
+    /**
+     * Writes the physical index of the pixel in a cell.
+     *
+     * @param cell The cell, y * stride + x.
+     * @param pixel The physical index of the pixel.
+     */
+    protected abstract void writeIndex(int cell, int pixel);
+
+    /**
+     * Moves a run of entries of the index, as System.arraycopy would (the runs may overlap).
+     *
+     * @param from The first cell to move.
+     * @param to The cell the first entry is moved to.
+     * @param length The number of entries to move.
+     */
+    protected abstract void moveIndex(int from, int to, int length);
+
+    /**
+     * Releases whatever the store holds outside the heap. The store must not be used afterwards.
+     *
+     * @throws IOException If the store cannot be released.
+     */
+    @Override
+    public void close() throws IOException {
+    }
+
+    /**
+     * Returns the current width of the image.
+     *
+     * @return The current width of the image.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the current height of the image.
+     *
+     * @return The current height of the image.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the width of the original image.
+     * The physical index of a pixel is its original row times this width plus its original column.
+     *
+     * @return The width of the original image.
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Returns the physical index of the pixel in the given cell.
+     *
+     * @param x The column of the cell.
+     * @param y The row of the cell.
+     * @return The physical index of the pixel.
+     */
+    public int physicalIndex(int x, int y) {
+        return readIndex(y * stride + x);
+    }
+
+    /**
+     * Returns the packed ARGB color of the pixel in the given cell.
+     *
+     * @param x The column of the cell.
+     * @param y The row of the cell.
+     * @return The packed ARGB color of the pixel.
+     */
+    public int getColor(int x, int y) {
+        return readColor(readIndex(y * stride + x));
+    }
+
+    /**
+     * Sets the packed ARGB color of every pixel from an array, row by row.
+     * Unlike setColor, this does not update the brightness or mark any cell dirty, so the brightness
+     * and energy of every pixel must be calculated afterwards, for example with calculateValues.
+     *
+     * @param argb The packed ARGB color of every pixel, row by row, at least width * height long.
+     */
+    public void setColors(int[] argb) {
+        setRows(0, height, argb);
+    }
+
+    /**
+     * Sets the packed ARGB color of every pixel in a band of rows from an array, row by row.
+     * As with setColors, the brightness and energy must be calculated afterwards.
+     *
+     * @param fromRow The first row of the band.
+     * @param rows The number of rows in the band.
+     * @param argb The packed ARGB color of every pixel in the band, row by row.
+     */
+    public void setRows(int fromRow, int rows, int[] argb) {
+        for (int y = 0; y < rows; y++) {
+            int rowStart = (fromRow + y) * stride;
+            int inStart = y * width;
+            for (int x = 0; x < width; x++) {
+                writeColor(readIndex(rowStart + x), argb[inStart + x]);
+            }
+        }
+    }
+
+    /**
+     * Copies the packed ARGB color of every pixel into an array, row by row.
+     *
+     * @param argb The array to fill, at least width * height long.
+     */
+    public void copyColors(int[] argb) {
+        copyRows(0, height, argb);
+    }
+
+    /**
+     * Copies the packed ARGB color of every pixel in a band of rows into an array, row by row.
+     *
+     * @param fromRow The first row of the band.
+     * @param rows The number of rows in the band.
+     * @param argb The array to fill, at least width * rows long.
+     */
+    public void copyRows(int fromRow, int rows, int[] argb) {
+        for (int y = 0; y < rows; y++) {
+            int rowStart = (fromRow + y) * stride;
+            int outStart = y * width;
+            for (int x = 0; x < width; x++) {
+                argb[outStart + x] = readColor(readIndex(rowStart + x));
+            }
+        }
+    }
+
+    /**
+     * Sets the packed ARGB color of the pixel in the given cell.
+     * The brightness of the pixel is recalculated, and the pixel and its neighbors are marked dirty.
+     *
+     * @param x The column of the cell.
+     * @param y The row of the cell.
+     * @param argb The packed ARGB color to set.
+     */
+    public void setColor(int x, int y, int argb) {
+        writeColor(readIndex(y * stride + x), argb);
+        calculateBrightness(x, y);
+        markDirty(x - 1, x + 1, y - 1, y + 1);
+    }
+
+    /**
+     * Returns the brightness of the pixel in the given cell.
+     *
+     * @param x The column of the cell.
+     * @param y The row of the cell.
+     * @return The brightness of the pixel.
+     */
+    public int getBrightness(int x, int y) {
+        return readBrightness(readIndex(y * stride + x));
+    }
+
+    /**
+     * Returns the energy of the pixel in the given cell.
+     *
+     * @param x The column of the cell.
+     * @param y The row of the cell.
+     * @return The energy of the pixel.
+     */
+    public int getEnergy(int x, int y) {
+        return readEnergy(readIndex(y * stride + x));
+    }
+
+    /**
+     * Returns the blueness of the pixel in the given cell.
+     * The blueness is the blue component of the pixel's color, so it is never stored separately.
+     *
+     * @param x The column of the cell.
+     * @param y The row of the cell.
+     * @return The blueness of the pixel.
+     */
+    public int getBlueness(int x, int y) {
+        return readColor(readIndex(y * stride + x)) & BYTE_MASK;
+    }
+
+    /**
+     * Calculates the brightness of the pixel in the given cell.
+     * The brightness is the average of the red, green and blue components of the pixel's color.
+     *
+     * @param x The column of the cell.
+     * @param y The row of the cell.
+     */
+    public void calculateBrightness(int x, int y) {
+        int pixel = readIndex(y * stride + x);
+        int argb = readColor(pixel);
+        int r = (argb >> RED_SHIFT) & BYTE_MASK;
+        int g = (argb >> GREEN_SHIFT) & BYTE_MASK;
+        int b = argb & BYTE_MASK;
+        writeBrightness(pixel, (r + g + b) / 3);
+    }
+
+    /**
+     * Calculates the brightness of every pixel in the image.
+     * The rows are split into stripes that are processed in parallel if the image is large enough.
+     *
+     * @param parallelism Decides whether the stripes are processed in parallel.
+     */
+    public void calculateBrightness(Parallelism parallelism) {
+        parallelism.forEach(height, (long) width * height, this::calculateBrightnessRows);
+    }
+
+    /**
+     * Calculates the brightness of every pixel in a stripe of rows.
+     * The rows are scanned in order, so the index and the colors are read sequentially.
+     *
+     * @param fromRow The first row of the stripe.
+     * @param toRow The row after the last row of the stripe.
+     */
+    private void calculateBrightnessRows(int fromRow, int toRow) {
+        for (int y = fromRow; y < toRow; y++) {
+            for (int x = 0; x < width; x++) {
+                calculateBrightness(x, y);
+            }
+        }
+    }
+
+    /**
+     * Calculates the energy of the pixel in the given cell.
+     *
+     * The energy is the Sobel gradient of the brightness over the pixel and its eight neighbors.
+     * A neighbor outside the image counts with the brightness of the pixel itself.
+     *
+     * @param x The column of the cell.
+     * @param y The row of the cell.
+     */
+    public void calculateEnergy(int x, int y) {
+        // Work out which neighbors are inside the image
+        boolean hasLeft = x > 0;
+        boolean hasRight = x < width - 1;
+        boolean hasAbove = y > 0;
+        boolean hasBelow = y < height - 1;
+
+        // Get the brightness of the pixel and of its eight neighbors
+        int brE = getBrightness(x, y);
+        int brA = hasAbove && hasLeft ? getBrightness(x - 1, y - 1) : brE;
+        int brB = hasAbove ? getBrightness(x, y - 1) : brE;
+        int brC = hasAbove && hasRight ? getBrightness(x + 1, y - 1) : brE;
+        int brD = hasLeft ? getBrightness(x - 1, y) : brE;
+        int brF = hasRight ? getBrightness(x + 1, y) : brE;
+        int brG = hasBelow && hasLeft ? getBrightness(x - 1, y + 1) : brE;
+        int brH = hasBelow ? getBrightness(x, y + 1) : brE;
+        int brI = hasBelow && hasRight ? getBrightness(x + 1, y + 1) : brE;
+
+        // Calculate the horizontal and vertical energy of the pixel
+        int horizEnergy = (brA + 2 * brD + brG) - (brC + 2 * brF + brI);
+        int vertEnergy = (brA + 2 * brB + brC) - (brG + 2 * brH + brI);
+
+        // Store the total energy of the pixel
+        int total = (int) Math.sqrt(horizEnergy * horizEnergy + vertEnergy * vertEnergy);
+        writeEnergy(readIndex(y * stride + x), total);
+    }
+
+    /**
+     * Calculates the energy of every pixel in the image.
+     * The brightness of every pixel must already be up to date.
+     * The energy of a row only depends on the brightness of the rows above and below it, so the rows
+     * are split into stripes that are processed in parallel if the image is large enough.
+     * Afterwards, no cell is dirty.
+     *
+     * @param parallelism Decides whether the stripes are processed in parallel.
+     */
+    public void calculateEnergy(Parallelism parallelism) {
+        parallelism.forEach(height, (long) width * height, this::calculateEnergyRows);
+        clearDirty();
+    }
+
+    /**
+     * Calculates the energy of every pixel in a stripe of rows.
+     *
+     * @param fromRow The first row of the stripe.
+     * @param toRow The row after the last row of the stripe.
+     */
+    private void calculateEnergyRows(int fromRow, int toRow) {
+        for (int y = fromRow; y < toRow; y++) {
+            for (int x = 0; x < width; x++) {
+                calculateEnergy(x, y);
+            }
+        }
+    }
+
+    /**
+     * Calculates the brightness and then the energy of every pixel in the image.
+     *
+     * If the image is processed sequentially, both are calculated in a single pass: the brightness
+     * of a row is calculated just before the energy of the row above it, while that row is still in
+     * the cache. If the image is large enough to be processed in parallel, the brightness of every
+     * stripe is calculated before any energy, since the energy at the edge of a stripe needs the
+     * brightness of the neighboring stripe. Both ways give exactly the same values.
+     * Afterwards, no cell is dirty.
+     *
+     * @param parallelism Decides whether the stripes are processed in parallel.
+     */
+    public void calculateValues(Parallelism parallelism) {
+        if (parallelism.isParallel((long) width * height)) {
+            calculateBrightness(parallelism);
+            calculateEnergy(parallelism);
+            return;
+        }
+        // Calculate the brightness of the first row, then one row ahead of the energy
+        calculateBrightnessRows(0, Math.min(1, height));
+        for (int y = 0; y < height; y++) {
+            if (y + 1 < height) {
+                calculateBrightnessRows(y + 1, y + 2);
+            }
+            calculateEnergyRows(y, y + 1);
+        }
+        clearDirty();
+    }
+
+    /**
+     * Calculates the energy of the dirty cells only.
+     * This gives the same energies as calculateEnergy, since no other cell's neighborhood has changed.
+     */
+    public void updateEnergy() {
+        int lastRow = Math.min(lastDirtyRow, height - 1);
+        for (int y = firstDirtyRow; y <= lastRow; y++) {
+            // Clamp the dirty range to the current width of the row
+            int end = Math.min(dirtyEnd[y], width - 1);
+            for (int x = Math.max(dirtyStart[y], 0); x <= end; x++) {
+                calculateEnergy(x, y);
+            }
+        }
+        clearDirty();
+    }
+
+    /**
+     * Marks a block of cells as dirty. Parts of the block outside the image are ignored.
+     *
+     * @param fromX The first column of the block.
+     * @param toX The last column of the block.
+     * @param fromY The first row of the block.
+     * @param toY The last row of the block.
+     */
+    private void markDirty(int fromX, int toX, int fromY, int toY) {
+        int first = Math.max(fromY, 0);
+        int last = Math.min(toY, height - 1);
+        for (int y = first; y <= last; y++) {
+            dirtyStart[y] = Math.min(dirtyStart[y], fromX);
+            dirtyEnd[y] = Math.max(dirtyEnd[y], toX);
+        }
+        firstDirtyRow = Math.min(firstDirtyRow, first);
+        lastDirtyRow = Math.max(lastDirtyRow, last);
+    }
+
+    /**
+     * Marks every row as clean.
+     */
+    private void clearDirty() {
+        for (int y = Math.max(firstDirtyRow, 0); y < dirtyStart.length && y <= lastDirtyRow; y++) {
+            dirtyStart[y] = Integer.MAX_VALUE;
+            dirtyEnd[y] = -1;
+        }
+        firstDirtyRow = Integer.MAX_VALUE;
+        lastDirtyRow = -1;
+    }
+
+    /**
+     * Copies the range of cells of each row whose energy is out of date, which are the cells whose
+     * energy the edits since the last update change.
+     *
+     * @param from The array to fill with the first dirty column of each row, or Integer.MAX_VALUE if the row is clean.
+     * @param to The array to fill with the last dirty column of each row, or -1 if the row is clean.
+     */
+    public void copyDirtyRanges(int[] from, int[] to) {
+        System.arraycopy(dirtyStart, 0, from, 0, height);
+        System.arraycopy(dirtyEnd, 0, to, 0, height);
+    }
+
+    /**
+     * Fills the given array with the energy of each pixel in part of a row.
+     *
+     * @param y The index of the row.
+     * @param from The first column to fill.
+     * @param to The column after the last column to fill.
+     * @param energies The array to fill, indexed by column.
+     */
+    public void fillEnergyRow(int y, int from, int to, int[] energies) {
+        int rowStart = y * stride;
+        for (int x = from; x < to; x++) {
+            energies[x] = readEnergy(readIndex(rowStart + x));
+        }
+    }
+
+    /**
+     * Fills the given array with the blueness of each pixel in part of a row.
+     *
+     * @param y The index of the row.
+     * @param from The first column to fill.
+     * @param to The column after the last column to fill.
+     * @param bluenesses The array to fill, indexed by column.
+     */
+    public void fillBluenessRow(int y, int from, int to, int[] bluenesses) {
+        int rowStart = y * stride;
+        for (int x = from; x < to; x++) {
+            bluenesses[x] = readColor(readIndex(rowStart + x)) & BYTE_MASK;
+        }
+    }
+
+    /**
+     * Fills the given array with the energy of each pixel in part of a column.
+     * This lets the seam finder search for horizontal seams without a transposed copy of the image.
+     *
+     * @param x The index of the column.
+     * @param from The first row to fill.
+     * @param to The row after the last row to fill.
+     * @param energies The array to fill, indexed by row.
+     */
+    public void fillEnergyColumn(int x, int from, int to, int[] energies) {
+        for (int y = from; y < to; y++) {
+            energies[y] = readEnergy(readIndex(y * stride + x));
+        }
+    }
+
+    /**
+     * Fills the given array with the blueness of each pixel in part of a column.
+     *
+     * @param x The index of the column.
+     * @param from The first row to fill.
+     * @param to The row after the last row to fill.
+     * @param bluenesses The array to fill, indexed by row.
+     */
+    public void fillBluenessColumn(int x, int from, int to, int[] bluenesses) {
+        for (int y = from; y < to; y++) {
+            bluenesses[y] = readColor(readIndex(y * stride + x)) & BYTE_MASK;
+        }
+    }
+
+    /**
+     * Fills the given array with the forward energy of each pixel in part of a row: the difference in
+     * brightness between its left and right neighbours, which become adjacent when the pixel is removed.
+     * A missing neighbour counts as the pixel itself.
+     *
+     * @param y The index of the row.
+     * @param from The first column to fill.
+     * @param to The column after the last column to fill.
+     * @param costs The array to fill, indexed by column.
+     */
+    public void fillForwardEnergyRow(int y, int from, int to, int[] costs) {
+        int rowStart = y * stride;
+        for (int x = from; x < to; x++) {
+            int self = readBrightness(readIndex(rowStart + x));
+            int left = x > 0 ? readBrightness(readIndex(rowStart + x - 1)) : self;
+            int right = x < width - 1 ? readBrightness(readIndex(rowStart + x + 1)) : self;
+            costs[x] = Math.abs(right - left);
+        }
+    }
+
+    /**
+     * Fills the given arrays with the extra forward energy of each pixel in part of a row when the seam
+     * comes from above to the left (or right): the pixel above then becomes adjacent to the left (or right)
+     * neighbour, which costs the difference in their brightness.
+     *
+     * @param y The index of the row.
+     * @param from The first column to fill.
+     * @param to The column after the last column to fill.
+     * @param leftCosts The array to fill with the extra cost of coming from above to the left.
+     * @param rightCosts The array to fill with the extra cost of coming from above to the right.
+     */
+    public void fillForwardTransitionRow(int y, int from, int to, int[] leftCosts, int[] rightCosts) {
+        int rowStart = y * stride;
+        int aboveStart = y > 0 ? rowStart - stride : rowStart;
+        for (int x = from; x < to; x++) {
+            int self = readBrightness(readIndex(rowStart + x));
+            int left = x > 0 ? readBrightness(readIndex(rowStart + x - 1)) : self;
+            int right = x < width - 1 ? readBrightness(readIndex(rowStart + x + 1)) : self;
+            int above = readBrightness(readIndex(aboveStart + x));
+            leftCosts[x] = Math.abs(above - left);
+            rightCosts[x] = Math.abs(above - right);
+        }
+    }
+
+    /**
+     * Fills the given array with the forward energy of each pixel in part of a column,
+     * as fillForwardEnergyRow does for a row: the difference in brightness between the pixels above and below.
+     *
+     * @param x The index of the column.
+     * @param from The first row to fill.
+     * @param to The row after the last row to fill.
+     * @param costs The array to fill, indexed by row.
+     */
+    public void fillForwardEnergyColumn(int x, int from, int to, int[] costs) {
+        for (int y = from; y < to; y++) {
+            int self = readBrightness(readIndex(y * stride + x));
+            int up = y > 0 ? readBrightness(readIndex((y - 1) * stride + x)) : self;
+            int down = y < height - 1 ? readBrightness(readIndex((y + 1) * stride + x)) : self;
+            costs[y] = Math.abs(down - up);
+        }
+    }
+
+    /**
+     * Fills the given arrays with the extra forward energy of each pixel in part of a column,
+     * as fillForwardTransitionRow does for a row. The column to the left takes the place of the row above.
+     *
+     * @param x The index of the column.
+     * @param from The first row to fill.
+     * @param to The row after the last row to fill.
+     * @param leftCosts The array to fill with the extra cost of coming from the left and above.
+     * @param rightCosts The array to fill with the extra cost of coming from the left and below.
+     */
+    public void fillForwardTransitionColumn(int x, int from, int to, int[] leftCosts, int[] rightCosts) {
+        int before = x > 0 ? x - 1 : x;
+        for (int y = from; y < to; y++) {
+            int self = readBrightness(readIndex(y * stride + x));
+            int up = y > 0 ? readBrightness(readIndex((y - 1) * stride + x)) : self;
+            int down = y < height - 1 ? readBrightness(readIndex((y + 1) * stride + x)) : self;
+            int previous = readBrightness(readIndex(y * stride + before));
+            leftCosts[y] = Math.abs(previous - up);
+            rightCosts[y] = Math.abs(previous - down);
+        }
+    }
+
+    /**
+     * Returns the column of the given pixel in a row of the image.
+     *
+     * @param y The index of the row.
+     * @param physicalIndex The physical index of the pixel.
+     * @return The column of the pixel, or -1 if the pixel is not in the row.
+     */
+    public int findColumn(int y, int physicalIndex) {
+        int rowStart = y * stride;
+        for (int x = 0; x < width; x++) {
+            if (readIndex(rowStart + x) == physicalIndex) {
+                return x;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the row of the given pixel in a column of the image.
+     *
+     * @param x The index of the column.
+     * @param physicalIndex The physical index of the pixel.
+     * @return The row of the pixel, or -1 if the pixel is not in the column.
+     */
+    public int findRow(int x, int physicalIndex) {
+        for (int y = 0; y < height; y++) {
+            if (readIndex(y * stride + x) == physicalIndex) {
+                return y;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes a vertical seam from the image.
+     * In each row, the entries of the index to the right of the seam are shifted one cell to the left.
+     * The two cells that become neighbors in each row are marked dirty, along with the cells above and below them.
+     *
+     * @param columns The column of the seam in each row.
+     */
+    public void removeVerticalSeam(int[] columns) {
+        // Bring the energy up to date, so the dirty ranges do not have to be shifted
+        updateEnergy();
+        for (int y = 0; y < height; y++) {
+            int cell = y * stride + columns[y];
+            moveIndex(cell + 1, cell, width - columns[y] - 1);
+            markDirty(columns[y] - 1, columns[y], y - 1, y + 1);
+        }
+        width--;
+    }
+
+    /**
+     * Removes several vertical seams from the image in one pass, as removing them one at a time from the
+     * rightmost to the leftmost would. In each row, the entries of the index between two seams are shifted
+     * left once, by the number of seams to their left, and the cells that become neighbors are marked dirty
+     * as removeVerticalSeam marks them.
+     *
+     * @param seams The column of each seam in each row, with the seams in order from left to right,
+     *              never crossing or sharing a pixel.
+     */
+    public void removeVerticalSeams(int[][] seams) {
+        // Bring the energy up to date, so the dirty ranges do not have to be shifted
+        updateEnergy();
+        int count = seams.length;
+        for (int y = 0; y < height; y++) {
+            int rowStart = y * stride;
+            for (int j = 0; j < count; j++) {
+                // Shift the cells up to the next seam (or the end of the row) left by the seams removed so far
+                int column = seams[j][y];
+                int next = j + 1 < count ? seams[j + 1][y] : width;
+                moveIndex(rowStart + column + 1, rowStart + column - j, next - column - 1);
+                markDirty(column - j - 1, column - j, y - 1, y + 1);
+            }
+        }
+        width -= count;
+    }
+
+    /**
+     * Puts a vertical seam back into the image.
+     * In each row, the entries of the index from the seam onwards are shifted one cell to the right
+     * and the pixel of the seam is put in the freed cell.
+     * The inserted pixels and their neighbors are marked dirty.
+     *
+     * @param columns The column of the seam in each row.
+     * @param physicalIndexes The physical index of the pixel of the seam in each row.
+     */
+    public void insertVerticalSeam(int[] columns, int[] physicalIndexes) {
+        // Bring the energy up to date, so the dirty ranges do not have to be shifted
+        updateEnergy();
+        for (int y = 0; y < height; y++) {
+            int cell = y * stride + columns[y];
+            moveIndex(cell, cell + 1, width - columns[y]);
+            writeIndex(cell, physicalIndexes[y]);
+            markDirty(columns[y] - 1, columns[y] + 1, y - 1, y + 1);
+        }
+        width++;
+    }
+
+    /**
+     * Removes a horizontal seam from the image.
+     * In each column, the entries of the index below the seam are shifted one cell up.
+     * The shifting is done row by row, so the index is still read and written sequentially.
+     * The two cells that become neighbors in each column are marked dirty, along with the cells
+     * to their left and right.
+     *
+     * @param rows The row of the seam in each column.
+     */
+    public void removeHorizontalSeam(int[] rows) {
+        // Bring the energy up to date, so the dirty ranges do not have to be shifted
+        updateEnergy();
+        int firstRow = height;
+        for (int x = 0; x < width; x++) {
+            firstRow = Math.min(firstRow, rows[x]);
+            markDirty(x - 1, x + 1, rows[x] - 1, rows[x]);
+        }
+        // Move each cell below the seam one row up
+        for (int y = firstRow; y < height - 1; y++) {
+            int rowStart = y * stride;
+            for (int x = 0; x < width; x++) {
+                if (rows[x] <= y) {
+                    writeIndex(rowStart + x, readIndex(rowStart + stride + x));
+                }
+            }
+        }
+        height--;
+    }
+
+    /**
+     * Puts a horizontal seam back into the image.
+     * In each column, the entries of the index from the seam downwards are shifted one cell down
+     * and the pixel of the seam is put in the freed cell.
+     * The inserted pixels and their neighbors are marked dirty.
+     *
+     * @param rows The row of the seam in each column.
+     * @param physicalIndexes The physical index of the pixel of the seam in each column.
+     */
+    public void insertHorizontalSeam(int[] rows, int[] physicalIndexes) {
+        // Bring the energy up to date, so the dirty ranges do not have to be shifted
+        updateEnergy();
+        int firstRow = height;
+        for (int x = 0; x < width; x++) {
+            firstRow = Math.min(firstRow, rows[x]);
+        }
+        // Move each cell from the seam downwards one row down, starting from the bottom
+        for (int y = height; y > firstRow; y--) {
+            int rowStart = y * stride;
+            for (int x = 0; x < width; x++) {
+                if (rows[x] < y) {
+                    writeIndex(rowStart + x, readIndex(rowStart - stride + x));
+                }
+            }
+        }
+        height++;
+        // Put the pixels of the seam in the freed cells
+        for (int x = 0; x < width; x++) {
+            writeIndex(rows[x] * stride + x, physicalIndexes[x]);
+            markDirty(x - 1, x + 1, rows[x] - 1, rows[x] + 1);
+        }
+    }
+}
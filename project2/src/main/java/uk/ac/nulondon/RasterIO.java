@@ -0,0 +1,170 @@
+package uk.ac.nulondon;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * The RasterIO class converts between BufferedImages and arrays of packed ARGB colors in bulk.
+ *
+ * BufferedImage.getRGB and setRGB convert every pixel through the generic ColorModel, which is
+ * slow. For the layouts that ImageIO produces for PNG files (three or four interleaved bytes per
+ * pixel, or one int per pixel), the colors are read straight from the backing data buffer instead.
+ * For writing, the packed array itself becomes the data buffer of a TYPE_INT_RGB image, so nothing
+ * is copied at all.
+ */
+public final class RasterIO {
+    /**
+     * The alpha bits of an opaque packed ARGB color.
+     */
+    private static final int OPAQUE = 0xFF000000;
+
+    /**
+     * The mask of the lowest byte of an int.
+     */
+    private static final int BYTE_MASK = 0xFF;
+
+    /**
+     * The shift of the alpha component in a packed ARGB color.
+     */
+    private static final int ALPHA_SHIFT = 24;
+
+    /**
+     * The shift of the red component in a packed ARGB color.
+     */
+    private static final int RED_SHIFT = 16;
+
+    /**
+     * The shift of the green component in a packed ARGB color.
+     */
+    private static final int GREEN_SHIFT = 8;
+
+    /**
+     * The mask of the red component in a packed RGB color.
+     */
+    private static final int RED_MASK = 0x00FF0000;
+
+    /**
+     * The mask of the green component in a packed RGB color.
+     */
+    private static final int GREEN_MASK = 0x0000FF00;
+
+    /**
+     * The mask of the blue component in a packed RGB color.
+     */
+    private static final int BLUE_MASK = 0x000000FF;
+
+    /**
+     * The number of bytes per pixel in a TYPE_3BYTE_BGR image.
+     */
+    private static final int BGR_BYTES = 3;
+
+    /**
+     * The number of bytes per pixel in a TYPE_4BYTE_ABGR image.
+     */
+    private static final int ABGR_BYTES = 4;
+
+    /**
+     * Prevents the class from being instantiated.
+     */
+    private RasterIO() {
+    }
+
+    /**
+     * Reads the packed ARGB color of every pixel of an image, row by row.
+     * The colors are the same as those returned by BufferedImage.getRGB.
+     *
+     * @param img The image to read.
+     * @return The packed ARGB color of every pixel, row by row.
+     */
+    public static int[] readArgb(BufferedImage img) {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        int[] argb = new int[width * height];
+        WritableRaster raster = img.getRaster();
+        // Only read the data buffer directly if the raster covers all of it, from the start
+        boolean whole = raster.getParent() == null && raster.getSampleModelTranslateX() == 0
+                && raster.getSampleModelTranslateY() == 0;
+        if (whole && img.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+            byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+            for (int i = 0, j = 0; i < argb.length; i++, j += BGR_BYTES) {
+                argb[i] = OPAQUE | (data[j + 2] & BYTE_MASK) << RED_SHIFT
+                        | (data[j + 1] & BYTE_MASK) << GREEN_SHIFT | data[j] & BYTE_MASK;
+            }
+        } else if (whole && img.getType() == BufferedImage.TYPE_4BYTE_ABGR) {
+            byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+            for (int i = 0, j = 0; i < argb.length; i++, j += ABGR_BYTES) {
+                argb[i] = (data[j] & BYTE_MASK) << ALPHA_SHIFT | (data[j + 3] & BYTE_MASK) << RED_SHIFT
+                        | (data[j + 2] & BYTE_MASK) << GREEN_SHIFT | data[j + 1] & BYTE_MASK;
+            }
+        } else if (whole && img.getType() == BufferedImage.TYPE_INT_RGB) {
+            int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+            for (int i = 0; i < argb.length; i++) {
+                argb[i] = OPAQUE | data[i];
+            }
+        } else if (whole && img.getType() == BufferedImage.TYPE_INT_ARGB) {
+            int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+            System.arraycopy(data, 0, argb, 0, argb.length);
+        } else {
+            // Any other layout goes through the color model, but still in one call
+            img.getRGB(0, 0, width, height, argb, 0, width);
+        }
+        return argb;
+    }
+
+    /**
+     * Wraps an array of packed colors in a TYPE_INT_RGB image without copying it.
+     * The alpha component of each color is ignored, and later changes to the array show up in the image.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param argb The packed ARGB color of every pixel, row by row.
+     * @return The image.
+     */
+    public static BufferedImage wrapRgb(int width, int height, int[] argb) {
+        return new BufferedImage(rgbColorModel(), createRgbRaster(width, height, 0, argb), false, null);
+    }
+
+    /**
+     * Returns the color model of a TYPE_INT_RGB image: 24 bits per pixel, without alpha.
+     *
+     * @return The color model.
+     */
+    public static ColorModel rgbColorModel() {
+        return new DirectColorModel(ALPHA_SHIFT, RED_MASK, GREEN_MASK, BLUE_MASK);
+    }
+
+    /**
+     * Returns the sample model of a TYPE_INT_RGB raster of the given size: one packed int per pixel.
+     *
+     * @param width The width of the raster.
+     * @param height The height of the raster.
+     * @return The sample model.
+     */
+    public static SampleModel rgbSampleModel(int width, int height) {
+        return new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT, width, height,
+                new int[] {RED_MASK, GREEN_MASK, BLUE_MASK});
+    }
+
+    /**
+     * Wraps an array of packed colors in a TYPE_INT_RGB raster without copying it.
+     *
+     * @param width The width of the raster.
+     * @param height The height of the raster.
+     * @param minY The row of the image that the first row of the raster is.
+     * @param argb The packed ARGB color of every pixel, row by row.
+     * @return The raster.
+     */
+    public static WritableRaster createRgbRaster(int width, int height, int minY, int[] argb) {
+        DataBufferInt buffer = new DataBufferInt(argb, width * height);
+        return Raster.createWritableRaster(rgbSampleModel(width, height), buffer, new Point(0, minY));
+    }
+}
@@ -0,0 +1,182 @@
+package uk.ac.nulondon;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * The ScratchArena class holds the scratch arrays one thread needs while carving and writing images,
+ * so they are allocated once per thread rather than once per seam or per image.
+ *
+ * Each thread has its own arena, returned by forCurrentThread. It owns a SeamFinder, whose cost rows,
+ * parent table and table of cumulative costs are the largest scratch arrays of carving, and a few buffers
+ * of ints, such as the band of rows an image is written from. Every array only grows when a larger image
+ * arrives, so once a thread has carved an image of some size, carving and writing more images up to that
+ * size reuses them. Worker threads that carve one image after another, such as those of BatchCarver, hand
+ * the seam finder of their arena to each image with Image.setSeamFinder.
+ *
+ * Threads that only live for one image, such as the virtual threads CarvingServer answers each request on,
+ * would build a new arena every time, so they borrow one from a pool of arenas made with the constructor
+ * instead, and hand it to the image with Image.setScratchArena. The seam finder of an arena is only made
+ * once it is asked for, so an arena only used for its buffers never allocates the tables of a search.
+ *
+ * An arena must only be used by one thread at a time, and its seam finder by one image at a time.
+ */
+public final class ScratchArena {
+    /**
+     * The buffers of ints an arena holds.
+     */
+    public enum Buffer {
+        /**
+         * The band of packed colors an image is written from, see BandedImage.
+         */
+        EXPORT_BAND,
+
+        /**
+         * The upper row of costs a level of a SeamPyramid is built from.
+         */
+        PYRAMID_TOP,
+
+        /**
+         * The lower row of costs a level of a SeamPyramid is built from.
+         */
+        PYRAMID_BOTTOM
+    }
+
+    /**
+     * The arena of each thread.
+     */
+    private static final ThreadLocal<ScratchArena> ARENAS = ThreadLocal.withInitial(ScratchArena::new);
+
+    /**
+     * The bean reading the number of bytes each thread has allocated, or null if the JVM cannot.
+     */
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS = allocationBean();
+
+    /**
+     * The seam finder of the arena, whose tables are kept from one image to the next, or null until it is
+     * first asked for.
+     */
+    private SeamFinder seamFinder;
+
+    /**
+     * The buffers of the arena, by the ordinal of their Buffer.
+     */
+    private final int[][] buffers = new int[Buffer.values().length][0];
+
+    /**
+     * The object that last asked for each buffer, by the ordinal of its Buffer, or null if it was not named.
+     */
+    private final Object[] holders = new Object[Buffer.values().length];
+
+    /**
+     * The number of bytes the buffers of the arena have allocated as they grew.
+     */
+    private long grownBytes;
+
+    /**
+     * Constructs a new, empty ScratchArena, for a pool that lends it to one thread at a time.
+     */
+    public ScratchArena() {
+    }
+
+    /**
+     * Returns the arena of the current thread.
+     *
+     * @return The arena.
+     */
+    public static ScratchArena forCurrentThread() {
+        return ARENAS.get();
+    }
+
+    /**
+     * Returns the seam finder of the arena, making it the first time.
+     *
+     * @return The seam finder.
+     */
+    public SeamFinder getSeamFinder() {
+        if (seamFinder == null) {
+            seamFinder = new SeamFinder();
+        }
+        return seamFinder;
+    }
+
+    /**
+     * Returns a buffer of the arena holding at least the given number of ints, growing it to exactly
+     * that length if it is shorter. The contents are whatever the buffer was last used for.
+     *
+     * @param buffer The buffer.
+     * @param length The number of ints needed.
+     * @return The buffer, which may be longer than needed.
+     */
+    public int[] ints(Buffer buffer, int length) {
+        return ints(buffer, length, null);
+    }
+
+    /**
+     * Returns a buffer of the arena holding at least the given number of ints, as ints(buffer, length)
+     * does, and notes who asked for it, so they can tell later with holds whether it was used since.
+     *
+     * @param buffer The buffer.
+     * @param length The number of ints needed.
+     * @param holder The object asking for the buffer.
+     * @return The buffer, which may be longer than needed.
+     */
+    public int[] ints(Buffer buffer, int length, Object holder) {
+        holders[buffer.ordinal()] = holder;
+        int[] ints = buffers[buffer.ordinal()];
+        if (ints.length < length) {
+            ints = new int[length];
+            buffers[buffer.ordinal()] = ints;
+            grownBytes += (long) length * Integer.BYTES;
+        }
+        return ints;
+    }
+
+    /**
+     * Returns whether the given object was the last to ask for a buffer, so what it put in the buffer is
+     * still there.
+     *
+     * @param buffer The buffer.
+     * @param holder The object that asked for the buffer.
+     * @return Whether nobody else asked for the buffer since.
+     */
+    public boolean holds(Buffer buffer, Object holder) {
+        return holders[buffer.ordinal()] == holder;
+    }
+
+    /**
+     * Returns the number of bytes the buffers of the arena have allocated as they grew, not counting the
+     * tables of its seam finder. This stops growing once the largest image has been seen.
+     *
+     * @return The number of bytes.
+     */
+    public long getGrownBytes() {
+        return grownBytes;
+    }
+
+    /**
+     * Returns the number of bytes the current thread has allocated on the heap since it started, as counted
+     * by the JVM. The difference between two calls is what the code in between allocated, which shows
+     * whether a hot path allocates at all.
+     *
+     * @return The number of bytes, or -1 if the JVM does not count allocations.
+     */
+    public static long threadAllocatedBytes() {
+        return ALLOCATIONS == null ? -1 : ALLOCATIONS.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Returns the bean reading the number of bytes each thread has allocated, with that count switched on.
+     *
+     * @return The bean, or null if the JVM cannot count allocations.
+     */
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean allocations
+                && allocations.isThreadAllocatedMemorySupported()) {
+            allocations.setThreadAllocatedMemoryEnabled(true);
+            return allocations;
+        }
+        return null;
+    }
+}
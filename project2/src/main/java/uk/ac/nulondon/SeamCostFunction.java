@@ -0,0 +1,74 @@
+package uk.ac.nulondon;
+
+/**
+ * The SeamCostFunction interface decides the cost of the pixels of an image for a seam search.
+ *
+ * The costs are asked for one line of the image at a time: a row when searching for a vertical seam,
+ * or a column when searching for a horizontal one. Each line is filled by one call, so the dynamic
+ * programming loop of the SeamFinder never calls back into the function for a single pixel.
+ *
+ * A function can also give each pixel transition costs that depend on where the seam comes from:
+ * the extra cost of continuing from the pixel before it on the left, or on the right, in the previous
+ * line. The finder then uses its kernel with three costs per pixel; functions without transition costs
+ * use the kernel with one.
+ */
+public interface SeamCostFunction {
+    /**
+     * Fills the given array with the cost of each pixel in part of a line of the image.
+     * Different parts of the same line may be filled at the same time by different threads.
+     *
+     * @param store The store holding the pixels of the image.
+     * @param horizontal Whether the seam is horizontal, so that the line is a column.
+     * @param line The index of the row, or of the column for a horizontal seam.
+     * @param from The first pixel of the line to fill.
+     * @param to The pixel after the last pixel to fill.
+     * @param costs The array to fill, indexed by the position of the pixel in the line.
+     */
+    void fillCosts(PixelStore store, boolean horizontal, int line, int from, int to, int[] costs);
+
+    /**
+     * Fills the given arrays with the extra cost of reaching each pixel in part of a line of the image
+     * diagonally, from the pixel before or after it in the previous line.
+     * Only called for functions that have transition costs, after fillCosts for the same part of the line.
+     *
+     * @param store The store holding the pixels of the image.
+     * @param horizontal Whether the seam is horizontal, so that the line is a column.
+     * @param line The index of the row, or of the column for a horizontal seam.
+     * @param from The first pixel of the line to fill.
+     * @param to The pixel after the last pixel to fill.
+     * @param leftCosts The array to fill with the extra cost of reaching each pixel from the pixel before it.
+     * @param rightCosts The array to fill with the extra cost of reaching each pixel from the pixel after it.
+     */
+    default void fillTransitionCosts(PixelStore store, boolean horizontal, int line, int from, int to,
+                                     int[] leftCosts, int[] rightCosts) {
+    }
+
+    /**
+     * Returns whether the cost of a pixel depends on which pixel of the previous line the seam comes from.
+     *
+     * @return True if the function fills transition costs.
+     */
+    default boolean hasTransitionCosts() {
+        return false;
+    }
+
+    /**
+     * Returns whether the seam with the highest total cost is wanted, rather than the lowest.
+     *
+     * @return True to find the seam with the highest total cost.
+     */
+    default boolean isMaximized() {
+        return false;
+    }
+
+    /**
+     * Returns whether the cost of each pixel only depends on the pixel itself and its energy, so that
+     * removing a seam only changes the costs of the pixels whose energy it changes. The seam finder can
+     * then reuse most of its previous search after a seam is removed.
+     *
+     * @return True if the costs are local to each pixel.
+     */
+    default boolean isLocal() {
+        return false;
+    }
+}
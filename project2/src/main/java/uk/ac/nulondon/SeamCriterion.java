@@ -0,0 +1,108 @@
+package uk.ac.nulondon;
+
+/**
+ * The SeamCriterion enum lists the built-in ways a seam can be chosen for removal.
+ * Each criterion is a SeamCostFunction that fills its costs straight from the PixelStore.
+ */
+public enum SeamCriterion implements SeamCostFunction {
+    /**
+     * Choose the seam with the lowest total energy.
+     */
+    LOWEST_ENERGY {
+        @Override
+        public void fillCosts(PixelStore store, boolean horizontal, int line, int from, int to, int[] costs) {
+            if (horizontal) {
+                store.fillEnergyColumn(line, from, to, costs);
+            } else {
+                store.fillEnergyRow(line, from, to, costs);
+            }
+        }
+
+        @Override
+        public boolean isLocal() {
+            return true;
+        }
+    },
+
+    /**
+     * Choose the seam with the highest total blueness.
+     */
+    BLUEST {
+        @Override
+        public void fillCosts(PixelStore store, boolean horizontal, int line, int from, int to, int[] costs) {
+            if (horizontal) {
+                store.fillBluenessColumn(line, from, to, costs);
+            } else {
+                store.fillBluenessRow(line, from, to, costs);
+            }
+        }
+
+        @Override
+        public boolean isLocal() {
+            return true;
+        }
+
+        @Override
+        public boolean isMaximized() {
+            return true;
+        }
+    },
+
+    /**
+     * Choose the seam with the lowest forward energy: the total difference in brightness across the
+     * new edges that removing the seam creates, between the pixels that become neighbours.
+     * This protects edges that a low energy seam would cut through.
+     */
+    FORWARD_ENERGY {
+        @Override
+        public void fillCosts(PixelStore store, boolean horizontal, int line, int from, int to, int[] costs) {
+            if (horizontal) {
+                store.fillForwardEnergyColumn(line, from, to, costs);
+            } else {
+                store.fillForwardEnergyRow(line, from, to, costs);
+            }
+        }
+
+        @Override
+        public void fillTransitionCosts(PixelStore store, boolean horizontal, int line, int from, int to,
+                                        int[] leftCosts, int[] rightCosts) {
+            if (horizontal) {
+                store.fillForwardTransitionColumn(line, from, to, leftCosts, rightCosts);
+            } else {
+                store.fillForwardTransitionRow(line, from, to, leftCosts, rightCosts);
+            }
+        }
+
+        @Override
+        public boolean hasTransitionCosts() {
+            return true;
+        }
+    };
+
+    /**
+     * Returns the criterion with the given name, ignoring case.
+     * Single letters are accepted as well: "e" for LOWEST_ENERGY, "b" for BLUEST and "f" for FORWARD_ENERGY.
+     *
+     * @param name The name of the criterion.
+     * @return The criterion with the given name.
+     * @throws IllegalArgumentException If no criterion has the given name.
+     */
+    public static SeamCriterion parse(String name) {
+        switch (name.toLowerCase()) {
+            case "e":
+            case "energy":
+            case "lowest_energy":
+                return LOWEST_ENERGY;
+            case "b":
+            case "blue":
+            case "bluest":
+                return BLUEST;
+            case "f":
+            case "forward":
+            case "forward_energy":
+                return FORWARD_ENERGY;
+            default:
+                throw new IllegalArgumentException("Unknown seam criterion: " + name);
+        }
+    }
+}
@@ -0,0 +1,803 @@
+package uk.ac.nulondon;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The SeamFinder class finds vertical seams in an image using dynamic programming.
+ * It can search for the seam with the lowest total cost or for the one with the highest,
+ * and both searches share the same minimizing core.
+ * Instead of copying the partial seam that ends at every pixel, it keeps a single rolling
+ * row of cumulative costs and a compact table of parent offsets (one byte per pixel).
+ * Once the last row has been processed, the seam is rebuilt by backtracking through the
+ * parent offsets, so one search runs in O(width * height) time.
+ * The scratch arrays are kept between calls and only grow when a larger image arrives.
+ *
+ * For costs that depend on which pixel of the row above a seam comes from, such as forward energy,
+ * a second kernel keeps three costs per pixel; the rest of the search is shared.
+ *
+ * The finder only sees "rows" of costs, so horizontal seams are found by supplying the
+ * columns of the image as rows; the image never has to be transposed.
+ *
+ * Given the previous row, every pixel of a row is independent of the others, so wide rows can be
+ * split into chunks of columns that are processed in parallel, with one barrier per row.
+ * Each pixel is computed exactly as it is sequentially, so both ways find the same seam.
+ */
+public class SeamFinder {
+    /**
+     * The default number of pixels in a row below which the row is processed sequentially.
+     * A row is much less work than a whole image pass, so this is far lower than for one.
+     */
+    public static final int DEFAULT_ROW_THRESHOLD = 4096;
+
+    /**
+     * The smallest number of columns processed as a separate task.
+     */
+    private static final int MIN_CHUNK = 512;
+
+    /**
+     * An incremental search recomputes every remaining row in full once the cells to recompute in a row
+     * cover more than 1 / WIDE_CONE_DIVISOR of it.
+     */
+    private static final int WIDE_CONE_DIVISOR = 2;
+
+    /**
+     * The cumulative cost of a pixel that no seam within the band can reach.
+     * It is low enough that adding the cost of a pixel to it cannot overflow.
+     */
+    private static final int UNREACHABLE = Integer.MAX_VALUE / 2;
+
+    /**
+     * The number of ends of the last row tried per seam wanted when extracting several seams at once.
+     */
+    private static final int ATTEMPTS_PER_SEAM = 8;
+
+    /**
+     * Supplies the cost of every pixel in a row of the image.
+     * The seam finder asks for one row at a time, so the costs never have to be stored
+     * for the whole image at once.
+     */
+    public interface CostRows {
+        /**
+         * Fills the given array with the cost of each pixel in part of the given row.
+         * Different parts of the same row may be filled at the same time by different threads.
+         *
+         * @param y The index of the row.
+         * @param from The first pixel to fill.
+         * @param to The pixel after the last pixel to fill.
+         * @param costs The array to fill, indexed by the position of the pixel in the row.
+         */
+        void fillRow(int y, int from, int to, int[] costs);
+    }
+
+    /**
+     * Supplies the cost of every pixel in a row of the image, together with the extra cost of
+     * reaching each pixel from the pixel above to the left or above to the right.
+     */
+    public interface TransitionCostRows {
+        /**
+         * Fills the given arrays with the costs of each pixel in part of the given row.
+         * Different parts of the same row may be filled at the same time by different threads.
+         *
+         * @param y The index of the row.
+         * @param from The first pixel to fill.
+         * @param to The pixel after the last pixel to fill.
+         * @param costs The array to fill with the cost of reaching each pixel from directly above.
+         * @param leftCosts The array to fill with the extra cost of reaching each pixel from above to the left.
+         * @param rightCosts The array to fill with the extra cost of reaching each pixel from above to the right.
+         */
+        void fillRow(int y, int from, int to, int[] costs, int[] leftCosts, int[] rightCosts);
+    }
+
+    /**
+     * Decides whether the rows are split across threads.
+     */
+    private Parallelism parallelism = Parallelism.SEQUENTIAL;
+
+    /**
+     * The cumulative cost of the cheapest seam ending at each pixel of the previous row.
+     */
+    private int[] previousCosts = new int[0];
+
+    /**
+     * The cumulative cost of the cheapest seam ending at each pixel of the current row.
+     */
+    private int[] currentCosts = new int[0];
+
+    /**
+     * The cost of each pixel in the row that is currently being processed.
+     */
+    private int[] rowCosts = new int[0];
+
+    /**
+     * The extra cost of reaching each pixel of the current row from above to the left.
+     */
+    private int[] leftCosts = new int[0];
+
+    /**
+     * The extra cost of reaching each pixel of the current row from above to the right.
+     */
+    private int[] rightCosts = new int[0];
+
+    /**
+     * The offset (-1, 0 or 1) from each pixel to its parent in the row above.
+     * The table is stored row by row, with one byte per pixel.
+     */
+    private byte[] parents = new byte[0];
+
+    /**
+     * The distance between the first parent offsets of two neighbouring rows in the table.
+     * This is the width of the image the table was last filled for, which an incremental search keeps.
+     */
+    private int stride;
+
+    /**
+     * The cumulative cost of the cheapest seam ending at each pixel, row by row with the same stride as
+     * the parent offsets. Only filled by the searches that keep their table.
+     */
+    private int[] totals = new int[0];
+
+    /**
+     * The number of pixels whose cumulative cost was computed by the last search.
+     */
+    private long lastComputedCells;
+
+    /**
+     * The number of pixels in the image of the last search.
+     */
+    private long lastImageCells = 1;
+
+    /**
+     * The total cost of the last seam that was found.
+     */
+    private long lastSeamCost;
+
+    /**
+     * Whether each search writes its seam into the array of the last seam, if it is as long.
+     */
+    private boolean reuseSeams;
+
+    /**
+     * The array of the last seam that was found, reused by the next search while reuseSeams is on.
+     */
+    private int[] reusedSeam = new int[0];
+
+    /**
+     * Finds the seam with the lowest total cost.
+     *
+     * For each pixel, the cheapest seam ending at it continues the cheapest of the seams ending
+     * at the pixel above to the left, directly above, or above to the right (checked in that order,
+     * so the leftmost one wins a tie). In the last row, the rightmost pixel with the lowest total
+     * cost is chosen as the end of the seam.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param source The supplier of the cost of each pixel.
+     * @return The column of the seam in each row, from top to bottom.
+     */
+    public int[] findMinSeam(int width, int height, CostRows source) {
+        return findSeam(width, height, source, null, false, false);
+    }
+
+    /**
+     * Finds the seam with the highest total cost.
+     *
+     * The costs are negated as they are supplied, so the highest cost seam is found as
+     * the lowest cost seam of the negated costs. The leftmost parent wins a tie, and in the last row
+     * the leftmost pixel with the highest total cost is chosen as the end of the seam.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param source The supplier of the cost of each pixel.
+     * @return The column of the seam in each row, from top to bottom.
+     */
+    public int[] findMaxSeam(int width, int height, CostRows source) {
+        return findSeam(width, height, source, null, true, false);
+    }
+
+    /**
+     * Finds the seam with the lowest (or highest) total cost, where the cost of each pixel also
+     * depends on which pixel of the row above the seam comes from.
+     * The parents are checked in the same order as in findMinSeam, each with its own cost.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param source The supplier of the costs of each pixel.
+     * @param maximize Whether to find the seam with the highest total cost instead.
+     * @return The column of the seam in each row, from top to bottom.
+     */
+    public int[] findSeam(int width, int height, TransitionCostRows source, boolean maximize) {
+        return findSeam(width, height, null, source, maximize, false);
+    }
+
+    /**
+     * Finds the seam with the lowest (or highest) total cost, as findMinSeam (or findMaxSeam) does,
+     * and keeps the whole table of cumulative costs, so that updateSeam can reuse it once a vertical
+     * seam has been removed from the image.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param source The supplier of the cost of each pixel.
+     * @param maximize Whether to find the seam with the highest total cost instead.
+     * @return The column of the seam in each row, from top to bottom.
+     */
+    public int[] findSeamAndKeepTable(int width, int height, CostRows source, boolean maximize) {
+        return findSeam(width, height, source, null, maximize, true);
+    }
+
+    /**
+     * Finds up to the given number of seams that never cross or share a pixel, all from one table
+     * of cumulative costs, so that they can be removed together.
+     *
+     * The first seam is the one findMinSeam (or findMaxSeam) finds. The other ends of the last row are
+     * then tried from the cheapest: the seam ending there is rebuilt by following the parent offsets,
+     * but it has to stay strictly between the seams already taken on either side of it. Wherever its
+     * parent would break that, it moves to the cheapest other pixel of the row above that keeps it, and
+     * if there is none, the end is given up, along with the other ends between the same two seams.
+     * So the seams after the first are only approximately the cheapest ones, which is what makes a single
+     * search for several seams cheap.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param source The supplier of the cost of each pixel.
+     * @param maximize Whether to find the seams with the highest total cost instead.
+     * @param count The number of seams wanted, at least 1.
+     * @return The column of each seam in each row, from top to bottom, with the seams in order from left
+     *         to right. There are fewer than count seams if no more could be fitted in.
+     */
+    public int[][] findSeams(int width, int height, CostRows source, boolean maximize, int count) {
+        int[] first = findSeam(width, height, source, null, maximize, true);
+        return extractSeams(width, height, first, maximize, count);
+    }
+
+    /**
+     * Finds up to the given number of seams that never cross or share a pixel, as the other findSeams
+     * does, where the cost of each pixel also depends on which pixel of the row above the seam comes from.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param source The supplier of the costs of each pixel.
+     * @param maximize Whether to find the seams with the highest total cost instead.
+     * @param count The number of seams wanted, at least 1.
+     * @return The column of each seam in each row, with the seams in order from left to right.
+     */
+    public int[][] findSeams(int width, int height, TransitionCostRows source, boolean maximize, int count) {
+        int[] first = findSeam(width, height, null, source, maximize, true);
+        return extractSeams(width, height, first, maximize, count);
+    }
+
+    /**
+     * Extracts more seams from the table of totals, after the first one has been found.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param first The seam found by the search.
+     * @param negated Whether the costs were negated. If so, the leftmost of two equally cheap ends is tried
+     *                first; otherwise the rightmost is, as in the search itself.
+     * @param count The number of seams wanted.
+     * @return The seams, in order from left to right.
+     */
+    private int[][] extractSeams(int width, int height, int[] first, boolean negated, int count) {
+        // The seams taken so far, by their column in the last row
+        TreeMap<Integer, int[]> taken = new TreeMap<>();
+        taken.put(first[height - 1], first);
+        if (count > 1) {
+            // Sort the ends of the last row by their total, packing the tie-breaking order into the low bits
+            int lastRow = (height - 1) * stride;
+            long[] ends = new long[width];
+            for (int x = 0; x < width; x++) {
+                ends[x] = (long) totals[lastRow + x] << Integer.SIZE | (negated ? x : width - 1 - x);
+            }
+            Arrays.sort(ends);
+            // The gaps between two taken seams (or a seam and the edge) where a seam could not be fitted
+            HashSet<Long> blocked = new HashSet<>();
+            int attempts = count * ATTEMPTS_PER_SEAM;
+            for (int i = 0; i < width && taken.size() < count && attempts > 0; i++) {
+                int end = (int) ends[i];
+                end = negated ? end : width - 1 - end;
+                if (taken.containsKey(end)) {
+                    continue;
+                }
+                Map.Entry<Integer, int[]> left = taken.lowerEntry(end);
+                Map.Entry<Integer, int[]> right = taken.higherEntry(end);
+                // Skip the ends in a gap that already failed once, since the seams bounding it are the same
+                long gap = (long) (left == null ? -1 : left.getKey()) << Integer.SIZE
+                        | (right == null ? width : right.getKey());
+                if (blocked.contains(gap)) {
+                    continue;
+                }
+                attempts--;
+                int[] seam = backtrackBetween(end, height, left == null ? null : left.getValue(),
+                        right == null ? null : right.getValue());
+                if (seam != null) {
+                    taken.put(end, seam);
+                } else {
+                    blocked.add(gap);
+                }
+            }
+        }
+        return taken.values().toArray(new int[0][]);
+    }
+
+    /**
+     * Rebuilds a seam by following the parent offsets from the last row up to the first, keeping it
+     * strictly between two other seams. Where the parent of a pixel is not allowed, the cheapest allowed
+     * pixel of the row above is taken instead.
+     *
+     * @param end The column of the seam in the last row.
+     * @param height The height of the image.
+     * @param left The seam it must stay to the right of, or null for none.
+     * @param right The seam it must stay to the left of, or null for none.
+     * @return The column of the seam in each row, or null if it cannot be kept between the two seams.
+     */
+    private int[] backtrackBetween(int end, int height, int[] left, int[] right) {
+        int[] columns = new int[height];
+        columns[height - 1] = end;
+        for (int y = height - 1; y > 0; y--) {
+            int x = columns[y];
+            // The columns allowed in the row above
+            int low = left == null ? 0 : left[y - 1] + 1;
+            int high = right == null ? stride - 1 : right[y - 1] - 1;
+            int parent = x + parents[y * stride + x];
+            if (parent < low || parent > high) {
+                // Take the cheapest allowed pixel of the row above instead, if any
+                int rowAbove = (y - 1) * stride;
+                parent = -1;
+                for (int candidate = Math.max(x - 1, low); candidate <= Math.min(x + 1, high); candidate++) {
+                    if (parent < 0 || totals[rowAbove + candidate] < totals[rowAbove + parent]) {
+                        parent = candidate;
+                    }
+                }
+                if (parent < 0) {
+                    return null;
+                }
+            }
+            columns[y - 1] = parent;
+        }
+        return columns;
+    }
+
+    /**
+     * Finds the seam with the lowest total cost among the seams that stay within a band of columns
+     * in every row, such as the band around a seam found at a lower resolution.
+     *
+     * Only the pixels inside the band are supplied and computed, and a pixel can only continue a seam
+     * from the pixels of the row above that are inside the band of that row. The parents are checked
+     * in the same order as in findMinSeam, and the rightmost end with the lowest total cost wins, so a
+     * band covering every row in full finds the same seam as findMinSeam. The bands of neighbouring
+     * rows must overlap enough for a seam to run through all of them.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param source The supplier of the cost of each pixel. Only asked for the pixels inside the band.
+     * @param bandFrom The first column of the band, in each row.
+     * @param bandTo The column after the last column of the band, in each row.
+     * @return The column of the seam in each row, from top to bottom.
+     * @throws IllegalArgumentException If no seam runs through the band.
+     */
+    public int[] findMinSeamInBand(int width, int height, CostRows source, int[] bandFrom, int[] bandTo) {
+        ensureCapacity(width, height);
+        stride = width;
+        lastComputedCells = bandTo[0] - bandFrom[0];
+        lastImageCells = (long) width * height;
+        // The first row of cumulative costs is just the cost of each pixel in the band
+        source.fillRow(0, bandFrom[0], bandTo[0], previousCosts);
+        for (int y = 1; y < height; y++) {
+            relaxBandRow(y, bandFrom[y], bandTo[y], bandFrom[y - 1], bandTo[y - 1], source);
+            lastComputedCells += bandTo[y] - bandFrom[y];
+            int[] swap = previousCosts;
+            previousCosts = currentCosts;
+            currentCosts = swap;
+        }
+        // Choose the rightmost end with the lowest total cost, as findMinSeam does
+        int end = bandFrom[height - 1];
+        for (int x = end + 1; x < bandTo[height - 1]; x++) {
+            if (previousCosts[x] <= previousCosts[end]) {
+                end = x;
+            }
+        }
+        if (previousCosts[end] >= UNREACHABLE) {
+            throw new IllegalArgumentException("No seam runs through the band");
+        }
+        lastSeamCost = previousCosts[end];
+        return backtrack(end, height);
+    }
+
+    /**
+     * Computes the cumulative cost and the parent offset of the pixels in the band of a row,
+     * only continuing from the pixels in the band of the row above.
+     *
+     * @param y The index of the row.
+     * @param from The first column of the band of the row.
+     * @param to The column after the last column of the band of the row.
+     * @param aboveFrom The first column of the band of the row above.
+     * @param aboveTo The column after the last column of the band of the row above.
+     * @param source The supplier of the cost of each pixel.
+     */
+    private void relaxBandRow(int y, int from, int to, int aboveFrom, int aboveTo, CostRows source) {
+        source.fillRow(y, from, to, rowCosts);
+        int rowStart = y * stride;
+        for (int x = from; x < to; x++) {
+            byte offset = 0;
+            int best = UNREACHABLE;
+            // Start with the pixel above to the left if it is in the band
+            if (x - 1 >= aboveFrom && x - 1 < aboveTo) {
+                best = previousCosts[x - 1];
+                offset = -1;
+            }
+            // Only move to the pixel directly above if it is in the band and strictly cheaper
+            if (x >= aboveFrom && x < aboveTo && previousCosts[x] < best) {
+                best = previousCosts[x];
+                offset = 0;
+            }
+            // Only move to the pixel above to the right if it is in the band and strictly cheaper
+            if (x + 1 >= aboveFrom && x + 1 < aboveTo && previousCosts[x + 1] < best) {
+                best = previousCosts[x + 1];
+                offset = 1;
+            }
+            currentCosts[x] = best >= UNREACHABLE ? UNREACHABLE : rowCosts[x] + best;
+            parents[rowStart + x] = offset;
+        }
+    }
+
+    /**
+     * Finds the seam again after a vertical seam has been removed from the image, reusing the table
+     * kept by the last search. That search must have been findSeamAndKeepTable or updateSeam, for the
+     * same costs, on the image as it was before the seam was removed.
+     *
+     * A cell of the table can only change if its cost changed, if the seam passed next to it so that
+     * its parents are different pixels now, or if one of its parents changed. So each row only
+     * recomputes the cells whose cost changed, the cells next to the seam, and the cells below a
+     * changed cell of the row above: a cone that grows by one cell on each side per row, and stops
+     * growing where the recomputed totals turn out the same as before. The rest of each row is shifted
+     * over the removed pixel. Once the cone covers more than half of a row, the remaining rows are
+     * recomputed in full. Either way the seam found is exactly the one a full search would find.
+     *
+     * @param width The width of the image, after the seam was removed.
+     * @param height The height of the image.
+     * @param source The supplier of the cost of each pixel.
+     * @param maximize Whether to find the seam with the highest total cost instead.
+     * @param removed The column the removed seam was in, in each row.
+     * @param changedFrom The first column whose cost changed, in each row, after the seam was removed.
+     * @param changedTo The last column whose cost changed, in each row, or less than changedFrom if none did.
+     * @return The column of the seam in each row, from top to bottom.
+     */
+    public int[] updateSeam(int width, int height, CostRows source, boolean maximize, int[] removed,
+                            int[] changedFrom, int[] changedTo) {
+        lastComputedCells = 0;
+        lastImageCells = (long) width * height;
+        // The range of cells in the previous row whose total changed
+        int changedStart = Integer.MAX_VALUE;
+        int changedEnd = -1;
+        boolean full = false;
+        for (int y = 0; y < height; y++) {
+            int rowStart = y * stride;
+            // Shift the rest of the row over the removed pixel
+            int column = removed[y];
+            System.arraycopy(totals, rowStart + column + 1, totals, rowStart + column, width - column);
+            System.arraycopy(parents, rowStart + column + 1, parents, rowStart + column, width - column);
+            // Work out which cells have to be recomputed: those whose cost changed...
+            int from = changedFrom[y];
+            int to = changedTo[y];
+            if (y > 0) {
+                // ...those whose parents are different pixels now...
+                from = Math.min(from, Math.min(column, removed[y - 1] - 1));
+                to = Math.max(to, Math.max(column - 1, removed[y - 1]));
+                // ...and those below a changed cell of the row above
+                if (changedStart <= changedEnd) {
+                    from = Math.min(from, changedStart - 1);
+                    to = Math.max(to, changedEnd + 1);
+                }
+            }
+            from = Math.max(from, 0);
+            to = Math.min(to, width - 1);
+            if (full || (to - from + 1) * WIDE_CONE_DIVISOR > width) {
+                // The cone is too wide to be worth tracking, so recompute the rest of the image
+                full = true;
+                from = 0;
+                to = width - 1;
+            }
+            if (from > to) {
+                changedStart = Integer.MAX_VALUE;
+                changedEnd = -1;
+                continue;
+            }
+            recomputeCells(y, from, to + 1, width, source, maximize);
+            lastComputedCells += to - from + 1;
+            // Find the cells whose total actually changed, and store the new totals
+            changedStart = Integer.MAX_VALUE;
+            changedEnd = -1;
+            for (int x = from; x <= to; x++) {
+                if (currentCosts[x] != totals[rowStart + x]) {
+                    changedStart = Math.min(changedStart, x);
+                    changedEnd = x;
+                    totals[rowStart + x] = currentCosts[x];
+                }
+            }
+        }
+        return finishSearch(width, height, totals, (height - 1) * stride, maximize);
+    }
+
+    /**
+     * Recomputes the cumulative costs of part of a row into currentCosts, from the totals of the row above,
+     * and stores the parent offsets in the table.
+     *
+     * @param y The index of the row.
+     * @param from The first pixel to compute.
+     * @param to The pixel after the last pixel to compute.
+     * @param width The width of the image.
+     * @param source The supplier of the cost of each pixel.
+     * @param negated Whether to negate the costs.
+     */
+    private void recomputeCells(int y, int from, int to, int width, CostRows source, boolean negated) {
+        if (y == 0) {
+            source.fillRow(0, from, to, currentCosts);
+            for (int x = from; x < to && negated; x++) {
+                currentCosts[x] = -currentCosts[x];
+            }
+            return;
+        }
+        // Only the totals of the row above next to the cells are read
+        int above = Math.max(from - 1, 0);
+        System.arraycopy(totals, (y - 1) * stride + above, previousCosts, above, Math.min(to + 1, width) - above);
+        // Only full rows that are split allocate a task, as in findSeam
+        if (to - from == width && parallelism.isParallel(width) && width >= 2 * MIN_CHUNK) {
+            parallelism.forEach(width, width, MIN_CHUNK,
+                    (start, end) -> relaxRow(y, start, end, width, source, negated));
+        } else {
+            relaxRow(y, from, to, width, source, negated);
+        }
+    }
+
+    /**
+     * Returns the fraction of the cumulative costs of the image that the last search computed.
+     * This is 1 for a full search; for updateSeam it is the size of the recomputed cone.
+     *
+     * @return The fraction of the cells computed, between 0 and 1.
+     */
+    public double getLastComputedFraction() {
+        return (double) lastComputedCells / lastImageCells;
+    }
+
+    /**
+     * Sets how the rows are split across threads.
+     * The threshold of the parallelism is compared with the number of pixels in a row.
+     *
+     * @param parallelism The parallelism to use, for example Parallelism.SEQUENTIAL.
+     */
+    public void setParallelism(Parallelism parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets whether each search writes its seam into the array of the last seam, as long as both are as
+     * long, rather than into a new array. A caller that turns this on must be done with a seam before the
+     * next search, or copy it. It is off by default.
+     *
+     * @param reuseSeams Whether to reuse the array of the last seam.
+     */
+    public void setReuseSeams(boolean reuseSeams) {
+        this.reuseSeams = reuseSeams;
+    }
+
+    /**
+     * Returns the total cost of the last seam that was found.
+     * For findMaxSeam this is the (positive) total of the original costs.
+     *
+     * @return The total cost of the last seam.
+     */
+    public long getLastSeamCost() {
+        return lastSeamCost;
+    }
+
+    /**
+     * Finds the seam with the lowest total cost.
+     * This is the core shared by the minimizing and maximizing searches.
+     *
+     * Each row is relaxed by one of two kernels: one for a single cost per pixel, and one for costs
+     * that depend on the parent, so the inner loop never has to check which kind of costs it has.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param source The supplier of the cost of each pixel, or null if the costs depend on the parent.
+     * @param transitions The supplier of the costs of each pixel by parent, or null if source is used.
+     * @param negated Whether to negate the costs to find the highest cost seam. If so, the leftmost
+     *                end wins a tie in the last row; otherwise the rightmost end does.
+     * @param keepTable Whether to keep the cumulative cost of every pixel in the table of totals.
+     * @return The column of the seam in each row, from top to bottom.
+     */
+    private int[] findSeam(int width, int height, CostRows source, TransitionCostRows transitions,
+                           boolean negated, boolean keepTable) {
+        // Make sure the scratch arrays are large enough for this image
+        ensureCapacity(width, height);
+        if (keepTable && totals.length < width * height) {
+            totals = new int[width * height];
+        }
+        stride = width;
+        lastComputedCells = (long) width * height;
+        lastImageCells = lastComputedCells;
+        // The first row of cumulative costs is just the cost of each pixel
+        parallelism.forEach(width, width, MIN_CHUNK, (from, to) -> {
+            if (source != null) {
+                source.fillRow(0, from, to, previousCosts);
+            } else {
+                transitions.fillRow(0, from, to, previousCosts, leftCosts, rightCosts);
+            }
+            if (negated) {
+                for (int x = from; x < to; x++) {
+                    previousCosts[x] = -previousCosts[x];
+                }
+            }
+        });
+        if (keepTable) {
+            System.arraycopy(previousCosts, 0, totals, 0, width);
+        }
+
+        // Process the remaining rows of pixels, splitting wide rows into chunks of columns
+        boolean split = parallelism.isParallel(width) && width >= 2 * MIN_CHUNK;
+        for (int y = 1; y < height; y++) {
+            int row = y;
+            if (!split && source != null) {
+                // Rows that are not split are relaxed directly, so no task is allocated for each row
+                relaxRow(row, 0, width, width, source, negated);
+            } else if (!split) {
+                relaxTransitionRow(row, 0, width, width, transitions, negated);
+            } else if (source != null) {
+                parallelism.forEach(width, width, MIN_CHUNK,
+                        (from, to) -> relaxRow(row, from, to, width, source, negated));
+            } else {
+                parallelism.forEach(width, width, MIN_CHUNK,
+                        (from, to) -> relaxTransitionRow(row, from, to, width, transitions, negated));
+            }
+
+            if (keepTable) {
+                System.arraycopy(currentCosts, 0, totals, y * width, width);
+            }
+
+            // Prepare for the next row
+            int[] swap = previousCosts;
+            previousCosts = currentCosts;
+            currentCosts = swap;
+        }
+        return finishSearch(width, height, previousCosts, 0, negated);
+    }
+
+    /**
+     * Finds the end of the cheapest seam in the last row of cumulative costs, and rebuilds the seam.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param lastRow The array holding the cumulative costs of the last row.
+     * @param offset The index of the first cumulative cost of the last row in the array.
+     * @param negated Whether the costs were negated. If so, the leftmost end wins a tie;
+     *                otherwise the rightmost end does.
+     * @return The column of the seam in each row, from top to bottom.
+     */
+    private int[] finishSearch(int width, int height, int[] lastRow, int offset, boolean negated) {
+        int end = 0;
+        for (int x = 1; x < width; x++) {
+            int cost = lastRow[offset + x];
+            int best = lastRow[offset + end];
+            if (cost < best || !negated && cost == best) {
+                end = x;
+            }
+        }
+        lastSeamCost = negated ? -(long) lastRow[offset + end] : lastRow[offset + end];
+        return backtrack(end, height);
+    }
+
+    /**
+     * Computes the cumulative cost and the parent offset of the pixels in part of a row.
+     * Only the previous row of cumulative costs is read, so different parts of a row can be
+     * computed at the same time.
+     *
+     * @param y The index of the row.
+     * @param from The first pixel to compute.
+     * @param to The pixel after the last pixel to compute.
+     * @param width The width of the image.
+     * @param source The supplier of the cost of each pixel.
+     * @param negated Whether to negate the costs.
+     */
+    private void relaxRow(int y, int from, int to, int width, CostRows source, boolean negated) {
+        source.fillRow(y, from, to, rowCosts);
+        int rowStart = y * stride;
+        for (int x = from; x < to; x++) {
+            // Start with the pixel above to the left, or directly above on the left edge
+            byte offset = x > 0 ? (byte) -1 : (byte) 0;
+            int best = previousCosts[x + offset];
+            // Only move to the pixel directly above if it is strictly cheaper
+            if (previousCosts[x] < best) {
+                best = previousCosts[x];
+                offset = 0;
+            }
+            // Only move to the pixel above to the right if it is strictly cheaper
+            if (x < width - 1 && previousCosts[x + 1] < best) {
+                best = previousCosts[x + 1];
+                offset = 1;
+            }
+            currentCosts[x] = (negated ? -rowCosts[x] : rowCosts[x]) + best;
+            parents[rowStart + x] = offset;
+        }
+    }
+
+    /**
+     * Computes the cumulative cost and the parent offset of the pixels in part of a row, where the
+     * cost of each pixel depends on its parent. The parents are checked in the same order as in relaxRow.
+     *
+     * @param y The index of the row.
+     * @param from The first pixel to compute.
+     * @param to The pixel after the last pixel to compute.
+     * @param width The width of the image.
+     * @param transitions The supplier of the costs of each pixel by parent.
+     * @param negated Whether to negate the costs.
+     */
+    private void relaxTransitionRow(int y, int from, int to, int width, TransitionCostRows transitions,
+                                    boolean negated) {
+        transitions.fillRow(y, from, to, rowCosts, leftCosts, rightCosts);
+        int sign = negated ? -1 : 1;
+        int rowStart = y * stride;
+        for (int x = from; x < to; x++) {
+            // Start with the pixel directly above, which every pixel has
+            byte offset = 0;
+            int best = previousCosts[x];
+            // Start with the pixel above to the left instead unless the left edge is reached
+            if (x > 0) {
+                int left = previousCosts[x - 1] + sign * leftCosts[x];
+                // The pixel to the left is checked first, so it wins a tie with the pixel above
+                if (left <= best) {
+                    best = left;
+                    offset = -1;
+                }
+            }
+            // Only move to the pixel above to the right if it is strictly cheaper
+            if (x < width - 1) {
+                int right = previousCosts[x + 1] + sign * rightCosts[x];
+                if (right < best) {
+                    best = right;
+                    offset = 1;
+                }
+            }
+            currentCosts[x] = sign * rowCosts[x] + best;
+            parents[rowStart + x] = offset;
+        }
+    }
+
+    /**
+     * Rebuilds a seam by following the parent offsets from the last row up to the first.
+     *
+     * @param end The column of the seam in the last row.
+     * @param height The height of the image.
+     * @return The column of the seam in each row, from top to bottom.
+     */
+    private int[] backtrack(int end, int height) {
+        // Reuse the array of the last seam if it is as long, so carving at a fixed height allocates nothing
+        int[] columns = reuseSeams && reusedSeam.length == height ? reusedSeam : new int[height];
+        reusedSeam = columns;
+        columns[height - 1] = end;
+        for (int y = height - 1; y > 0; y--) {
+            columns[y - 1] = columns[y] + parents[y * stride + columns[y]];
+        }
+        return columns;
+    }
+
+    /**
+     * Grows the scratch arrays if they are too small for an image of the given size.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     */
+    private void ensureCapacity(int width, int height) {
+        if (previousCosts.length < width) {
+            previousCosts = new int[width];
+            currentCosts = new int[width];
+            rowCosts = new int[width];
+            leftCosts = new int[width];
+            rightCosts = new int[width];
+        }
+        if (parents.length < width * height) {
+            parents = new byte[width * height];
+        }
+    }
+}
@@ -0,0 +1,527 @@
+package uk.ac.nulondon;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * The SeamHistory class is the undo stack of the seams removed from an image.
+ *
+ * Each removed seam is kept as one packed record instead of a list of Pixel objects: for each row of a
+ * vertical seam (or each column of a horizontal seam), the position the pixel was removed from, its
+ * physical index in the store and its original packed ARGB color. Neighbouring entries of a seam are
+ * close to each other, so each value is stored as a variable-length delta from the previous entry:
+ * positions and physical indexes as zig-zag encoded differences, and colors XORed with the previous
+ * color, which is zero for flat regions. A typical seam takes three to six bytes per pixel.
+ *
+ * The records held in memory are bounded by a memory limit. When the limit is exceeded, the oldest
+ * records are appended to a temporary spill file if a spill directory is set, or dropped otherwise.
+ * Spilled records are read back, newest first, once the records in memory have all been undone.
+ * Dropped records can no longer be undone.
+ */
+public final class SeamHistory implements AutoCloseable {
+    /**
+     * The default memory limit of the records held in memory (64 MB).
+     */
+    public static final long DEFAULT_MEMORY_LIMIT = 67_108_864L;
+
+    /**
+     * The estimated number of bytes a record takes up besides its packed bytes.
+     */
+    private static final int RECORD_OVERHEAD = 32;
+
+    /**
+     * The number of bits of a value stored in each byte of a variable-length integer.
+     */
+    private static final int VARINT_BITS = 7;
+
+    /**
+     * The bits of a value stored in each byte of a variable-length integer.
+     */
+    private static final int VARINT_MASK = 0x7F;
+
+    /**
+     * The bit of a byte of a variable-length integer that is set when more bytes follow.
+     */
+    private static final int VARINT_MORE = 0x80;
+
+    /**
+     * The largest number of bytes a variable-length int takes up.
+     */
+    private static final int MAX_VARINT_BYTES = 5;
+
+    /**
+     * The largest number of bytes an entry of a record takes up: three variable-length ints.
+     */
+    private static final int MAX_ENTRY_BYTES = 3 * MAX_VARINT_BYTES;
+
+    /**
+     * The number of spill offsets room is first made for.
+     */
+    private static final int INITIAL_SPILL_CAPACITY = 16;
+
+    /**
+     * The flag byte of a record of a horizontal seam.
+     */
+    private static final byte HORIZONTAL = 1;
+
+    /**
+     * The distance between the physical indexes of two pixels in neighbouring rows of the same column.
+     */
+    private final int stride;
+
+    /**
+     * The packed records held in memory, the oldest first.
+     */
+    private final ArrayDeque<byte[]> records = new ArrayDeque<>();
+
+    /**
+     * The number of bytes the records held in memory take up, with their overhead.
+     */
+    private long memoryBytes;
+
+    /**
+     * The largest number of bytes the records held in memory may take up.
+     */
+    private long memoryLimit = DEFAULT_MEMORY_LIMIT;
+
+    /**
+     * The directory to create the spill file in, or null to drop the oldest records instead.
+     */
+    private Path spillDirectory;
+
+    /**
+     * The spill file, or null if no record has been spilled yet.
+     */
+    private Path spillFile;
+
+    /**
+     * The channel of the spill file, or null if no record has been spilled yet.
+     */
+    private FileChannel spillChannel;
+
+    /**
+     * The offset in the spill file of each spilled record, the oldest first.
+     */
+    private long[] spillOffsets = new long[0];
+
+    /**
+     * The number of records in the spill file.
+     */
+    private int spilled;
+
+    /**
+     * The number of records that were dropped to stay within the memory limit.
+     */
+    private long dropped;
+
+    /**
+     * The scratch buffer records are packed into before they are copied to their exact size.
+     */
+    private byte[] scratch = new byte[0];
+
+    /**
+     * The last record, unpacked, or null if it has not been unpacked since it changed.
+     */
+    private Entry last;
+
+    /**
+     * Constructs a new SeamHistory for the seams of a store, which drops the oldest records
+     * once the default memory limit is reached.
+     *
+     * @param stride The distance between the physical indexes of two neighbouring rows of the store.
+     */
+    public SeamHistory(int stride) {
+        this.stride = stride;
+    }
+
+    /**
+     * Sets the largest number of bytes the records held in memory may take up.
+     * Records over the new limit are spilled or dropped straight away.
+     *
+     * @param memoryLimit The memory limit, in bytes.
+     * @throws IOException If the records cannot be written to the spill file.
+     */
+    public void setMemoryLimit(long memoryLimit) throws IOException {
+        this.memoryLimit = memoryLimit;
+        enforceLimit();
+    }
+
+    /**
+     * Sets the directory to create the spill file in. Once the memory limit is reached, the oldest
+     * records are written to the spill file if a directory is set, or dropped if it is null.
+     *
+     * @param spillDirectory The directory, or null to drop the oldest records.
+     */
+    public void setSpillDirectory(Path spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Records a removed seam.
+     *
+     * @param horizontal Whether the seam is horizontal.
+     * @param positions The column of a vertical seam in each row, or the row of a horizontal seam in each column.
+     * @param physicalIndexes The physical index of each pixel of the seam.
+     * @param colors The original packed ARGB color of each pixel of the seam.
+     * @throws IOException If older records cannot be written to the spill file.
+     */
+    public void push(boolean horizontal, int[] positions, int[] physicalIndexes, int[] colors) throws IOException {
+        byte[] record = pack(horizontal, positions, physicalIndexes, colors);
+        records.addLast(record);
+        memoryBytes += record.length + RECORD_OVERHEAD;
+        last = null;
+        enforceLimit();
+    }
+
+    /**
+     * Returns the last removed seam, without removing it from the history.
+     *
+     * @return The last removed seam, or null if there is none left to undo.
+     * @throws IOException If the record cannot be read from the spill file.
+     */
+    public Entry peek() throws IOException {
+        if (last == null) {
+            if (!records.isEmpty()) {
+                last = unpack(records.peekLast());
+            } else if (spilled > 0) {
+                last = unpack(readSpilled());
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Removes the last removed seam from the history and returns it.
+     *
+     * @return The last removed seam, or null if there is none left to undo.
+     * @throws IOException If the record cannot be read from the spill file.
+     */
+    public Entry pop() throws IOException {
+        Entry entry = peek();
+        if (entry == null) {
+            return null;
+        }
+        if (!records.isEmpty()) {
+            memoryBytes -= records.removeLast().length + RECORD_OVERHEAD;
+        } else {
+            // Cut the record off the end of the spill file
+            spilled--;
+            spillChannel.truncate(spillOffsets[spilled]);
+        }
+        last = null;
+        return entry;
+    }
+
+    /**
+     * Returns the number of removed seams that can still be undone.
+     *
+     * @return The number of records in memory and in the spill file.
+     */
+    public int size() {
+        return records.size() + spilled;
+    }
+
+    /**
+     * Returns the number of bytes the records held in memory take up.
+     *
+     * @return The number of bytes, including an estimate of the overhead of each record.
+     */
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    /**
+     * Returns the number of records in the spill file.
+     *
+     * @return The number of spilled records.
+     */
+    public int getSpilledCount() {
+        return spilled;
+    }
+
+    /**
+     * Returns the number of records that were dropped to stay within the memory limit.
+     *
+     * @return The number of dropped records.
+     */
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * Deletes the spill file, if there is one. The records held in memory are kept.
+     *
+     * @throws IOException If the spill file cannot be deleted.
+     */
+    @Override
+    public void close() throws IOException {
+        if (spillChannel != null) {
+            spillChannel.close();
+            Files.deleteIfExists(spillFile);
+            spillChannel = null;
+            spillFile = null;
+            spilled = 0;
+        }
+        last = null;
+    }
+
+    /**
+     * Spills or drops the oldest records held in memory until they fit within the memory limit.
+     * The newest record always stays in memory.
+     *
+     * @throws IOException If the records cannot be written to the spill file.
+     */
+    private void enforceLimit() throws IOException {
+        while (memoryBytes > memoryLimit && records.size() > 1) {
+            byte[] oldest = records.removeFirst();
+            memoryBytes -= oldest.length + RECORD_OVERHEAD;
+            if (spillDirectory == null) {
+                dropped++;
+            } else {
+                spill(oldest);
+            }
+        }
+    }
+
+    /**
+     * Appends a record to the spill file, after the records already spilled.
+     * Records are only spilled when no record in memory is older, so the file stays in order.
+     *
+     * @param record The packed record.
+     * @throws IOException If the record cannot be written.
+     */
+    private void spill(byte[] record) throws IOException {
+        if (spillChannel == null) {
+            spillFile = Files.createTempFile(spillDirectory, "seams", ".bin");
+            spillFile.toFile().deleteOnExit();
+            spillChannel = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        if (spilled == spillOffsets.length) {
+            spillOffsets = Arrays.copyOf(spillOffsets, Math.max(INITIAL_SPILL_CAPACITY, spilled * 2));
+        }
+        long offset = spillChannel.size();
+        spillOffsets[spilled++] = offset;
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining()) {
+            spillChannel.write(buffer, offset + buffer.position());
+        }
+    }
+
+    /**
+     * Reads the newest record of the spill file.
+     *
+     * @return The packed record.
+     * @throws IOException If the record cannot be read.
+     */
+    private byte[] readSpilled() throws IOException {
+        long offset = spillOffsets[spilled - 1];
+        ByteBuffer buffer = ByteBuffer.allocate((int) (spillChannel.size() - offset));
+        while (buffer.hasRemaining()) {
+            if (spillChannel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("The spill file " + spillFile + " is truncated");
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Packs a removed seam into a record.
+     *
+     * @param horizontal Whether the seam is horizontal.
+     * @param positions The position of the seam in each row or column.
+     * @param physicalIndexes The physical index of each pixel of the seam.
+     * @param colors The original packed ARGB color of each pixel of the seam.
+     * @return The packed record, of its exact size.
+     */
+    private byte[] pack(boolean horizontal, int[] positions, int[] physicalIndexes, int[] colors) {
+        int length = positions.length;
+        int capacity = 1 + MAX_VARINT_BYTES + length * MAX_ENTRY_BYTES;
+        if (scratch.length < capacity) {
+            scratch = new byte[capacity];
+        }
+        // The physical index of the next pixel of a vertical seam is about one row further on
+        int step = horizontal ? 1 : stride;
+        scratch[0] = horizontal ? HORIZONTAL : 0;
+        int at = writeVarint(scratch, 1, length);
+        int position = 0;
+        int physicalIndex = -step;
+        int color = 0;
+        for (int i = 0; i < length; i++) {
+            at = writeVarint(scratch, at, zigZag(positions[i] - position));
+            at = writeVarint(scratch, at, zigZag(physicalIndexes[i] - physicalIndex - step));
+            at = writeVarint(scratch, at, colors[i] ^ color);
+            position = positions[i];
+            physicalIndex = physicalIndexes[i];
+            color = colors[i];
+        }
+        return Arrays.copyOf(scratch, at);
+    }
+
+    /**
+     * Unpacks a record into a removed seam.
+     *
+     * @param record The packed record.
+     * @return The removed seam.
+     */
+    private Entry unpack(byte[] record) {
+        boolean horizontal = record[0] == HORIZONTAL;
+        int step = horizontal ? 1 : stride;
+        int[] cursor = {1};
+        int length = readVarint(record, cursor);
+        int[] positions = new int[length];
+        int[] physicalIndexes = new int[length];
+        int[] colors = new int[length];
+        int position = 0;
+        int physicalIndex = -step;
+        int color = 0;
+        for (int i = 0; i < length; i++) {
+            position += unZigZag(readVarint(record, cursor));
+            physicalIndex += unZigZag(readVarint(record, cursor)) + step;
+            color ^= readVarint(record, cursor);
+            positions[i] = position;
+            physicalIndexes[i] = physicalIndex;
+            colors[i] = color;
+        }
+        return new Entry(horizontal, positions, physicalIndexes, colors);
+    }
+
+    /**
+     * Maps a signed int to an unsigned one, so that values close to zero have few significant bits.
+     *
+     * @param value The signed value.
+     * @return The zig-zag encoded value.
+     */
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> (Integer.SIZE - 1));
+    }
+
+    /**
+     * Maps a zig-zag encoded int back to the signed value.
+     *
+     * @param value The zig-zag encoded value.
+     * @return The signed value.
+     */
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes an int, taken as unsigned, as a variable-length integer of 7 bits per byte.
+     *
+     * @param bytes The array to write to.
+     * @param at The index to write at.
+     * @param value The value.
+     * @return The index after the last byte written.
+     */
+    private static int writeVarint(byte[] bytes, int at, int value) {
+        while ((value & ~VARINT_MASK) != 0) {
+            bytes[at++] = (byte) (value & VARINT_MASK | VARINT_MORE);
+            value >>>= VARINT_BITS;
+        }
+        bytes[at++] = (byte) value;
+        return at;
+    }
+
+    /**
+     * Reads a variable-length integer of 7 bits per byte.
+     *
+     * @param bytes The array to read from.
+     * @param cursor The index to read at, in a one-element array that is moved past the bytes read.
+     * @return The value.
+     */
+    private static int readVarint(byte[] bytes, int[] cursor) {
+        int at = cursor[0];
+        int value = 0;
+        for (int shift = 0;; shift += VARINT_BITS) {
+            byte b = bytes[at++];
+            value |= (b & VARINT_MASK) << shift;
+            if ((b & VARINT_MORE) == 0) {
+                break;
+            }
+        }
+        cursor[0] = at;
+        return value;
+    }
+
+    /**
+     * The Entry class is an unpacked record of a removed seam.
+     */
+    public static final class Entry {
+        /**
+         * Whether the seam is horizontal.
+         */
+        private final boolean horizontal;
+
+        /**
+         * The column of a vertical seam in each row, or the row of a horizontal seam in each column.
+         */
+        private final int[] positions;
+
+        /**
+         * The physical index of each pixel of the seam.
+         */
+        private final int[] physicalIndexes;
+
+        /**
+         * The original packed ARGB color of each pixel of the seam.
+         */
+        private final int[] colors;
+
+        /**
+         * Constructs a new Entry.
+         *
+         * @param horizontal Whether the seam is horizontal.
+         * @param positions The position of the seam in each row or column.
+         * @param physicalIndexes The physical index of each pixel of the seam.
+         * @param colors The original packed ARGB color of each pixel of the seam.
+         */
+        private Entry(boolean horizontal, int[] positions, int[] physicalIndexes, int[] colors) {
+            this.horizontal = horizontal;
+            this.positions = positions;
+            this.physicalIndexes = physicalIndexes;
+            this.colors = colors;
+        }
+
+        /**
+         * Returns whether the seam is horizontal.
+         *
+         * @return True if the seam is horizontal.
+         */
+        public boolean isHorizontal() {
+            return horizontal;
+        }
+
+        /**
+         * Returns the position of the seam in each row or column.
+         *
+         * @return The column of a vertical seam in each row, or the row of a horizontal seam in each column.
+         */
+        public int[] getPositions() {
+            return positions;
+        }
+
+        /**
+         * Returns the physical index of each pixel of the seam.
+         *
+         * @return The physical indexes.
+         */
+        public int[] getPhysicalIndexes() {
+            return physicalIndexes;
+        }
+
+        /**
+         * Returns the original color of each pixel of the seam.
+         *
+         * @return The packed ARGB colors.
+         */
+        public int[] getColors() {
+            return colors;
+        }
+    }
+}
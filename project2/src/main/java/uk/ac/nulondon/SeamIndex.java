@@ -0,0 +1,207 @@
+package uk.ac.nulondon;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The SeamIndex class records the order in which the vertical seams of an image were removed,
+ * so the image can be retargeted to any width down to a minimum width without carving it again.
+ *
+ * For each pixel of the original image, the index holds the step at which the pixel was removed,
+ * or KEPT if it was still there at the minimum width. Carving to a width removes exactly the seams
+ * of the first (original width - width) steps, so the carved image is made of the pixels removed at a
+ * later step, in their original order. Each row loses one pixel per step, so every row of the
+ * result has the same width. Retargeting is a single pass over the pixels, with no energy or seam search.
+ *
+ * The index can be written to a compact sidecar file and read back later: a small header followed
+ * by the step of each pixel as a 16-bit value, deflated.
+ */
+public final class SeamIndex {
+    /**
+     * The step of a pixel that was not removed before the minimum width was reached.
+     */
+    public static final char KEPT = Character.MAX_VALUE;
+
+    /**
+     * The largest number of seams an index can record.
+     */
+    public static final int MAX_STEPS = KEPT;
+
+    /**
+     * The magic number at the start of a sidecar file: "SEAM".
+     */
+    private static final int MAGIC = 0x5345414D;
+
+    /**
+     * The version of the sidecar file format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The width of the original image.
+     */
+    private final int width;
+
+    /**
+     * The height of the original image.
+     */
+    private final int height;
+
+    /**
+     * The smallest width the image can be retargeted to.
+     */
+    private final int minWidth;
+
+    /**
+     * The step at which each pixel of the original image was removed, row by row, or KEPT.
+     */
+    private final char[] steps;
+
+    /**
+     * Constructs a new SeamIndex.
+     *
+     * @param width The width of the original image.
+     * @param height The height of the original image.
+     * @param minWidth The smallest width the image can be retargeted to.
+     * @param steps The step at which each pixel of the original image was removed, row by row, or KEPT.
+     */
+    SeamIndex(int width, int height, int minWidth, char[] steps) {
+        if (steps.length != width * height) {
+            throw new IllegalArgumentException("Expected " + width * height + " steps, got " + steps.length);
+        }
+        this.width = width;
+        this.height = height;
+        this.minWidth = minWidth;
+        this.steps = steps;
+    }
+
+    /**
+     * Returns the width of the original image.
+     *
+     * @return The width of the original image.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the original image.
+     *
+     * @return The height of the original image.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the smallest width the image can be retargeted to.
+     *
+     * @return The minimum width.
+     */
+    public int getMinWidth() {
+        return minWidth;
+    }
+
+    /**
+     * Retargets the packed colors of the original image to the given width.
+     *
+     * @param argb The packed ARGB color of every pixel of the original image, row by row.
+     * @param targetWidth The width to retarget to, between the minimum and the original width.
+     * @return The packed colors of the carved image, row by row.
+     */
+    public int[] retarget(int[] argb, int targetWidth) {
+        if (argb.length != steps.length) {
+            throw new IllegalArgumentException("Expected " + steps.length + " colors, got " + argb.length);
+        }
+        if (targetWidth < minWidth || targetWidth > width) {
+            throw new IllegalArgumentException("Target width " + targetWidth
+                    + " is not between " + minWidth + " and " + width);
+        }
+        // Keep the pixels that were removed after the seams that have to be removed, or not at all
+        int firstKept = width - targetWidth;
+        int[] carved = new int[targetWidth * height];
+        int to = 0;
+        for (int i = 0; i < steps.length; i++) {
+            if (steps[i] >= firstKept) {
+                carved[to++] = argb[i];
+            }
+        }
+        return carved;
+    }
+
+    /**
+     * Retargets the original image to the given width.
+     *
+     * @param original The original image.
+     * @param targetWidth The width to retarget to, between the minimum and the original width.
+     * @return The carved image.
+     */
+    public BufferedImage retarget(BufferedImage original, int targetWidth) {
+        if (original.getWidth() != width || original.getHeight() != height) {
+            throw new IllegalArgumentException("The index is for a " + width + "x" + height + " image, not "
+                    + original.getWidth() + "x" + original.getHeight());
+        }
+        return RasterIO.wrapRgb(targetWidth, height, retarget(RasterIO.readArgb(original), targetWidth));
+    }
+
+    /**
+     * Writes the index to a sidecar file.
+     *
+     * @param file The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new DeflaterOutputStream(Files.newOutputStream(file))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(minWidth);
+            // Write the steps a row at a time
+            ByteBuffer row = ByteBuffer.allocate(width * Character.BYTES);
+            for (int y = 0; y < height; y++) {
+                row.clear();
+                row.asCharBuffer().put(steps, y * width, width);
+                out.write(row.array());
+            }
+        }
+    }
+
+    /**
+     * Reads an index from a sidecar file.
+     *
+     * @param file The file to read.
+     * @return The index.
+     * @throws IOException If the file cannot be read or is not a seam index.
+     */
+    public static SeamIndex read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a seam index: " + file);
+            }
+            int width = in.readInt();
+            int height = in.readInt();
+            int minWidth = in.readInt();
+            // Read the steps a row at a time
+            char[] steps = new char[width * height];
+            ByteBuffer row = ByteBuffer.allocate(width * Character.BYTES);
+            for (int y = 0; y < height; y++) {
+                in.readFully(row.array());
+                row.clear();
+                row.asCharBuffer().get(steps, y * width, width);
+            }
+            return new SeamIndex(width, height, minWidth, steps);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package uk.ac.nulondon;
+
+/**
+ * The SeamPyramid class finds low cost vertical seams in very large images from coarse to fine.
+ *
+ * The costs of the image are downsampled into a pyramid of levels, each half the width and half the
+ * height of the one below, by summing blocks of two by two pixels. The seam is found exactly at the
+ * coarsest level, which is small. At each finer level, the seam is then searched for again, but only
+ * within a band of columns around the seam of the level above, scaled up. So only the coarsest level
+ * and a narrow band of each finer level go through the dynamic programming, and the costs of the full
+ * image are only read once, to build the pyramid.
+ *
+ * The band width is a knob between speed and quality: the seam found is the cheapest one within the
+ * band, which is not always the cheapest seam of the image. A band as wide as the image finds exactly
+ * the seam findMinSeam finds.
+ *
+ * The levels are kept between calls and only grow when a larger image arrives.
+ */
+public class SeamPyramid {
+    /**
+     * The default number of columns searched on each side of the scaled up coarse seam.
+     */
+    public static final int DEFAULT_BAND = 4;
+
+    /**
+     * The smallest width or height of a level. Images smaller than twice this are searched exactly.
+     */
+    public static final int MIN_LEVEL_SIZE = 64;
+
+    /**
+     * The seam finder used at every level.
+     */
+    private final SeamFinder seamFinder;
+
+    /**
+     * Decides whether building the first level is split across threads.
+     */
+    private Parallelism parallelism = Parallelism.SEQUENTIAL;
+
+    /**
+     * The number of columns searched on each side of the scaled up coarse seam.
+     */
+    private int band = DEFAULT_BAND;
+
+    /**
+     * The costs of each level above the image, row by row. Level 1 is half the size of the image.
+     */
+    private int[][] levels = new int[0][];
+
+    /**
+     * The first column of the band of each row of the level being refined.
+     */
+    private int[] bandFrom = new int[0];
+
+    /**
+     * The column after the last column of the band of each row of the level being refined.
+     */
+    private int[] bandTo = new int[0];
+
+    /**
+     * The number of levels above the image used by the last search.
+     */
+    private int lastLevels;
+
+    /**
+     * Constructs a new SeamPyramid.
+     *
+     * @param seamFinder The seam finder used at every level.
+     */
+    public SeamPyramid(SeamFinder seamFinder) {
+        this.seamFinder = seamFinder;
+    }
+
+    /**
+     * Sets how building the first level of the pyramid is split across threads.
+     *
+     * @param parallelism The parallelism to use, for example Parallelism.SEQUENTIAL.
+     */
+    public void setParallelism(Parallelism parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets the number of columns searched on each side of the scaled up coarse seam.
+     * A wider band finds cheaper seams, and a narrower one finds them faster.
+     *
+     * @param band The number of columns, at least 1.
+     * @throws IllegalArgumentException If the band is less than 1.
+     */
+    public void setBand(int band) {
+        if (band < 1) {
+            throw new IllegalArgumentException("The band must be at least 1 column, not " + band);
+        }
+        this.band = band;
+    }
+
+    /**
+     * Returns the number of columns searched on each side of the scaled up coarse seam.
+     *
+     * @return The number of columns.
+     */
+    public int getBand() {
+        return band;
+    }
+
+    /**
+     * Returns the number of levels above the image that the last search went through.
+     * This is 0 if the image was too small for a pyramid and was searched exactly.
+     *
+     * @return The number of levels.
+     */
+    public int getLastLevels() {
+        return lastLevels;
+    }
+
+    /**
+     * Returns the total cost of the last seam that was found, at full resolution.
+     *
+     * @return The total cost of the last seam.
+     */
+    public long getLastSeamCost() {
+        return seamFinder.getLastSeamCost();
+    }
+
+    /**
+     * Finds a seam with a low total cost, from coarse to fine.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param source The supplier of the cost of each pixel.
+     * @return The column of the seam in each row, from top to bottom.
+     */
+    public int[] findMinSeam(int width, int height, SeamFinder.CostRows source) {
+        // Work out how many times the image can be halved
+        int count = 0;
+        while ((width >> (count + 1)) >= MIN_LEVEL_SIZE && (height >> (count + 1)) >= MIN_LEVEL_SIZE) {
+            count++;
+        }
+        lastLevels = count;
+        if (count == 0) {
+            return seamFinder.findMinSeam(width, height, source);
+        }
+        buildLevels(width, height, count, source);
+
+        // Find the seam exactly at the coarsest level
+        int[] seam = seamFinder.findMinSeam(levelSize(width, count), levelSize(height, count),
+                levelRows(count, levelSize(width, count)));
+        // Refine it within a band at each finer level, down to the image itself
+        for (int level = count - 1; level >= 0; level--) {
+            int levelWidth = levelSize(width, level);
+            int levelHeight = levelSize(height, level);
+            if (bandFrom.length < levelHeight) {
+                bandFrom = new int[levelHeight];
+                bandTo = new int[levelHeight];
+            }
+            for (int y = 0; y < levelHeight; y++) {
+                int center = seam[y >> 1] << 1;
+                bandFrom[y] = Math.max(center - band, 0);
+                bandTo[y] = Math.min(center + 2 + band, levelWidth);
+            }
+            SeamFinder.CostRows rows = level == 0 ? source : levelRows(level, levelWidth);
+            seam = seamFinder.findMinSeamInBand(levelWidth, levelHeight, rows, bandFrom, bandTo);
+        }
+        return seam;
+    }
+
+    /**
+     * Returns the width or height of a level of the pyramid.
+     *
+     * @param size The width or height of the image.
+     * @param level The level, 0 for the image itself.
+     * @return The width or height of the level, rounded up.
+     */
+    private static int levelSize(int size, int level) {
+        return (size + (1 << level) - 1) >> level;
+    }
+
+    /**
+     * Returns a supplier of the costs of a level above the image.
+     *
+     * @param level The level, at least 1.
+     * @param levelWidth The width of the level.
+     * @return The supplier of the cost of each pixel of the level.
+     */
+    private SeamFinder.CostRows levelRows(int level, int levelWidth) {
+        int[] costs = levels[level - 1];
+        return (y, from, to, row) -> System.arraycopy(costs, y * levelWidth + from, row, from, to - from);
+    }
+
+    /**
+     * Builds the levels of the pyramid above the image.
+     * The first level is built from the costs of the image, two rows at a time; each other level
+     * is built from the level below it.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param count The number of levels to build.
+     * @param source The supplier of the cost of each pixel of the image.
+     */
+    private void buildLevels(int width, int height, int count, SeamFinder.CostRows source) {
+        if (levels.length < count) {
+            int[][] grown = new int[count][];
+            System.arraycopy(levels, 0, grown, 0, levels.length);
+            levels = grown;
+        }
+        for (int level = 1; level <= count; level++) {
+            int size = levelSize(width, level) * levelSize(height, level);
+            if (levels[level - 1] == null || levels[level - 1].length < size) {
+                levels[level - 1] = new int[size];
+            }
+        }
+        // Build the first level from pairs of rows of the image, in parallel stripes of rows
+        int coarseWidth = levelSize(width, 1);
+        int[] first = levels[0];
+        parallelism.forEach(levelSize(height, 1), (long) width * height, (from, to) -> {
+            // Each stripe runs on one thread, so the rows come from the arena of that thread
+            ScratchArena arena = ScratchArena.forCurrentThread();
+            int[] top = arena.ints(ScratchArena.Buffer.PYRAMID_TOP, width);
+            int[] bottom = arena.ints(ScratchArena.Buffer.PYRAMID_BOTTOM, width);
+            for (int y = from; y < to; y++) {
+                source.fillRow(2 * y, 0, width, top);
+                // The last row of an image with an odd height is paired with itself
+                if (2 * y + 1 < height) {
+                    source.fillRow(2 * y + 1, 0, width, bottom);
+                } else {
+                    System.arraycopy(top, 0, bottom, 0, width);
+                }
+                downsampleRow(top, bottom, width, first, y * coarseWidth);
+            }
+        });
+        // Build each other level from the level below it
+        for (int level = 2; level <= count; level++) {
+            int[] below = levels[level - 2];
+            int[] costs = levels[level - 1];
+            int belowWidth = levelSize(width, level - 1);
+            int belowHeight = levelSize(height, level - 1);
+            int levelWidth = levelSize(width, level);
+            int[] top = ScratchArena.forCurrentThread().ints(ScratchArena.Buffer.PYRAMID_TOP, belowWidth);
+            int[] bottom = ScratchArena.forCurrentThread().ints(ScratchArena.Buffer.PYRAMID_BOTTOM, belowWidth);
+            for (int y = 0; y < levelSize(height, level); y++) {
+                System.arraycopy(below, 2 * y * belowWidth, top, 0, belowWidth);
+                int second = Math.min(2 * y + 1, belowHeight - 1);
+                System.arraycopy(below, second * belowWidth, bottom, 0, belowWidth);
+                downsampleRow(top, bottom, belowWidth, costs, y * levelWidth);
+            }
+        }
+    }
+
+    /**
+     * Sums blocks of two by two costs from two rows into one row of the level above, halved.
+     * A seam through a level has half as many rows as one through the level below, so halving the sums
+     * keeps the total cost of a seam in the same range at every level, while keeping a bit of the
+     * precision that averaging would round away on smooth images. The last column of a row with an odd
+     * width is paired with itself.
+     *
+     * @param top The upper row of costs.
+     * @param bottom The lower row of costs.
+     * @param width The width of the rows.
+     * @param costs The costs of the level above.
+     * @param offset The index of the first cost of the row in the level above.
+     */
+    private static void downsampleRow(int[] top, int[] bottom, int width, int[] costs, int offset) {
+        for (int x = 0; x < width; x += 2) {
+            int right = Math.min(x + 1, width - 1);
+            costs[offset + (x >> 1)] = (top[x] + top[right] + bottom[x] + bottom[right] + 1) >> 1;
+        }
+    }
+}
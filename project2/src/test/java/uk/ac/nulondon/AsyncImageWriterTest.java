@@ -0,0 +1,49 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+public class AsyncImageWriterTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void writesTheSnapshotTakenBeforeLaterEdits() throws Exception {
+        BufferedImage original = new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 10; y++) {
+            for (int x = 0; x < 20; x++) {
+                original.setRGB(x, y, x * 12 << 16 | y * 25 << 8 | (x + y) * 8);
+            }
+        }
+        File input = tempDir.resolve("input.png").toFile();
+        ImageIO.write(original, "png", input);
+        Image image = new Image(input.getPath());
+
+        File preview = tempDir.resolve("preview.png").toFile();
+        File last = tempDir.resolve("last.png").toFile();
+        AsyncImageWriter writer = new AsyncImageWriter();
+        writer.writePreview(preview, image.snapshot());
+        // Edits made after the snapshot must not show up in the file
+        ImageSnapshot beforeRemoval = image.snapshot();
+        image.removeSeam(image.findLowestEnergySeam());
+        Assertions.assertThat(writer.writeDurably(last, beforeRemoval).get()).isTrue();
+        writer.close();
+
+        BufferedImage written = ImageIO.read(last);
+        Assertions.assertThat(written.getWidth()).isEqualTo(20);
+        for (int y = 0; y < 10; y++) {
+            for (int x = 0; x < 20; x++) {
+                Assertions.assertThat(written.getRGB(x, y)).isEqualTo(original.getRGB(x, y));
+            }
+        }
+        Assertions.assertThat(tempDir.resolve("last.png.tmp")).doesNotExist();
+        Assertions.assertThat(writer.getSummary()).startsWith("2 images written");
+    }
+}
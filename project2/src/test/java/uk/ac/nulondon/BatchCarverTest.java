@@ -0,0 +1,141 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+public class BatchCarverTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void carvesEveryImageWithinTheMemoryBudget() throws IOException {
+        Path input = Files.createDirectories(tempDir.resolve("input"));
+        Random random = new Random(1);
+        for (int i = 0; i < 5; i++) {
+            BufferedImage img = new BufferedImage(30 + i, 20, BufferedImage.TYPE_INT_RGB);
+            for (int y = 0; y < 20; y++) {
+                for (int x = 0; x < 30 + i; x++) {
+                    img.setRGB(x, y, random.nextInt(0x1000000));
+                }
+            }
+            ImageIO.write(img, "png", input.resolve("image" + i + ".png").toFile());
+            if (i == 0) {
+                // The same name with another extension is written to a file of its own
+                ImageIO.write(img, "bmp", input.resolve("image0.bmp").toFile());
+            }
+        }
+        // A file that is not an image fails on its own
+        Files.writeString(input.resolve("broken.png"), "not an image");
+        List<Path> inputs = BatchCarver.listInputs(input.resolve("image*.png").toString());
+        Assertions.assertThat(inputs).hasSize(5);
+
+        // A budget smaller than one image lets a single image through at a time
+        BatchCarver carver = new BatchCarver(tempDir.resolve("output"), "20x18", SeamCriterion.LOWEST_ENERGY, 2, 1);
+        carver.setDecoders(1);
+        carver.setQueueCapacity(1);
+        BatchCarver.Summary summary = carver.run(BatchCarver.listInputs(input.toString()), null);
+
+        Assertions.assertThat(summary.getSucceeded()).isEqualTo(6);
+        Assertions.assertThat(summary.getFailed()).isEqualTo(1);
+        Assertions.assertThat(summary.getMaxImagesInMemory()).isEqualTo(1);
+        Assertions.assertThat(summary.getResults()).filteredOn(result -> result.getError() == null)
+                .extracting(result -> result.getOutput().getFileName().toString())
+                .containsExactlyInAnyOrder("image0.bmp.png", "image0.png.png", "image1.png", "image2.png",
+                        "image3.png", "image4.png");
+        Assertions.assertThat(summary.getResults()).filteredOn(result -> result.getError() == null)
+                .allSatisfy(result -> {
+                    BufferedImage written = ImageIO.read(result.getOutput().toFile());
+                    Assertions.assertThat(written.getWidth()).isEqualTo(20);
+                    Assertions.assertThat(written.getHeight()).isEqualTo(18);
+                    Assertions.assertThat(result.getSeams()).isEqualTo(result.getWidth() - 20 + 2);
+                });
+        Assertions.assertThat(summary.getImagesPerSecond()).isPositive();
+        // Every image, failed or not, went through each stage, whose queue held at most its capacity
+        // plus one image from each of the (at most two) threads handing images to it
+        Assertions.assertThat(summary.getStages()).extracting(PipelineStage::getName)
+                .containsExactly("decode", "carve", "encode");
+        Assertions.assertThat(summary.getStages()).allSatisfy(stage -> {
+            Assertions.assertThat(stage.getProcessed()).isEqualTo(7);
+            Assertions.assertThat(stage.getMaxQueueDepth()).isBetween(1, 3);
+            Assertions.assertThat(stage.getQueueDepth()).isZero();
+        });
+    }
+
+    @Test
+    @Timeout(60)
+    void aFailingStageStopsTheBatchAndIsRethrown() throws IOException {
+        Path input = Files.createDirectories(tempDir.resolve("input"));
+        for (int i = 0; i < 6; i++) {
+            ImageIO.write(new BufferedImage(30, 20, BufferedImage.TYPE_INT_RGB), "png",
+                    input.resolve("image" + i + ".png").toFile());
+        }
+        BatchCarver carver = new BatchCarver(tempDir.resolve("output"), "20x20", SeamCriterion.LOWEST_ENERGY, 2, 64);
+        carver.setQueueCapacity(1);
+        Assertions.assertThatThrownBy(() -> carver.setDecoders(0)).isInstanceOf(IllegalArgumentException.class);
+
+        // The listener runs in the encode stage, so throwing from it must not leave the others waiting
+        List<Path> inputs = BatchCarver.listInputs(input.toString());
+        Assertions.assertThatThrownBy(() -> carver.run(inputs, result -> {
+            throw new IllegalStateException("listener failed");
+        })).isInstanceOf(IllegalStateException.class).hasMessage("listener failed");
+    }
+
+    @Test
+    @Timeout(10)
+    void anAbortedPipelineHandsEveryItemItDropsToTheDropHandlers() throws InterruptedException {
+        List<Integer> done = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> dropped = Collections.synchronizedList(new ArrayList<>());
+        PipelineStage<Integer> last = new PipelineStage<>("last", 1, 2, done::add, null);
+        PipelineStage<Integer> failing = new PipelineStage<>("failing", 1, 2, item -> {
+            if (item == 5) {
+                throw new IllegalStateException("item " + item);
+            }
+        }, last);
+        PipelineStage<Integer> first = new PipelineStage<>("first", 2, 2, item -> { }, failing);
+        List<PipelineStage<Integer>> stages = List.of(first, failing, last);
+        for (PipelineStage<Integer> stage : stages) {
+            stage.setDropHandler(dropped::add);
+            stage.start();
+        }
+        int put = 0;
+        try {
+            for (; put < 100; put++) {
+                first.put(put);
+            }
+            first.finish();
+        } catch (CancellationException e) {
+            // The pipeline was aborted by the failing item
+        }
+        for (PipelineStage<Integer> stage : stages) {
+            stage.join();
+        }
+
+        // Every item put was either worked on to the end or dropped, and never both
+        Assertions.assertThat(failing.getFailure()).hasMessage("item 5");
+        Assertions.assertThat(dropped).contains(5).doesNotContainAnyElementsOf(done);
+        Assertions.assertThat(done.size() + dropped.size()).isEqualTo(put);
+    }
+
+    @Test
+    void everyInputGetsAnOutputNameOfItsOwn() {
+        // "a.jpg" and "a.png" share a stem, so they keep their extension, which "a.jpg.png" already has
+        Assertions.assertThat(BatchCarver.outputNames(List.of(Path.of("a.jpg"), Path.of("a.png"),
+                Path.of("a.jpg.png")))).containsExactly("a.jpg.png", "a.png.png", "a.jpg-1.png");
+        // Names differing only in case are the same file on some file systems
+        Assertions.assertThat(BatchCarver.outputNames(List.of(Path.of("A.png"), Path.of("a.png"),
+                Path.of("a.png-1.bmp")))).containsExactly("A.png.png", "a.png-2.png", "a.png-1.png");
+    }
+}
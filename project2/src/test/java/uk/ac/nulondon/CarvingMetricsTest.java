@@ -0,0 +1,83 @@
+package uk.ac.nulondon;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+
+public class CarvingMetricsTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void histogramPercentilesAreWithinABucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 1; nanos <= 1000; nanos++) {
+            histogram.record(nanos * 1000);
+        }
+        Assertions.assertThat(histogram.getCount()).isEqualTo(1000);
+        Assertions.assertThat(histogram.getMeanNanos()).isEqualTo(500_500.0);
+        Assertions.assertThat(histogram.getMaxNanos()).isEqualTo(1_000_000);
+        // A percentile is rounded up to the end of its bucket, at most an eighth above the exact one
+        Assertions.assertThat(histogram.getMedianNanos()).isBetween(500_000L, 562_500L);
+        Assertions.assertThat(histogram.getP99Nanos()).isBetween(990_000L, 1_000_000L);
+        histogram.reset();
+        Assertions.assertThat(histogram.getCount()).isZero();
+        Assertions.assertThat(histogram.getP99Nanos()).isZero();
+    }
+
+    @Test
+    void carvingIsTimedOverJmxJsonAndFlightRecorder() throws Exception {
+        Random random = new Random(1);
+        BufferedImage img = new BufferedImage(30, 20, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 20; y++) {
+            for (int x = 0; x < 30; x++) {
+                img.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        Path input = tempDir.resolve("input.png");
+        ImageIO.write(img, "png", input.toFile());
+        CarvingMetrics.registerMBeans();
+        long searches = CarvingMetrics.getHistogram(CarvingMetrics.Operation.SEAM_SEARCH).getCount();
+
+        Path recorded = tempDir.resolve("carving.jfr");
+        try (Recording recording = new Recording()) {
+            // Events that took no time, as they would if they were not begun with the operation, are dropped
+            recording.enable(CarvingEvent.class).withThreshold(Duration.ofNanos(1));
+            recording.start();
+            try (Image image = new Image(input.toString())) {
+                image.carveToWidth(25, SeamCriterion.LOWEST_ENERGY);
+                image.insertSeam(image.getLastRemovedSeam());
+                image.writeImage(tempDir.resolve("output.png").toFile());
+            }
+            recording.stop();
+            recording.dump(recorded);
+        }
+
+        // Each seam was searched for once
+        Assertions.assertThat(CarvingMetrics.getHistogram(CarvingMetrics.Operation.SEAM_SEARCH).getCount())
+                .isEqualTo(searches + 5);
+        Object count = ManagementFactory.getPlatformMBeanServer().getAttribute(
+                CarvingMetrics.getMBeanName(CarvingMetrics.Operation.INSERT_SEAM), "Count");
+        Assertions.assertThat((Long) count).isPositive();
+        Assertions.assertThat(CarvingMetrics.toJson()).startsWith("{\"load\":{\"count\":")
+                .contains("\"seamSearch\":", "\"removeSeam\":", "\"insertSeam\":", "\"export\":");
+        List<RecordedEvent> events = RecordingFile.readAllEvents(recorded);
+        Assertions.assertThat(events).extracting(event -> event.getString("operation"))
+                .contains("load", "values", "energyUpdate", "seamSearch", "removeSeam", "insertSeam", "export");
+        Assertions.assertThat(events).allSatisfy(event -> {
+            Assertions.assertThat(event.getDuration()).isPositive();
+            Assertions.assertThat(event.getInt("width")).isBetween(25, 30);
+        });
+    }
+}
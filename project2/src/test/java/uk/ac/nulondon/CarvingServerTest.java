@@ -0,0 +1,156 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+public class CarvingServerTest {
+    @Test
+    void carvesConcurrentRequestsOverLocalhost() throws Exception {
+        byte[] png = randomPng(40, 30);
+        try (CarvingServer server = new CarvingServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2)) {
+            server.start();
+            String base = "http://localhost:" + server.getPort();
+            HttpClient client = HttpClient.newHttpClient();
+            // More requests than slots: the others wait for a slot rather than failing
+            List<CompletableFuture<HttpResponse<byte[]>>> responses = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                URI uri = URI.create(base + "/carve?width=" + (30 + i) + "&height=25");
+                HttpRequest request = HttpRequest.newBuilder(uri)
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(png)).build();
+                responses.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()));
+            }
+            for (int i = 0; i < responses.size(); i++) {
+                HttpResponse<byte[]> response = responses.get(i).get();
+                Assertions.assertThat(response.statusCode()).isEqualTo(200);
+                BufferedImage carved = ImageIO.read(new ByteArrayInputStream(response.body()));
+                Assertions.assertThat(carved.getWidth()).isEqualTo(30 + i);
+                Assertions.assertThat(carved.getHeight()).isEqualTo(25);
+            }
+
+            // A body that is not an image, or a size the image cannot be carved to, is a bad request
+            HttpResponse<String> broken = client.send(HttpRequest.newBuilder(URI.create(base + "/carve?width=10"))
+                    .POST(HttpRequest.BodyPublishers.ofString("not an image")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            Assertions.assertThat(broken.statusCode()).isEqualTo(400);
+            HttpResponse<String> tooWide = client.send(HttpRequest.newBuilder(URI.create(base + "/carve?width=50"))
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(png)).build(), HttpResponse.BodyHandlers.ofString());
+            Assertions.assertThat(tooWide.statusCode()).isEqualTo(400);
+
+            HttpResponse<String> stats = client.send(HttpRequest.newBuilder(URI.create(base + "/stats")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            Assertions.assertThat(stats.body()).contains("\"completed\":6", "\"failed\":2", "\"inFlight\":0");
+            Assertions.assertThat(server.getLatencyPercentile(99)).isGreaterThanOrEqualTo(
+                    server.getLatencyPercentile(50)).isPositive();
+        }
+    }
+
+    @Test
+    void batchesRequestsForTheSameWorkAndTurnsAwayLargeOnes() throws Exception {
+        byte[] png = randomPng(400, 300);
+        try (CarvingServer server = new CarvingServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1)) {
+            server.start();
+            URI uri = URI.create("http://localhost:" + server.getPort() + "/carve?width=200");
+            HttpClient client = HttpClient.newHttpClient();
+            // With one slot, the requests that arrive while the first is carved are carved by its slot
+            List<CompletableFuture<HttpResponse<byte[]>>> responses = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                responses.add(client.sendAsync(HttpRequest.newBuilder(uri)
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(png)).build(),
+                        HttpResponse.BodyHandlers.ofByteArray()));
+            }
+            for (CompletableFuture<HttpResponse<byte[]>> response : responses) {
+                Assertions.assertThat(response.get().statusCode()).isEqualTo(200);
+                BufferedImage carved = ImageIO.read(new ByteArrayInputStream(response.get().body()));
+                Assertions.assertThat(carved.getWidth()).isEqualTo(200);
+                Assertions.assertThat(carved.getHeight()).isEqualTo(300);
+            }
+            Assertions.assertThat(server.getCompleted()).isEqualTo(4);
+            Assertions.assertThat(server.getBatched()).isPositive();
+
+            // A body longer than the limit, or an image with too many pixels, is too large to carve
+            server.setMaxRequestBytes(png.length - 1);
+            HttpResponse<String> tooLong = client.send(HttpRequest.newBuilder(uri)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(png)).build(), HttpResponse.BodyHandlers.ofString());
+            Assertions.assertThat(tooLong.statusCode()).isEqualTo(413);
+            server.setMaxRequestBytes(png.length);
+            server.setMaxImagePixels(400 * 300 - 1);
+            HttpResponse<String> tooLarge = client.send(HttpRequest.newBuilder(uri)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(png)).build(), HttpResponse.BodyHandlers.ofString());
+            Assertions.assertThat(tooLarge.statusCode()).isEqualTo(413);
+            Assertions.assertThat(server.getFailed()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    void aRequestCarvedInTheBatchOfAnotherIsAnsweredBeforeOtherWork() throws Exception {
+        byte[] large = randomPng(600, 400);
+        byte[] small = randomPng(300, 200);
+        try (CarvingServer server = new CarvingServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1)) {
+            server.start();
+            String base = "http://localhost:" + server.getPort() + "/carve?width=";
+            HttpClient client = HttpClient.newHttpClient();
+            // The first large image takes the only slot, then a small one and a second large one queue behind it
+            CompletableFuture<Long> first = answeredAt(client, base + 300, large);
+            awaitCondition(() -> server.getInFlight() == 1);
+            CompletableFuture<Long> otherWork = answeredAt(client, base + 250, small);
+            awaitCondition(() -> server.getQueued() == 1);
+            CompletableFuture<Long> sameWork = answeredAt(client, base + 300, large);
+            awaitCondition(() -> server.getQueued() == 2);
+
+            // The slot carves the second large image right after the first, and it is answered at once,
+            // rather than once it would have had a slot of its own
+            Assertions.assertThat(first.get()).isLessThan(sameWork.get());
+            Assertions.assertThat(sameWork.get()).isLessThan(otherWork.get());
+            Assertions.assertThat(server.getBatched()).isEqualTo(1);
+            Assertions.assertThat(server.getCompleted()).isEqualTo(3);
+        }
+    }
+
+    private static CompletableFuture<Long> answeredAt(HttpClient client, String uri, byte[] png) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(uri)).POST(HttpRequest.BodyPublishers.ofByteArray(png))
+                .build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).thenApply(response -> {
+            Assertions.assertThat(response.statusCode()).isEqualTo(200);
+            return System.nanoTime();
+        });
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            Assertions.assertThat(System.nanoTime()).as("waited too long").isLessThan(deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static byte[] randomPng(int width, int height) throws IOException {
+        Random random = new Random(1);
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                img.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", out);
+        return out.toByteArray();
+    }
+}
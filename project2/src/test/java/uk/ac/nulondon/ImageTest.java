@@ -0,0 +1,551 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+public class ImageTest {
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Writes a noisy image with a smooth gradient to a PNG file.
+     */
+    private String writeTestImage(int width, int height, long seed) throws IOException {
+        Random random = new Random(seed);
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = (int) (128 + 100 * Math.sin(x * 0.3 + y * 0.1)) + random.nextInt(20);
+                int green = (x * 7 + random.nextInt(30)) % 256;
+                int blue = (y * 5 + random.nextInt(60)) % 256;
+                img.setRGB(x, y, new Color(red, green, blue).getRGB());
+            }
+        }
+        File file = tempDir.resolve("test-" + seed + ".png").toFile();
+        ImageIO.write(img, "png", file);
+        return file.getPath();
+    }
+
+    /**
+     * Lists the energy of every pixel, row by row.
+     */
+    private static ArrayList<Integer> energies(Image image) {
+        ArrayList<Integer> energies = new ArrayList<>();
+        for (Pixel pixel : image.toPixelGraph()) {
+            for (; pixel != null; pixel = pixel.getRight()) {
+                energies.add(pixel.getEnergy());
+            }
+        }
+        return energies;
+    }
+
+    @Test
+    void incrementalUpdateMatchesFullUpdate() throws IOException {
+        String path = writeTestImage(40, 30, 1);
+        Image incremental = new Image(path);
+        Image full = new Image(path);
+        Random random = new Random(2);
+
+        for (int step = 0; step < 25; step++) {
+            // Edit both images the same way, as the editor would
+            ArrayList<Pixel> incrementalSeam = incremental.findBluestSeam();
+            ArrayList<Pixel> fullSeam = full.findBluestSeam();
+            incremental.highlightSeam(incrementalSeam, Color.BLUE);
+            full.highlightSeam(fullSeam, Color.BLUE);
+            incremental.updateValues();
+            full.updateAllValues();
+            Assertions.assertThat(energies(incremental)).isEqualTo(energies(full));
+
+            // Undo the highlight by removing and reinserting the seam without an update in between
+            incremental.removeSeam(incrementalSeam);
+            incremental.insertSeam(incremental.getLastRemovedSeam());
+            full.removeSeam(fullSeam);
+            full.insertSeam(full.getLastRemovedSeam());
+            incremental.updateValues();
+            full.updateAllValues();
+
+            // Remove the lowest energy seam, or put the last removed one back
+            if (random.nextInt(4) > 0 || incremental.getLastRemovedSeam() == null) {
+                incremental.removeSeam(incremental.findLowestEnergySeam());
+                full.removeSeam(full.findLowestEnergySeam());
+            } else {
+                incremental.insertSeam(incremental.getLastRemovedSeam());
+                full.insertSeam(full.getLastRemovedSeam());
+            }
+            incremental.updateValues();
+            full.updateAllValues();
+            Assertions.assertThat(energies(incremental)).isEqualTo(energies(full));
+        }
+    }
+
+    @Test
+    void mixedSeamsUpdateIncrementallyAndUndoCompletely() throws IOException {
+        String path = writeTestImage(30, 24, 3);
+        Image incremental = new Image(path);
+        Image full = new Image(path);
+        ArrayList<Integer> originalColors = colors(incremental);
+        Random random = new Random(4);
+
+        int removed = 0;
+        for (int step = 0; step < 30; step++) {
+            int choice = random.nextInt(3);
+            if (choice == 0) {
+                incremental.removeSeam(incremental.findLowestEnergySeam());
+                full.removeSeam(full.findLowestEnergySeam());
+                removed++;
+            } else if (choice == 1) {
+                incremental.removeHorizontalSeam(incremental.findHorizontalSeam(SeamCriterion.LOWEST_ENERGY));
+                full.removeHorizontalSeam(full.findHorizontalSeam(SeamCriterion.LOWEST_ENERGY));
+                removed++;
+            } else if (removed > 0) {
+                incremental.insertSeam(incremental.getLastRemovedSeam());
+                full.insertSeam(full.getLastRemovedSeam());
+                removed--;
+            }
+            incremental.updateValues();
+            full.updateAllValues();
+            Assertions.assertThat(energies(incremental)).isEqualTo(energies(full));
+        }
+
+        // Undoing every removal gives back the original image
+        while (incremental.getLastRemovedSeam() != null) {
+            incremental.insertSeam(incremental.getLastRemovedSeam());
+        }
+        Assertions.assertThat(incremental.getWidth()).isEqualTo(30);
+        Assertions.assertThat(incremental.getHeight()).isEqualTo(24);
+        Assertions.assertThat(colors(incremental)).isEqualTo(originalColors);
+    }
+
+    @Test
+    void carveToReachesTargetSize() throws IOException {
+        Image image = new Image(writeTestImage(30, 24, 5));
+        image.carveTo(22, 19, SeamCriterion.LOWEST_ENERGY);
+        Assertions.assertThat(image.getWidth()).isEqualTo(22);
+        Assertions.assertThat(image.getHeight()).isEqualTo(19);
+    }
+
+    @Test
+    void carvingWithoutHistoryAllocatesNothingPerSeam() throws IOException {
+        Assumptions.assumeTrue(ScratchArena.threadAllocatedBytes() >= 0);
+        Image image = new Image(writeTestImage(400, 300, 11));
+        image.setParallelism(Parallelism.SEQUENTIAL);
+        image.setSeamParallelism(Parallelism.SEQUENTIAL);
+        image.setKeepHistory(false);
+        // The first seams grow the scratch arrays, which later seams of the same height reuse
+        image.carveToWidth(390, SeamCriterion.LOWEST_ENERGY);
+        long before = ScratchArena.threadAllocatedBytes();
+        image.carveToWidth(340, SeamCriterion.LOWEST_ENERGY);
+        long perSeam = (ScratchArena.threadAllocatedBytes() - before) / 50;
+        // A seam of 300 ints alone would take over 1 KB
+        Assertions.assertThat(perSeam).isLessThan(1024);
+    }
+
+    @Test
+    void parallelValuesMatchSequentialValues() throws IOException {
+        String path = writeTestImage(50, 37, 6);
+        Image sequential = new Image(path);
+        Image parallel = new Image(path);
+        sequential.setParallelism(Parallelism.SEQUENTIAL);
+        // A threshold of 0 splits even this small image across threads
+        try (Parallelism threads = new Parallelism(4, 0)) {
+            parallel.setParallelism(threads);
+            sequential.updateAllValues();
+            parallel.updateAllValues();
+            Assertions.assertThat(energies(parallel)).isEqualTo(energies(sequential));
+
+            // The separate passes give the same values as the fused one
+            parallel.imageCalculateBrightness();
+            parallel.imageCalculateEnergy();
+            Assertions.assertThat(energies(parallel)).isEqualTo(energies(sequential));
+        }
+    }
+
+    @Test
+    void parallelSeamsMatchSequentialSeams() throws IOException {
+        // The image is wide enough for each row to be split into a few chunks
+        String path = writeTestImage(1500, 6, 7);
+        Image sequential = new Image(path);
+        Image parallel = new Image(path);
+        sequential.setSeamParallelism(Parallelism.SEQUENTIAL);
+        try (Parallelism threads = new Parallelism(4, 0)) {
+            parallel.setSeamParallelism(threads);
+            for (int step = 0; step < 3; step++) {
+                boolean bluest = step == 1;
+                ArrayList<Pixel> sequentialSeam = bluest ? sequential.findBluestSeam()
+                        : sequential.findLowestEnergySeam();
+                ArrayList<Pixel> parallelSeam = bluest ? parallel.findBluestSeam() : parallel.findLowestEnergySeam();
+                Assertions.assertThat(parallelSeam).extracting(Pixel::getX)
+                        .isEqualTo(sequentialSeam.stream().map(Pixel::getX).toList());
+                sequential.removeSeam(sequentialSeam);
+                parallel.removeSeam(parallelSeam);
+                sequential.updateValues();
+                parallel.updateValues();
+            }
+        }
+    }
+
+    @Test
+    void bandedLoadAndWriteMatchTheWholeImage() throws IOException {
+        String path = writeTestImage(23, 17, 8);
+        Image whole = new Image(path);
+        // Bands of 5 rows leave a shorter band at the bottom
+        Image banded = new Image(path, 5, 1);
+        Assertions.assertThat(colors(banded)).isEqualTo(colors(whole));
+        Assertions.assertThat(energies(banded)).isEqualTo(energies(whole));
+
+        // Every other column and row is kept, starting with the first
+        Image subsampled = new Image(path, 3, 2);
+        Assertions.assertThat(subsampled.getWidth()).isEqualTo(12);
+        Assertions.assertThat(subsampled.getHeight()).isEqualTo(9);
+        BufferedImage original = ImageIO.read(new File(path));
+        Assertions.assertThat(subsampled.toPixelGraph().get(4).getRight().getColor().getRGB())
+                .isEqualTo(original.getRGB(2, 8));
+
+        // Writing band by band gives back the same image
+        banded.removeSeam(banded.findLowestEnergySeam());
+        File output = tempDir.resolve("banded.png").toFile();
+        banded.writeImage(output);
+        Assertions.assertThat(colors(new Image(output.getPath()))).isEqualTo(colors(banded));
+    }
+
+    @Test
+    void mappedStoreMatchesHeapStore() throws IOException {
+        String path = writeTestImage(26, 19, 9);
+        Path storage = tempDir.resolve("storage");
+        Files.createDirectory(storage);
+        Image heap = new Image(path);
+        Image mapped = new Image(path, 0, 1, storage);
+        for (int step = 0; step < 8; step++) {
+            if (step % 3 == 2) {
+                heap.insertSeam(heap.getLastRemovedSeam());
+                mapped.insertSeam(mapped.getLastRemovedSeam());
+            } else if (step % 2 == 0) {
+                heap.removeSeam(heap.findLowestEnergySeam());
+                mapped.removeSeam(mapped.findLowestEnergySeam());
+            } else {
+                heap.removeHorizontalSeam(heap.findHorizontalSeam(SeamCriterion.BLUEST));
+                mapped.removeHorizontalSeam(mapped.findHorizontalSeam(SeamCriterion.BLUEST));
+            }
+            heap.updateValues();
+            mapped.updateValues();
+            Assertions.assertThat(energies(mapped)).isEqualTo(energies(heap));
+        }
+        Assertions.assertThat(colors(mapped)).isEqualTo(colors(heap));
+
+        // Closing the image deletes its files
+        mapped.close();
+        try (Stream<Path> files = Files.list(storage)) {
+            Assertions.assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    void storesRejectImagesTooLargeToIndex() {
+        // 65536 x 32768 pixels is 2^31, which wraps around in an int; the check comes before any allocation
+        Assertions.assertThatThrownBy(() -> new HeapPixelStore(65_536, 32_768))
+                .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("2147483648 pixels");
+        Assertions.assertThatThrownBy(() -> new MappedPixelStore(65_536, 32_768, tempDir))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void undoHistorySpillsOrDropsOldSeams() throws IOException {
+        String path = writeTestImage(32, 20, 10);
+        Image spilling = new Image(path);
+        ArrayList<Integer> originalColors = colors(spilling);
+        spilling.getHistory().setSpillDirectory(tempDir);
+        spilling.getHistory().setMemoryLimit(200);
+        spilling.carveTo(24, 15, SeamCriterion.LOWEST_ENERGY);
+        Assertions.assertThat(spilling.getHistory().getSpilledCount()).isPositive();
+
+        // Undoing every removal reads the spilled seams back and gives back the original image
+        while (spilling.getLastRemovedSeam() != null) {
+            spilling.insertSeam(spilling.getLastRemovedSeam());
+        }
+        Assertions.assertThat(colors(spilling)).isEqualTo(originalColors);
+        spilling.close();
+
+        // Without a spill directory, only the newest seams can be undone
+        Image dropping = new Image(path);
+        dropping.getHistory().setSpillDirectory(null);
+        dropping.getHistory().setMemoryLimit(200);
+        dropping.carveToWidth(24, SeamCriterion.LOWEST_ENERGY);
+        Assertions.assertThat(dropping.getHistory().getDroppedCount() + dropping.getHistory().size()).isEqualTo(8);
+        while (dropping.getLastRemovedSeam() != null) {
+            dropping.insertSeam(dropping.getLastRemovedSeam());
+        }
+        Assertions.assertThat(dropping.getWidth()).isEqualTo(24 + 8 - (int) dropping.getHistory().getDroppedCount());
+    }
+
+    @Test
+    void seamIndexRetargetsLikeCarving() throws IOException {
+        String path = writeTestImage(36, 18, 11);
+        SeamIndex index = new Image(path).buildSeamIndex(20, SeamCriterion.LOWEST_ENERGY);
+        Path sidecar = tempDir.resolve("test.seams");
+        index.write(sidecar);
+        SeamIndex read = SeamIndex.read(sidecar);
+        BufferedImage original = ImageIO.read(new File(path));
+
+        // Retargeting with the index read back gives the same image as carving to each width
+        for (int width : new int[] {36, 31, 27, 20}) {
+            Image carved = new Image(path);
+            carved.carveToWidth(width, SeamCriterion.LOWEST_ENERGY);
+            File output = tempDir.resolve("retargeted-" + width + ".png").toFile();
+            ImageIO.write(read.retarget(original, width), "png", output);
+            Assertions.assertThat(colors(new Image(output.getPath()))).isEqualTo(colors(carved));
+        }
+    }
+
+    @Test
+    void costFunctionsShareTheSeamSearch() throws IOException {
+        Image image = new Image(writeTestImage(14, 11, 12));
+
+        // A cost function defined outside the image finds the same seam as the built-in criterion
+        SeamCostFunction energy = (store, horizontal, line, from, to, costs) -> {
+            for (int i = from; i < to; i++) {
+                costs[i] = horizontal ? store.getEnergy(line, i) : store.getEnergy(i, line);
+            }
+        };
+        Assertions.assertThat(image.findVerticalSeam(energy)).extracting(Pixel::getX)
+                .isEqualTo(image.findLowestEnergySeam().stream().map(Pixel::getX).toList());
+
+        // Forward energy matches a direct implementation of its recurrence
+        ArrayList<Pixel> rows = image.toPixelGraph();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[][] brightness = new int[height][width];
+        for (int y = 0; y < height; y++) {
+            Pixel pixel = rows.get(y);
+            for (int x = 0; x < width; x++, pixel = pixel.getRight()) {
+                brightness[y][x] = pixel.getBrightness();
+            }
+        }
+        long[][] totals = new long[height][width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int left = brightness[y][Math.max(x - 1, 0)];
+                int right = brightness[y][Math.min(x + 1, width - 1)];
+                int above = brightness[Math.max(y - 1, 0)][x];
+                long cost = Math.abs(right - left);
+                if (y == 0) {
+                    totals[y][x] = cost;
+                    continue;
+                }
+                long best = totals[y - 1][x] + cost;
+                if (x > 0) {
+                    best = Math.min(best, totals[y - 1][x - 1] + cost + Math.abs(above - left));
+                }
+                if (x < width - 1) {
+                    best = Math.min(best, totals[y - 1][x + 1] + cost + Math.abs(above - right));
+                }
+                totals[y][x] = best;
+            }
+        }
+        ArrayList<Pixel> seam = image.findVerticalSeam(SeamCriterion.FORWARD_ENERGY);
+        long best = Long.MAX_VALUE;
+        for (int x = 0; x < width; x++) {
+            best = Math.min(best, totals[height - 1][x]);
+        }
+        // The seam found is connected and costs as little as the cheapest seam
+        long cost = 0;
+        for (int y = 0; y < height; y++) {
+            int x = seam.get(y).getX();
+            int left = brightness[y][Math.max(x - 1, 0)];
+            int right = brightness[y][Math.min(x + 1, width - 1)];
+            int above = brightness[Math.max(y - 1, 0)][x];
+            cost += Math.abs(right - left);
+            if (y > 0) {
+                int step = x - seam.get(y - 1).getX();
+                Assertions.assertThat(Math.abs(step)).isLessThanOrEqualTo(1);
+                cost += step == 1 ? Math.abs(above - left) : step == -1 ? Math.abs(above - right) : 0;
+            }
+        }
+        Assertions.assertThat(cost).isEqualTo(best);
+
+        // Carving with forward energy reaches the target size
+        image.carveTo(10, 8, SeamCriterion.FORWARD_ENERGY);
+        Assertions.assertThat(image.getWidth()).isEqualTo(10);
+        Assertions.assertThat(image.getHeight()).isEqualTo(8);
+    }
+
+    @Test
+    void highlightedSeamsAreCachedUntilTheImageChanges() throws IOException {
+        String path = writeTestImage(20, 12, 13);
+        Image image = new Image(path);
+        Image reference = new Image(path);
+        ArrayList<Integer> originalColors = colors(image);
+
+        // Highlighting draws on the snapshot only, and switching criteria does not change the image
+        BufferedImage highlighted = image.snapshot(SeamCriterion.LOWEST_ENERGY, Color.RED).toBufferedImage();
+        image.snapshot(SeamCriterion.BLUEST, Color.BLUE);
+        int[] columns = image.findLowestEnergySeam().stream().mapToInt(Pixel::getX).toArray();
+        Assertions.assertThat(image.getVersion()).isZero();
+        Assertions.assertThat(colors(image)).isEqualTo(originalColors);
+        for (int y = 0; y < image.getHeight(); y++) {
+            Assertions.assertThat(highlighted.getRGB(columns[y], y)).isEqualTo(Color.RED.getRGB());
+        }
+
+        // Deleting the cached seam removes the same seam as finding it again would
+        image.removeVerticalSeam(SeamCriterion.LOWEST_ENERGY);
+        reference.removeSeam(reference.findLowestEnergySeam());
+        Assertions.assertThat(image.getVersion()).isEqualTo(1);
+        Assertions.assertThat(colors(image)).isEqualTo(colors(reference));
+        Assertions.assertThat(image.findBluestSeam()).extracting(Pixel::getX)
+                .isEqualTo(reference.findBluestSeam().stream().map(Pixel::getX).toList());
+    }
+
+    @Test
+    void incrementalSeamSearchMatchesFullSearch() throws IOException {
+        String path = writeTestImage(64, 20, 14);
+        for (SeamCriterion criterion : new SeamCriterion[] {SeamCriterion.LOWEST_ENERGY, SeamCriterion.BLUEST}) {
+            Image incremental = new Image(path);
+            Image full = new Image(path);
+            full.setIncrementalSeams(false);
+            double[] leastComputed = {1};
+            incremental.carveToWidth(40, criterion, (removed, total, elapsedNanos) ->
+                    leastComputed[0] = Math.min(leastComputed[0], incremental.getLastSeamComputedFraction()));
+            full.carveToWidth(40, criterion);
+            Assertions.assertThat(colors(incremental)).isEqualTo(colors(full));
+            Assertions.assertThat(leastComputed[0]).isLessThan(1);
+        }
+    }
+
+    @Test
+    void pyramidSeamSearchStaysCloseToTheExactSeam() throws IOException {
+        Image image = new Image(writeTestImage(300, 200, 15));
+        ArrayList<Pixel> exact = image.findLowestEnergySeam();
+        // A band as wide as the image finds the exact seam
+        image.setPyramidBand(300);
+        Assertions.assertThat(image.findLowestEnergySeam()).extracting(Pixel::getX)
+                .isEqualTo(exact.stream().map(Pixel::getX).toList());
+        // A narrow band finds a connected seam that costs at least as much
+        image.setPyramidBand(1);
+        ArrayList<Pixel> banded = image.findLowestEnergySeam();
+        Assertions.assertThat(banded).hasSize(200);
+        for (int y = 1; y < banded.size(); y++) {
+            Assertions.assertThat(Math.abs(banded.get(y).getX() - banded.get(y - 1).getX())).isLessThanOrEqualTo(1);
+        }
+        Assertions.assertThat(banded.stream().mapToInt(Pixel::getEnergy).sum())
+                .isGreaterThanOrEqualTo(exact.stream().mapToInt(Pixel::getEnergy).sum());
+    }
+
+    @Test
+    void severalSeamsPerPassCarveAndUndoLikeSingleSeams() throws IOException {
+        String path = writeTestImage(80, 30, 16);
+        for (SeamCriterion criterion : SeamCriterion.values()) {
+            Image image = new Image(path);
+            ArrayList<Integer> original = colors(image);
+            image.setSeamsPerPass(8);
+            image.carveToWidth(50, criterion);
+            Assertions.assertThat(image.getWidth()).isEqualTo(50);
+            Assertions.assertThat(image.getHistory().size()).isEqualTo(30);
+            // The energy left by the batched removals is the energy of the carved image
+            ArrayList<Integer> carved = energies(image);
+            image.updateAllValues();
+            Assertions.assertThat(carved).isEqualTo(energies(image));
+            // Every seam can be inserted back on its own
+            while (image.getWidth() < 80) {
+                image.insertSeam(image.getLastRemovedSeam());
+            }
+            Assertions.assertThat(colors(image)).isEqualTo(original);
+        }
+    }
+
+    @Test
+    void seamsKeepTheTieBreakingOfTheOriginalSearch() throws IOException, URISyntaxException {
+        // Images where every column, or every other column, costs the same
+        BufferedImage flat = new BufferedImage(6, 5, BufferedImage.TYPE_INT_RGB);
+        BufferedImage stripes = new BufferedImage(7, 5, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 5; y++) {
+            for (int x = 0; x < 7; x++) {
+                if (x < 6) {
+                    flat.setRGB(x, y, new Color(10, 20, 30).getRGB());
+                }
+                int gray = x % 2 == 0 ? 0 : 255;
+                stripes.setRGB(x, y, new Color(gray, gray, x % 3 == 0 ? 200 : 50).getRGB());
+            }
+        }
+        File flatFile = tempDir.resolve("flat.png").toFile();
+        File stripesFile = tempDir.resolve("stripes.png").toFile();
+        ImageIO.write(flat, "png", flatFile);
+        ImageIO.write(stripes, "png", stripesFile);
+
+        // The original columns of the lowest energy and the bluest seams, found and then the lowest energy
+        // seam removed three times over, as the search before the back-pointer tables found them
+        Map<String, int[][][]> expected = new LinkedHashMap<>();
+        expected.put(flatFile.getPath(), new int[][][]{
+            {{1, 2, 3, 4, 5}, {0, 0, 0, 0, 0}},
+            {{0, 1, 2, 3, 4}, {0, 0, 0, 0, 0}},
+            {{2, 0, 1, 2, 3}, {2, 0, 0, 0, 0}}});
+        expected.put(stripesFile.getPath(), new int[][][]{
+            {{2, 3, 3, 3, 4}, {0, 0, 0, 0, 0}},
+            {{4, 5, 5, 5, 6}, {0, 0, 0, 0, 0}},
+            {{0, 1, 1, 1, 2}, {0, 0, 0, 0, 0}}});
+        expected.put(sampleImage("beach"), new int[][][]{
+            {{3, 2, 1, 0, 0, 0, 0, 1}, {2, 1, 0, 0, 0, 0, 0, 0}},
+            {{2, 1, 0, 1, 2, 1, 1, 0}, {2, 1, 0, 1, 1, 1, 1, 0}},
+            {{0, 3, 4, 5, 5, 4, 4, 5}, {4, 3, 2, 2, 1, 2, 2, 2}}});
+        expected.put(sampleImage("duck"), new int[][][]{
+            {{6, 5, 4, 3, 2, 1, 0, 0, 0, 0, 0, 1, 2, 3, 4, 5}, {8, 8, 7, 6, 7, 8, 7, 7, 7, 6, 5, 6, 6, 6, 5, 4}},
+            {{0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 1, 0, 1, 2, 3, 4}, {8, 8, 7, 6, 7, 8, 7, 7, 7, 6, 5, 6, 6, 6, 5, 3}},
+            {{1, 1, 1, 1, 3, 4, 5, 5, 5, 5, 4, 3, 0, 1, 2, 3}, {8, 8, 7, 6, 7, 8, 7, 7, 7, 6, 5, 6, 6, 6, 5, 2}}});
+        expected.put(sampleImage("home"), new int[][][]{
+            {{8, 7, 6, 5, 4, 4, 5, 4, 3, 2, 3, 2, 2, 3, 4, 5}, {8, 9, 9, 9, 9, 9, 8, 7, 6, 6, 6, 7, 8, 8, 7, 6}},
+            {{7, 6, 5, 4, 6, 5, 3, 2, 2, 4, 4, 4, 4, 4, 3, 4}, {7, 9, 9, 9, 9, 9, 8, 7, 6, 6, 6, 7, 8, 8, 7, 6}},
+            {{9, 8, 7, 6, 3, 3, 2, 3, 4, 3, 2, 3, 3, 2, 2, 3}, {6, 9, 9, 9, 9, 9, 8, 7, 6, 6, 6, 7, 8, 8, 7, 6}}});
+        expected.put(sampleImage("snowman"), new int[][][]{
+            {{0, 1, 2, 1, 2, 3, 2, 1, 0, 0, 0, 0, 0, 1, 2, 3}, {1, 2, 1, 2, 2, 3, 2, 3, 4, 5, 6, 5, 4, 4, 4, 5}},
+            {{3, 4, 4, 4, 3, 2, 1, 2, 3, 4, 5, 6, 5, 5, 6, 7}, {1, 2, 1, 2, 0, 0, 1, 3, 4, 5, 6, 5, 4, 4, 4, 5}},
+            {{4, 3, 1, 2, 1, 1, 0, 3, 4, 5, 6, 5, 6, 6, 5, 6}, {1, 2, 1, 2, 0, 0, 0, 3, 4, 5, 6, 4, 4, 4, 4, 5}}});
+
+        for (Map.Entry<String, int[][][]> entry : expected.entrySet()) {
+            try (Image image = new Image(entry.getKey())) {
+                for (int[][] seams : entry.getValue()) {
+                    ArrayList<Pixel> lowest = image.findLowestEnergySeam();
+                    Assertions.assertThat(lowest).as(entry.getKey()).extracting(Pixel::getX)
+                            .containsExactly(IntStream.of(seams[0]).boxed().toArray(Integer[]::new));
+                    Assertions.assertThat(image.findBluestSeam()).as(entry.getKey()).extracting(Pixel::getX)
+                            .containsExactly(IntStream.of(seams[1]).boxed().toArray(Integer[]::new));
+                    image.removeSeam(lowest);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the path of one of the bundled sample images.
+     */
+    private static String sampleImage(String name) throws URISyntaxException {
+        return Path.of(ImageTest.class.getResource("/SampleImages/" + name + ".png").toURI()).toString();
+    }
+
+    /**
+     * Lists the color of every pixel, row by row.
+     */
+    private static ArrayList<Integer> colors(Image image) {
+        ArrayList<Integer> colors = new ArrayList<>();
+        for (Pixel pixel : image.toPixelGraph()) {
+            for (; pixel != null; pixel = pixel.getRight()) {
+                colors.add(pixel.getColor().getRGB());
+            }
+        }
+        return colors;
+    }
+}
@@ -0,0 +1,53 @@
+package uk.ac.nulondon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.util.Random;
+
+public class RasterIOTest {
+    @ParameterizedTest
+    @ValueSource(ints = {BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_RGB,
+            BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_USHORT_565_RGB})
+    void readsTheSameColorsAsGetRgbAndWritesThemBack(int type) {
+        Random random = new Random(type);
+        BufferedImage img = new BufferedImage(13, 7, type);
+        for (int y = 0; y < 7; y++) {
+            for (int x = 0; x < 13; x++) {
+                img.setRGB(x, y, random.nextInt());
+            }
+        }
+        int[] expected = img.getRGB(0, 0, 13, 7, null, 0, 13);
+
+        int[] argb = RasterIO.readArgb(img);
+        Assertions.assertThat(argb).isEqualTo(expected);
+
+        BufferedImage wrapped = RasterIO.wrapRgb(13, 7, argb);
+        Assertions.assertThat(wrapped.getType()).isEqualTo(BufferedImage.TYPE_INT_RGB);
+        for (int i = 0; i < expected.length; i++) {
+            Assertions.assertThat(wrapped.getRGB(i % 13, i / 13)).isEqualTo(expected[i] | 0xFF000000);
+        }
+    }
+
+    @Test
+    void bandedImageRowsStayValidAfterTheNextRowIsRead() {
+        int[] argb = new int[13 * 7];
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = i;
+        }
+        HeapPixelStore store = new HeapPixelStore(13, 7);
+        store.setRows(0, 7, argb);
+        BandedImage image = new BandedImage(store, 4);
+
+        // Each row is a copy, so reading the next one does not change it
+        Raster first = image.getData(new Rectangle(0, 0, 13, 1));
+        Raster second = image.getData(new Rectangle(0, 5, 13, 1));
+        Assertions.assertThat(first.getDataElements(3, 0, null)).isEqualTo(new int[] {3});
+        Assertions.assertThat(second.getDataElements(3, 5, null)).isEqualTo(new int[] {5 * 13 + 3});
+    }
+}